@@ -0,0 +1,143 @@
+package com.essheva.assateague;
+
+import com.google.gson.Gson;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.time.format.TextStyle;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeSet;
+
+/**
+ * Calendar pages and synthetic inputs shared by benchmarks.
+ * <p>
+ * The pages bundled in 'fixtures' are hand-made in the shape the extraction script returns, they were not captured
+ * from the live site. Pages captured by a scan with 'recording.dir' set are used instead when the directory is given
+ * in the 'benchmark.recording.dir' system property.
+ */
+final class BenchmarkFixtures {
+
+    static final String LOOP_NAME = "Oceanside Loop 1";
+    static final LocalDate SEASON_START = LocalDate.of(2019, 4, 1);
+    static final LocalDate SEASON_STOP = LocalDate.of(2019, 10, 31);
+    static final String RECORDING_DIR_PROPERTY = "benchmark.recording.dir";
+
+    private BenchmarkFixtures() {
+    }
+
+    /**
+     * @param name page recorded in 'benchmark.recording.dir' as '&lt;loop&gt;/&lt;yyyy-MM-dd&gt;' if the property is set,
+     *             otherwise file in 'fixtures' holding the extraction script result of one page
+     */
+    static Map<String, Object> loadPageJson(String name) {
+        final String recordingDir = System.getProperty(RECORDING_DIR_PROPERTY);
+        if (recordingDir != null) {
+            final Path file = Paths.get(recordingDir).resolve(name + ".json");
+            if (!Files.isRegularFile(file)) {
+                throw new IllegalArgumentException("No recorded page " + file);
+            }
+            try {
+                return parse(Files.newInputStream(file));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        final String resource = "/fixtures/" + name + ".json";
+        final InputStream in = BenchmarkFixtures.class.getResourceAsStream(resource);
+        if (in == null) {
+            throw new IllegalArgumentException("No fixture " + resource);
+        }
+        return parse(in);
+    }
+
+    static CalendarPage loadPage(String name) {
+        return CalendarPage.fromScriptResult(loadPageJson(name));
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> parse(InputStream in) {
+        try (Reader reader = new InputStreamReader(in, StandardCharsets.UTF_8)) {
+            return new Gson().fromJson(reader, Map.class);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * @return page of one loop starting at the given date with roughly a third of cells available
+     */
+    static CalendarPage syntheticPage(LocalDate start, int columns, int rows, long seed) {
+        final Random random = new Random(seed);
+        final String[] days = new String[columns + CalendarHeader.FIRST_DAY_COLUMN];
+        Collections.nCopies(CalendarHeader.FIRST_DAY_COLUMN, "").toArray(days);
+        for (int i = 0; i < columns; i++) {
+            days[CalendarHeader.FIRST_DAY_COLUMN + i] = String.valueOf(start.plusDays(i).getDayOfMonth());
+        }
+        final LocalDate end = start.plusDays(columns - 1);
+        final String title = end.getMonth() == start.getMonth() ?
+                monthName(start) + " " + start.getYear() :
+                monthName(start) + " / " + monthName(end) + " " + start.getYear();
+
+        final String[] loops = new String[rows];
+        final String[] sites = new String[rows];
+        final String[] cells = new String[rows];
+        final StringBuilder row = new StringBuilder();
+        for (int r = 0; r < rows; r++) {
+            loops[r] = LOOP_NAME;
+            sites[r] = String.format("%04d", r + 1);
+            row.setLength(0);
+            row.append("--");
+            for (int c = 0; c < columns; c++) {
+                row.append(random.nextInt(3) == 0 ? CalendarPage.AVAILABLE : CalendarPage.NOT_AVAILABLE);
+            }
+            cells[r] = row.toString();
+        }
+        return new CalendarPage(CalendarHeader.resolve(title, days), loops, sites, cells);
+    }
+
+    /**
+     * @return sites of one loop with random availability over the whole season
+     */
+    static List<Site> syntheticSites(int count, double availableShare, long seed) {
+        final Random random = new Random(seed);
+        final List<Site> sites = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            final Site site = new Site(String.format("%04d", i + 1), LOOP_NAME);
+            site.setSiteLink("https://www.recreation.gov/camping/campsites/" + (70000 + i));
+            final DateBitSet dates = new DateBitSet();
+            for (LocalDate d = SEASON_START; !d.isAfter(SEASON_STOP); d = d.plusDays(1)) {
+                if (random.nextDouble() < availableShare) {
+                    dates.add(d);
+                }
+            }
+            site.addAvailableDates(dates);
+            sites.add(site);
+        }
+        return sites;
+    }
+
+    static SearchProfile seasonProfile(String name, int minLength, DayOfWeek... days) {
+        return new SearchProfile(name, new TreeSet<>(Collections.singleton(LOOP_NAME)),
+                days.length == 0 ? EnumSet.allOf(DayOfWeek.class) : EnumSet.of(days[0], days),
+                SEASON_START, SEASON_STOP, minLength, null);
+    }
+
+    private static String monthName(LocalDate date) {
+        return date.getMonth().getDisplayName(TextStyle.SHORT, Locale.ENGLISH).toUpperCase(Locale.ENGLISH);
+    }
+}
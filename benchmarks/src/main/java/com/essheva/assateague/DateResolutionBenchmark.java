@@ -0,0 +1,63 @@
+package com.essheva.assateague;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Resolving a fixture page header into column dates and looking up the date of every available cell.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class DateResolutionBenchmark {
+
+    @Param({"feb-mar-2019", "jul-2019"})
+    String fixture;
+
+    private String title;
+    private String[] days;
+    private CalendarPage page;
+
+    @Setup
+    @SuppressWarnings("unchecked")
+    public void setUp() {
+        final Map<String, Object> raw = BenchmarkFixtures.loadPageJson(fixture);
+        title = String.valueOf(raw.get("title"));
+        days = ((List<Object>) raw.get("days")).stream().map(String::valueOf).toArray(String[]::new);
+        page = CalendarPage.fromScriptResult(raw);
+    }
+
+    @Benchmark
+    public CalendarHeader resolveHeader() {
+        return CalendarHeader.resolve(title, days);
+    }
+
+    @Benchmark
+    public void resolveAvailableCells(Blackhole blackhole) {
+        final CalendarHeader header = page.getHeader();
+        for (int row = 0; row < page.getRowCount(); row++) {
+            for (int column = 0; column < page.getCellCount(row); column++) {
+                if (page.isAvailable(row, column)) {
+                    blackhole.consume(header.dateAt(column));
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package com.essheva.assateague;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Rendering parts of the notification mail for realistic and large results, every site listed inline.
+ * Run with '-prof gc' to see allocation per mail.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class MailRenderBenchmark {
+
+    private static final String SUBJECT = "Assateague sites available!";
+
+    @Param({"50", "3000"})
+    int sites;
+
+    private List<Site> input;
+    private MailRenderer renderer;
+
+    @Setup
+    public void setUp() {
+        input = BenchmarkFixtures.syntheticSites(sites, 0.4, 11);
+        renderer = new MailRenderer(Integer.MAX_VALUE);
+    }
+
+    @Benchmark
+    public String renderHtml() {
+        return renderer.renderHtml(SUBJECT, input, Collections.emptyList());
+    }
+
+    @Benchmark
+    public String renderText() {
+        return renderer.renderText(SUBJECT, input, Collections.emptyList());
+    }
+
+    @Benchmark
+    public String renderCsv() {
+        return renderer.renderCsv(input, Collections.emptyList());
+    }
+}
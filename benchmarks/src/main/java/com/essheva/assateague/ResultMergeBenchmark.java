@@ -0,0 +1,91 @@
+package com.essheva.assateague;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parsing calendar pages into sites, merging a full season of pages into one result,
+ * and matching the result against many search profiles.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ResultMergeBenchmark {
+
+    private static final int COLUMNS = 14;
+
+    @Param({"200", "2000"})
+    int sites;
+
+    @Param({"feb-mar-2019"})
+    String fixture;
+
+    private CalendarPage fixturePage;
+    private String fixtureLoopName;
+    private List<CalendarPage> seasonPages;
+    private List<Site> seasonSites;
+    private ProfileMatcher matcher;
+
+    @Setup
+    public void setUp() {
+        fixturePage = BenchmarkFixtures.loadPage(fixture);
+        fixtureLoopName = fixturePage.getRowCount() > 0 ? fixturePage.getLoopName(0) : BenchmarkFixtures.LOOP_NAME;
+
+        seasonPages = new ArrayList<>();
+        LocalDate start = BenchmarkFixtures.SEASON_START;
+        for (long seed = 0; !start.isAfter(BenchmarkFixtures.SEASON_STOP); start = start.plusDays(COLUMNS), seed++) {
+            seasonPages.add(BenchmarkFixtures.syntheticPage(start, COLUMNS, sites, seed));
+        }
+        seasonSites = BenchmarkFixtures.syntheticSites(sites, 0.3, 7);
+
+        final List<SearchProfile> profiles = new ArrayList<>();
+        final DayOfWeek[] days = DayOfWeek.values();
+        for (int i = 0; i < 100; i++) {
+            profiles.add(BenchmarkFixtures.seasonProfile("profile-" + i, 1 + i % 3, days[i % 7], days[(i + 1) % 7]));
+        }
+        matcher = new ProfileMatcher(profiles);
+    }
+
+    @Benchmark
+    public Set<Site> parseFixturePage() {
+        final SiteAccumulator result = new SiteAccumulator();
+        fixturePage.collectAvailableSites(fixtureLoopName, LocalDate.MIN, LocalDate.MAX, result);
+        fixturePage.collectAvailableSites(BenchmarkFixtures.LOOP_NAME, LocalDate.MIN, LocalDate.MAX, result);
+        return result.toSortedSet();
+    }
+
+    @Benchmark
+    public Set<Site> mergeSeasonPages() {
+        final SiteAccumulator result = new SiteAccumulator();
+        for (CalendarPage page : seasonPages) {
+            page.collectAvailableSites(BenchmarkFixtures.LOOP_NAME,
+                    BenchmarkFixtures.SEASON_START, BenchmarkFixtures.SEASON_STOP, result);
+        }
+        return result.toSortedSet();
+    }
+
+    @Benchmark
+    public Map<SearchProfile, List<Site>> matchProfiles() {
+        return matcher.match(seasonSites);
+    }
+}
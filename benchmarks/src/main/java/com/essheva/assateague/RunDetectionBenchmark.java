@@ -0,0 +1,61 @@
+package com.essheva.assateague;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.time.DayOfWeek;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Search period clipping, day of week masking and detection of runs of min length of stay
+ * over full-season availability.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RunDetectionBenchmark {
+
+    @Param({"100", "5000"})
+    int sites;
+
+    @Param({"0.3", "0.8"})
+    double availableShare;
+
+    private List<Site> input;
+    private AvailabilityFilter filter;
+
+    @Setup
+    public void setUp() {
+        input = BenchmarkFixtures.syntheticSites(sites, availableShare, 42);
+        filter = new AvailabilityFilter(BenchmarkFixtures.seasonProfile("weekends", 2,
+                DayOfWeek.FRIDAY, DayOfWeek.SATURDAY, DayOfWeek.SUNDAY));
+    }
+
+    @Benchmark
+    public void filterSites(Blackhole blackhole) {
+        for (Site site : input) {
+            blackhole.consume(filter.apply(site.getAvailability()));
+        }
+    }
+
+    @Benchmark
+    public void runsOnly(Blackhole blackhole) {
+        for (Site site : input) {
+            blackhole.consume(site.getAvailability().runsOfAtLeast(3));
+        }
+    }
+}
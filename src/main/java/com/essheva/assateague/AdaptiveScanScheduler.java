@@ -0,0 +1,193 @@
+package com.essheva.assateague;
+
+import java.io.IOException;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Polls every (loop, month) unit on its own interval instead of scanning everything at a fixed rate.
+ * <p>
+ * A unit whose availability changed is polled twice as often next time, an unchanged one waits half as long again
+ * (x1.5), both within ['poll.min.interval.minutes', 'poll.max.interval.minutes']. Units starting within 'poll.near.days'
+ * from today are polled twice as often, and every delay gets up to 'poll.jitter.percent' of random jitter either way.
+ * A unit is rescheduled only when its scan finished, so two scans of the same unit never run concurrently.
+ * <p>
+ * Changes are coalesced for 'poll.notify.delay.seconds' and then merged results of all units are handed
+ * to the listener together with the configuration they were scanned under and loops whose last scan failed
+ * or which have not completed a scan yet, e.g. right after start or after reconfiguration, so their previous
+ * availability is kept rather than reported as taken.
+ */
+public class AdaptiveScanScheduler implements AutoCloseable {
+
+    private static final double BACK_OFF_FACTOR = 1.5;
+    private static final double TIGHTEN_FACTOR = 0.5;
+
+    private volatile Configuration conf;
+    private final AvailabilitySource source;
+    private final Listener listener;
+    private final ScheduledExecutorService executor;
+    private final Map<ScanUnit, UnitState> states = new ConcurrentHashMap<>();
+    private final AtomicBoolean notificationPending = new AtomicBoolean();
+    private volatile long changedScanStartNanos;
+
+    AdaptiveScanScheduler(Configuration conf, AvailabilitySource source, Listener listener) {
+        this.conf = conf;
+        this.source = source;
+        this.listener = listener;
+        this.executor = Executors.newScheduledThreadPool(conf.getBrowserPoolSize() + 1);
+    }
+
+    void start() {
+        for (ScanUnit unit : ScanUnit.plan(conf)) {
+            states.put(unit, new UnitState(conf.getPollIntervalMinutes()));
+            executor.execute(() -> scan(unit));
+        }
+    }
+
+    /**
+     * Switches to a reloaded configuration: units no longer planned are not rescheduled after their current scan,
+     * new ones are scanned right away, and interval bounds, jitter and notify delay apply from the next scan on.
+     */
+    void reconfigure(Configuration conf) {
+        this.conf = conf;
+        final List<ScanUnit> planned = ScanUnit.plan(conf);
+        states.keySet().retainAll(planned);
+        for (ScanUnit unit : planned) {
+            if (states.putIfAbsent(unit, new UnitState(conf.getPollIntervalMinutes())) == null) {
+                executor.execute(() -> scan(unit));
+            }
+        }
+    }
+
+    private void scan(ScanUnit unit) {
+        final UnitState state = states.get(unit);
+        if (state == null || !state.running.compareAndSet(false, true)) {
+            return;
+        }
+        final long startNanos = System.nanoTime();
+        try {
+            final Set<Site> sites = source.getAvailableSites(conf, unit.getLoopName(), unit.getFrom(), unit.getTo());
+            final Map<String, DateBitSet> fingerprint = new HashMap<>();
+            sites.forEach(site -> fingerprint.put(site.getSiteName(), site.getAvailability()));
+
+            final boolean changed = !fingerprint.equals(state.fingerprint);
+            if (state.fingerprint != null) {
+                state.intervalMinutes = clamp(state.intervalMinutes * (changed ? TIGHTEN_FACTOR : BACK_OFF_FACTOR));
+            }
+            state.sites = sites;
+            state.failed = false;
+            state.fingerprint = fingerprint; // last, a unit counts as scanned once its sites are in place
+            if (changed) {
+                requestNotification(startNanos);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        } catch (IOException | RuntimeException e) {
+            Metrics.LOOP_SCAN_FAILURES.increment();
+            state.failed = true;
+            synchronized (System.err) {
+                System.err.println("Scan of " + unit + " failed: " + e);
+            }
+        } finally {
+            Metrics.LOOP_SCAN.recordSince(startNanos);
+            state.running.set(false);
+        }
+        reschedule(unit, state);
+    }
+
+    private void reschedule(ScanUnit unit, UnitState state) {
+        final LocalDate today = LocalDate.now();
+        if (unit.getTo().isBefore(today) || executor.isShutdown() || states.get(unit) != state) {
+            return;
+        }
+        final Configuration conf = this.conf;
+        double delay = state.intervalMinutes;
+        if (ChronoUnit.DAYS.between(today, unit.getFrom()) <= conf.getPollNearDays()) {
+            delay = clamp(delay * TIGHTEN_FACTOR);
+        }
+        final double jitter = conf.getPollJitterPercent() / 100.0;
+        delay *= 1 + (ThreadLocalRandom.current().nextDouble() * 2 - 1) * jitter;
+
+        final long delaySeconds = (long) (delay * 60);
+        synchronized (System.out) {
+            System.out.println(String.format("Next scan of %s in %d min.", unit, delaySeconds / 60));
+        }
+        executor.schedule(() -> scan(unit), delaySeconds, TimeUnit.SECONDS);
+    }
+
+    private double clamp(double intervalMinutes) {
+        final Configuration conf = this.conf;
+        return Math.max(conf.getPollMinIntervalMinutes(), Math.min(conf.getPollMaxIntervalMinutes(), intervalMinutes));
+    }
+
+    /**
+     * @param scanStartNanos start of the scan which detected the change, for detection latency
+     */
+    private void requestNotification(long scanStartNanos) {
+        if (notificationPending.compareAndSet(false, true)) {
+            changedScanStartNanos = scanStartNanos;
+            executor.schedule(this::notifyListener, conf.getPollNotifyDelaySeconds(), TimeUnit.SECONDS);
+        }
+    }
+
+    private void notifyListener() {
+        final long scanStartNanos = changedScanStartNanos;
+        notificationPending.set(false);
+
+        final SiteAccumulator merged = new SiteAccumulator();
+        final Set<String> failedLoops = new TreeSet<>();
+        states.forEach((unit, state) -> {
+            if (state.failed || state.fingerprint == null) {
+                failedLoops.add(unit.getLoopName());
+            }
+            merged.addAll(state.sites);
+        });
+
+        System.out.println("Availability changed, processing results on " + LocalDateTime.now());
+        try {
+            listener.scanned(conf, merged.toSortedSet(), failedLoops, scanStartNanos);
+        } catch (RuntimeException e) {
+            synchronized (System.err) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        executor.shutdownNow();
+    }
+
+    interface Listener {
+        /**
+         * @param scanStartNanos start of the scan which detected the change, for detection latency
+         */
+        void scanned(Configuration conf, Collection<Site> sites, Set<String> failedLoops, long scanStartNanos);
+    }
+
+    private static class UnitState {
+        private final AtomicBoolean running = new AtomicBoolean();
+        private volatile double intervalMinutes;
+        private volatile Map<String, DateBitSet> fingerprint; // null until the first scan completed
+        private volatile Set<Site> sites = new TreeSet<>();
+        private volatile boolean failed;
+
+        private UnitState(double intervalMinutes) {
+            this.intervalMinutes = intervalMinutes;
+        }
+    }
+}
@@ -2,13 +2,20 @@ package com.essheva.assateague;
 
 import javax.mail.MessagingException;
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.time.LocalDateTime;
-import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 
 /**
  *
@@ -16,75 +23,317 @@ import java.util.concurrent.TimeUnit;
  */
 public class AssateagueApp {
 
-    private static Configuration conf;
-    static {
+    private final Configuration conf;
+    private final ProfileMatcher matcher;
+    private final MailDispatcher mailDispatcher;
+    private final AvailabilityHistory history;
+    private final AvailabilityServer server;
+    private final long scanStartNanos;
+    private final SiteAccumulator availableSites = new SiteAccumulator();
+    private final Set<String> failedLoops = ConcurrentHashMap.newKeySet();
+
+    /**
+     * @param conf configuration snapshot this check runs under from scan to notification
+     * @param mailDispatcher where notifications go, null if 'mail.send' is off
+     * @param history where availability transitions are logged, null if 'history.file' is not set
+     * @param server where the scan is published for HTTP clients, null if 'server.enabled' is off
+     * @param scanStartNanos start of the scan, detection latency is measured from it to the mail sent
+     */
+    AssateagueApp(Configuration conf, MailDispatcher mailDispatcher, AvailabilityHistory history,
+                  AvailabilityServer server, long scanStartNanos) {
+        this.conf = conf;
+        this.matcher = new ProfileMatcher(conf.getProfiles());
+        this.mailDispatcher = mailDispatcher;
+        this.history = history;
+        this.server = server;
+        this.scanStartNanos = scanStartNanos;
+    }
+
+    private void addAll(Collection<Site> sites) {
+        availableSites.addAll(sites);
+    }
+
+    private void markFailed(String loopName) {
+        failedLoops.add(loopName);
+    }
+
+    /**
+     * Matches the scan against every search profile, then reports and notifies per profile.
+     */
+    private void processProfiles() throws IOException {
+        final Set<Site> scanned = availableSites.toSortedSet();
+        recordHistory(scanned);
+        if (server != null) {
+            server.publish(scanned, failedLoops);
+        }
+        final Map<SearchProfile, List<Site>> matches = matcher.match(scanned);
+        for (Map.Entry<SearchProfile, List<Site>> match : matches.entrySet()) {
+            final SearchProfile profile = match.getKey();
+            final List<Site> sites = match.getValue();
+            Metrics.SITES_MATCHED.add(sites.size());
+            if (matches.size() > 1) {
+                System.out.println("Search profile '" + profile.getName() + "':");
+            }
+            printSiteInfo(sites);
+            final AvailabilityDiff diff = updateSnapshot(profile, sites);
+
+            if (mailDispatcher != null) {
+                System.out.println("Send email notification action requested.");
+                try {
+                    sendEmailNotification(profile, sites, diff);
+                } catch (MessagingException e) {
+                    synchronized (System.err) {
+                        System.err.println("Failed to notify profile '" + profile.getName() + "'");
+                        e.printStackTrace();
+                    }
+                }
+            }
+        }
+    }
+
+    private void recordHistory(Set<Site> sites) {
+        if (history == null) {
+            return;
+        }
         try {
-            conf = Configuration.getInstance();
+            final int transitions = history.record(sites, conf.getCampGroups(), failedLoops,
+                    conf.getSearchStart(), conf.getSearchStop());
+            System.out.println("Availability history: " + transitions + " transition(s) recorded.");
         } catch (IOException e) {
-            e.printStackTrace();
+            synchronized (System.err) {
+                System.err.println("Failed to record availability history: " + e);
+            }
         }
     }
 
-    private Set<Site> availableSites = new ConcurrentSkipListSet<>();
+    /**
+     * Compares profile results with the previous ones stored in 'snapshot.file' and replaces them.
+     * Loops which failed to scan keep their previous state.
+     */
+    private AvailabilityDiff updateSnapshot(SearchProfile profile, List<Site> sites) throws IOException {
+        final Path snapshotFile = getSnapshotFile(profile);
+        final AvailabilitySnapshot previous = AvailabilitySnapshot.load(snapshotFile);
+        final AvailabilitySnapshot current = AvailabilitySnapshot.of(sites).withLoopsFrom(previous, failedLoops);
+        current.save(snapshotFile);
 
-    private void retrieveAvailableDatesAndAdd(String loopName) {
-        try (final SiteWebDriver driver = new SiteWebDriver(conf)){
-            Set<Site> sitesFound = driver.getAvailableSites(loopName);
-            availableSites.addAll(sitesFound);
-        }
+        final AvailabilityDiff diff = AvailabilityDiff.between(previous, current);
+        System.out.println(String.format(
+                "Since previous scan: %d site(s) with newly opened dates, %d site(s) with taken dates.",
+                diff.getOpened().size(), diff.getTaken().size()));
+        return diff;
     }
 
-    private void sendEmailNotification() throws MessagingException {
-        if (availableSites.isEmpty() && !conf.isSendMailIfNotFound()) {
+    private Path getSnapshotFile(SearchProfile profile) {
+        return Paths.get(profile.getName().equals(Configuration.DEFAULT_PROFILE) ?
+                conf.getSnapshotFile() : conf.getSnapshotFile() + "-" + profile.getName());
+    }
+
+    private void sendEmailNotification(SearchProfile profile, List<Site> sites, AvailabilityDiff diff)
+            throws MessagingException {
+        if (conf.isMailOnChangesOnly()) {
+            if (diff.isEmpty()) {
+                System.out.println("Nothing to send. Availability has not changed since previous scan.");
+                return;
+            }
+            mailDispatcher.submit(profile.getName(), new SiteAvailabilityMailer(conf.getMailProps(),
+                    profile.getRecipients(), diff.getOpened(), diff.getTaken()), scanStartNanos);
+            return;
+        }
+        if (sites.isEmpty() && !conf.isSendMailIfNotFound()) {
             System.out.println("Nothing to send. No available sites found.");
             return;
         }
-        new SiteAvailabilityMailer(conf.getMailProps(), availableSites).sendEmail();
+        mailDispatcher.submit(profile.getName(), new SiteAvailabilityMailer(conf.getMailProps(),
+                profile.getRecipients(), sites, Collections.emptyList()), scanStartNanos);
     }
 
-    private void printSiteInfo() {
-        availableSites.forEach((site) -> {
+    private void printSiteInfo(List<Site> sites) {
+        sites.forEach((site) -> {
             final StringBuilder str = new StringBuilder(String.format(
                     "Site #%s in facility area '%s' available on dates: ", site.getSiteName(), site.getLoopName()));
             site.getAvailableDates().forEach(d -> str.append(d).append("; "));
             System.out.println(str);
         });
-        if (availableSites.isEmpty()) {
+        if (sites.isEmpty()) {
             System.out.println("Nothing found.");
         }
     }
 
-    public static void main(String... args) {
+    public static void main(String... args) throws IOException, InterruptedException {
+        final Configuration conf = Configuration.getInstance();
+        final AvailabilitySource source = createAvailabilitySource(conf);
+        Runtime.getRuntime().addShutdownHook(new Thread(source::close));
+        startMetrics(conf);
+        final MailDispatcher mailDispatcher = conf.isSendMail() && !conf.getScanRole().equals("worker") ?
+                new MailDispatcher(conf) : null;
+        if (mailDispatcher != null) {
+            Runtime.getRuntime().addShutdownHook(new Thread(mailDispatcher::close));
+        }
+
+        if (conf.getScanRole().equals("worker")) {
+            final DistributedScanWorker worker = new DistributedScanWorker(conf, source);
+            Runtime.getRuntime().addShutdownHook(new Thread(worker::close));
+            startConfigWatch(conf, reloaded -> { });
+            worker.run();
+            return;
+        }
+        final DistributedScanCoordinator coordinator = conf.getScanRole().equals("coordinator") ?
+                new DistributedScanCoordinator(conf) : null;
+        final AvailabilityHistory history = conf.getHistoryFile().isEmpty() ?
+                null : new AvailabilityHistory(Paths.get(conf.getHistoryFile()),
+                conf.getHistoryRetentionDays(), conf.getHistoryCompactHours());
+        if (history != null) {
+            Runtime.getRuntime().addShutdownHook(new Thread(history::close));
+        }
+        final AvailabilityServer server = conf.isServerEnabled() ? new AvailabilityServer(conf, history) : null;
+        if (server != null) {
+            Runtime.getRuntime().addShutdownHook(new Thread(server::close));
+        }
+
+        if (conf.isAdaptivePolling()) {
+            final AdaptiveScanScheduler adaptiveScheduler = new AdaptiveScanScheduler(conf, source,
+                    (scanConf, sites, failed, scanStartNanos) -> {
+                final AssateagueApp checker =
+                        new AssateagueApp(scanConf, mailDispatcher, history, server, scanStartNanos);
+                checker.addAll(sites);
+                failed.forEach(checker::markFailed);
+                try {
+                    checker.processProfiles();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+            Runtime.getRuntime().addShutdownHook(new Thread(adaptiveScheduler::close));
+            adaptiveScheduler.start();
+            startConfigWatch(conf, adaptiveScheduler::reconfigure);
+            return;
+        }
+
+        final ScanExecutor scanExecutor = coordinator == null ? new ScanExecutor(conf, source) : null;
+        if (scanExecutor != null) {
+            Runtime.getRuntime().addShutdownHook(new Thread(scanExecutor::close));
+        }
         final ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(1);
-        scheduler.scheduleAtFixedRate(() -> {
-            try {
-                System.out.println("Launch of scheduler done on " + LocalDateTime.now());
+        scheduler.execute(new FixedCycle(scheduler, scanExecutor, coordinator, mailDispatcher, history, server));
+        startConfigWatch(conf, reloaded -> { });
+    }
 
-                final AssateagueApp checker = new AssateagueApp();
+    /**
+     * If 'config.watch' is on, makes every valid change of the configuration files the current configuration,
+     * which the next scan starts with, and passes it on to the given listener.
+     */
+    private static void startConfigWatch(Configuration conf, Consumer<Configuration> onReload) throws IOException {
+        if (!conf.isConfigWatch()) {
+            return;
+        }
+        final ConfigurationWatcher watcher = new ConfigurationWatcher(Configuration.getConfigDir(), onReload);
+        Runtime.getRuntime().addShutdownHook(new Thread(watcher::close));
+    }
 
-                new ArrayList<>(conf.getCampGroups()).parallelStream().forEach(group -> {
-                    try {
-                        checker.retrieveAvailableDatesAndAdd(group);
-                        scheduler.awaitTermination(5L, TimeUnit.SECONDS);
-                    } catch (InterruptedException e) {
-                        synchronized (System.err) {
-                            e.printStackTrace();
-                        }
-                    }
-                });
+    /**
+     * Scans every 'poll.interval.minutes' counted from the start of the previous scan. Each scan runs under
+     * the configuration current when it started, and the interval is read again for the next one.
+     */
+    private static class FixedCycle implements Runnable {
 
-                checker.printSiteInfo();
+        private final ScheduledExecutorService scheduler;
+        private final ScanExecutor scanExecutor;
+        private final DistributedScanCoordinator coordinator;
+        private final MailDispatcher mailDispatcher;
+        private final AvailabilityHistory history;
+        private final AvailabilityServer server;
 
-                if (conf.isSendMail()) {
-                    System.out.println("Send email notification action requested.");
-                    checker.sendEmailNotification();
+        private FixedCycle(ScheduledExecutorService scheduler, ScanExecutor scanExecutor,
+                           DistributedScanCoordinator coordinator, MailDispatcher mailDispatcher,
+                           AvailabilityHistory history, AvailabilityServer server) {
+            this.scheduler = scheduler;
+            this.scanExecutor = scanExecutor;
+            this.coordinator = coordinator;
+            this.mailDispatcher = mailDispatcher;
+            this.history = history;
+            this.server = server;
+        }
+
+        @Override
+        public void run() {
+            final long startMillis = System.currentTimeMillis();
+            try {
+                System.out.println("Launch of scheduler done on " + LocalDateTime.now());
+                final long startNanos = System.nanoTime();
+
+                final Configuration conf = Configuration.getInstance();
+                final AssateagueApp checker = new AssateagueApp(conf, mailDispatcher, history, server, startNanos);
+
+                if (coordinator != null) {
+                    coordinator.scan(ScanUnit.plan(conf), TimeUnit.MINUTES.toMillis(conf.getPollIntervalMinutes()),
+                            checker::addAll).forEach(checker::markFailed);
+                } else {
+                    scanExecutor.scan(conf, conf.getCampGroups(), conf.getSearchStart(), conf.getSearchStop(),
+                            checker::addAll).forEach(checker::markFailed);
                 }
 
+                checker.processProfiles();
+
                 System.out.println("Scheduler task was finished on " + LocalDateTime.now());
             }
             catch (Exception e) {
                 e.printStackTrace();
             }
-        },0, 3, TimeUnit.HOURS);
+            finally {
+                scheduleNext(startMillis);
+            }
+        }
+
+        private void scheduleNext(long startMillis) {
+            final Configuration conf;
+            try {
+                conf = Configuration.getInstance(); // loaded at startup, no I/O
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            final long intervalMillis = TimeUnit.MINUTES.toMillis(conf.getPollIntervalMinutes());
+            scheduler.schedule(this, Math.max(0, startMillis + intervalMillis - System.currentTimeMillis()),
+                    TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Registers the metrics MBean and, if 'metrics.file' is set, rewrites that file every minute and on exit.
+     * The file is written from a thread of its own, so a long scan delays neither the writes nor the scans.
+     */
+    private static void startMetrics(Configuration conf) {
+        if (conf.isMetricsJmx()) {
+            Metrics.registerMBean();
+        }
+        if (conf.getMetricsFile().isEmpty()) {
+            return;
+        }
+        final Path metricsFile = Paths.get(conf.getMetricsFile());
+        final Runnable writeMetrics = () -> {
+            try {
+                Metrics.writeTo(metricsFile);
+            } catch (IOException e) {
+                synchronized (System.err) {
+                    System.err.println("Failed to write metrics to " + metricsFile + ": " + e);
+                }
+            }
+        };
+        final ScheduledExecutorService writer = Executors.newSingleThreadScheduledExecutor(r -> {
+            final Thread thread = new Thread(r, "metrics-writer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        writer.scheduleWithFixedDelay(writeMetrics, 1, 1, TimeUnit.MINUTES);
+        Runtime.getRuntime().addShutdownHook(new Thread(writeMetrics));
+    }
+
+    private static AvailabilitySource createAvailabilitySource(Configuration conf) {
+        if (conf.getAvailabilitySource().equals("http")) {
+            return new HttpAvailabilitySource(conf);
+        }
+        if (conf.getAvailabilitySource().equals("replay")) {
+            return new ReplayAvailabilitySource(conf);
+        }
+        return new SeleniumAvailabilitySource(conf);
     }
 }
\ No newline at end of file
@@ -0,0 +1,60 @@
+package com.essheva.assateague;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * (site, date) pairs which became available or were taken between two scans.
+ */
+class AvailabilityDiff {
+
+    private final List<Site> opened;
+    private final List<Site> taken;
+
+    private AvailabilityDiff(List<Site> opened, List<Site> taken) {
+        this.opened = opened;
+        this.taken = taken;
+    }
+
+    static AvailabilityDiff between(AvailabilitySnapshot previous, AvailabilitySnapshot current) {
+        return new AvailabilityDiff(subtract(current, previous), subtract(previous, current));
+    }
+
+    /**
+     * @return sites of 'from' holding only the dates missing in 'other'
+     */
+    private static List<Site> subtract(AvailabilitySnapshot from, AvailabilitySnapshot other) {
+        final List<Site> result = new ArrayList<>();
+        for (Site site : from.getSites()) {
+            final Site otherSite = other.getSite(site.getLoopName(), site.getSiteName());
+            final DateBitSet dates = otherSite == null ?
+                    site.getAvailability() : site.getAvailability().andNot(otherSite.getAvailability());
+            if (!dates.isEmpty()) {
+                final Site changed = new Site(site.getSiteName(), site.getLoopName());
+                changed.setSiteLink(site.getSiteLink());
+                changed.addAvailableDates(dates);
+                result.add(changed);
+            }
+        }
+        return Collections.unmodifiableList(result);
+    }
+
+    /**
+     * @return sites with dates which are available now but were not on the previous scan
+     */
+    List<Site> getOpened() {
+        return opened;
+    }
+
+    /**
+     * @return sites with dates which were available on the previous scan but are not now
+     */
+    List<Site> getTaken() {
+        return taken;
+    }
+
+    boolean isEmpty() {
+        return opened.isEmpty() && taken.isEmpty();
+    }
+}
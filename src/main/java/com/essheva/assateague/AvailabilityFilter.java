@@ -0,0 +1,24 @@
+package com.essheva.assateague;
+
+/**
+ * Search criteria of a profile applied to raw site availability, whatever source it came from.
+ */
+class AvailabilityFilter {
+
+    private final SearchProfile profile;
+
+    AvailabilityFilter(SearchProfile profile) {
+        this.profile = profile;
+    }
+
+    /**
+     * @return dates within the search period falling on desired days of week, which form runs
+     * of at least 'min.length.of.stay' days
+     */
+    DateBitSet apply(DateBitSet availableDates) {
+        return availableDates.
+                clip(profile.getSearchStart(), profile.getSearchStop()).
+                maskDaysOfWeek(profile.getDaysOfWeek()).
+                runsOfAtLeast(profile.getMinLength());
+    }
+}
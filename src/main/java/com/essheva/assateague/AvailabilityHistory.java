@@ -0,0 +1,343 @@
+package com.essheva.assateague;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Append-only log of availability transitions: every time a scan sees a (loop, site, date) open or taken
+ * compared to the previous scan of its loop, one fixed size record is appended.
+ * <p>
+ * The log is a header followed by 12 byte records: observation time in epoch seconds, site id, and the date
+ * as epoch day shifted left by two with the 'open' and 'first sight' flags in the low bits. Site ids index the
+ * lines of the '.sites' file next to it. Queries read the log through a memory map. Records of dates older
+ * than 'history.retention.days' are dropped every 'history.compact.hours' by rewriting the log.
+ * <p>
+ * Dates seen open on the first scan of a loop are flagged as first sight: they were not opened at that time,
+ * so they are left out of the statistics.
+ */
+class AvailabilityHistory implements AutoCloseable {
+
+    private static final int MAGIC = 0x41564831; // "AVH1"
+    private static final int HEADER_SIZE = 8;
+    private static final int RECORD_SIZE = 12;
+    private static final int OPEN_FLAG = 1;
+    private static final int FIRST_SIGHT_FLAG = 2;
+    private static final char FIELD_SEPARATOR = '\t';
+    private static final String SITES_SUFFIX = ".sites";
+
+    private final Path file;
+    private final Path sitesFile;
+    private final int retentionDays;
+    private final long compactIntervalMillis;
+
+    private final Map<String, Integer> siteIds = new HashMap<>();
+    private final List<String> loopBySiteId = new ArrayList<>();
+    private final Map<Integer, DateBitSet> openDates = new HashMap<>(); // state after the last record
+    private final Set<String> seenLoops = new HashSet<>();
+
+    private FileChannel channel;
+    private long lastCompactionMillis;
+
+    /**
+     * Opens the log, creating it if needed, and replays it to know what is open now.
+     */
+    AvailabilityHistory(Path file, int retentionDays, int compactHours) throws IOException {
+        this.file = file.toAbsolutePath();
+        this.sitesFile = this.file.resolveSibling(this.file.getFileName() + SITES_SUFFIX);
+        this.retentionDays = retentionDays;
+        this.compactIntervalMillis = Duration.ofHours(compactHours).toMillis();
+
+        if (Files.exists(sitesFile)) {
+            for (String line : Files.readAllLines(sitesFile, StandardCharsets.UTF_8)) {
+                if (!line.isEmpty()) {
+                    siteIds.put(line, loopBySiteId.size());
+                    loopBySiteId.add(line.substring(0, line.indexOf(FIELD_SEPARATOR)));
+                }
+            }
+        }
+        channel = open(this.file);
+        compact();
+    }
+
+    private static FileChannel open(Path file) throws IOException {
+        final FileChannel channel = FileChannel.open(file,
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        if (channel.size() < HEADER_SIZE) {
+            final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(MAGIC).putInt(RECORD_SIZE).flip();
+            channel.truncate(0);
+            channel.write(header, 0);
+        } else {
+            final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            channel.read(header, 0);
+            if (header.getInt(0) != MAGIC || header.getInt(4) != RECORD_SIZE) {
+                channel.close();
+                throw new IOException("Not an availability history file: " + file);
+            }
+            // drop a record half written when the process died
+            channel.truncate(channel.size() - (channel.size() - HEADER_SIZE) % RECORD_SIZE);
+        }
+        return channel;
+    }
+
+    /**
+     * Appends transitions between the previous and this scan.
+     *
+     * @param sites       merged scan result
+     * @param loops       loops the scan covered
+     * @param failedLoops loops whose scan failed, left as they were
+     * @param from        first scanned date; dates outside [from, to] were not looked at and keep their state
+     * @return number of records appended
+     */
+    synchronized int record(Collection<Site> sites, Collection<String> loops, Collection<String> failedLoops,
+                            LocalDate from, LocalDate to) throws IOException {
+        final long now = System.currentTimeMillis();
+        final LocalDate today = LocalDate.now();
+        final LocalDate windowStart = from.isBefore(today) ? today : from;
+
+        final Map<Integer, DateBitSet> scanned = new HashMap<>();
+        for (Site site : sites) {
+            if (loops.contains(site.getLoopName()) && !failedLoops.contains(site.getLoopName())) {
+                scanned.put(siteId(site.getLoopName(), site.getSiteName()),
+                        site.getAvailability().clip(windowStart, to));
+            }
+        }
+
+        final ByteBuffer records = ByteBuffer.allocate(RECORD_SIZE * 1024);
+        final int seconds = (int) (now / 1000);
+        int appended = 0;
+        final Set<Integer> ids = new HashSet<>(scanned.keySet());
+        for (Map.Entry<Integer, DateBitSet> entry : openDates.entrySet()) {
+            final String loop = loopBySiteId.get(entry.getKey());
+            if (loops.contains(loop) && !failedLoops.contains(loop)) {
+                ids.add(entry.getKey());
+            }
+        }
+        for (Integer id : ids) {
+            final boolean firstSight = !seenLoops.contains(loopBySiteId.get(id));
+            final DateBitSet previous = openDates.getOrDefault(id, new DateBitSet());
+            final DateBitSet before = previous.clip(windowStart, to);
+            final DateBitSet after = scanned.getOrDefault(id, new DateBitSet());
+            for (LocalDate date : after.andNot(before).toSortedSet()) {
+                appended += append(records, seconds, id, date, OPEN_FLAG | (firstSight ? FIRST_SIGHT_FLAG : 0));
+            }
+            for (LocalDate date : before.andNot(after).toSortedSet()) {
+                appended += append(records, seconds, id, date, 0);
+            }
+            final DateBitSet state = previous.andNot(before);
+            state.addAll(after);
+            openDates.put(id, state.clip(today, LocalDate.MAX));
+        }
+        flush(records);
+        channel.force(false);
+        for (String loop : loops) {
+            if (!failedLoops.contains(loop)) {
+                seenLoops.add(loop);
+            }
+        }
+
+        if (now - lastCompactionMillis > compactIntervalMillis) {
+            compact();
+        }
+        return appended;
+    }
+
+    private int append(ByteBuffer records, int seconds, int siteId, LocalDate date, int flags) throws IOException {
+        if (!records.hasRemaining()) {
+            flush(records);
+        }
+        records.putInt(seconds).putInt(siteId).putInt((int) date.toEpochDay() << 2 | flags);
+        return 1;
+    }
+
+    private void flush(ByteBuffer records) throws IOException {
+        records.flip();
+        while (records.hasRemaining()) {
+            channel.write(records, channel.size());
+        }
+        records.clear();
+    }
+
+    private int siteId(String loopName, String siteName) throws IOException {
+        final String key = loopName + FIELD_SEPARATOR + siteName;
+        final Integer id = siteIds.get(key);
+        if (id != null) {
+            return id;
+        }
+        Files.write(sitesFile, Collections.singletonList(key), StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        siteIds.put(key, loopBySiteId.size());
+        loopBySiteId.add(loopName);
+        return loopBySiteId.size() - 1;
+    }
+
+    /**
+     * Rewrites the log without records of dates past retention and rebuilds the open state from what is left.
+     */
+    synchronized void compact() throws IOException {
+        final long oldestDay = LocalDate.now().minusDays(retentionDays).toEpochDay();
+        final Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        final int[] kept = {0};
+        final int[] dropped = {0};
+        try (FileChannel out = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            final ByteBuffer buffer = ByteBuffer.allocate(RECORD_SIZE * 4096);
+            buffer.putInt(MAGIC).putInt(RECORD_SIZE);
+            final IOException[] failure = {null};
+            openDates.clear();
+            seenLoops.clear();
+            forEachRecord((seconds, siteId, epochDay, flags) -> {
+                if (epochDay < oldestDay) {
+                    dropped[0]++;
+                    return;
+                }
+                kept[0]++;
+                apply(siteId, epochDay, flags);
+                if (!buffer.hasRemaining()) {
+                    try {
+                        writeFully(out, buffer);
+                    } catch (IOException e) {
+                        failure[0] = e;
+                    }
+                }
+                buffer.putInt((int) seconds).putInt(siteId).putInt((int) epochDay << 2 | flags);
+            });
+            if (failure[0] != null) {
+                throw failure[0];
+            }
+            writeFully(out, buffer);
+            out.force(false);
+        }
+        channel.close();
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        channel = open(file);
+        lastCompactionMillis = System.currentTimeMillis();
+        if (dropped[0] > 0) {
+            synchronized (System.out) {
+                System.out.println(String.format("History compacted: %d record(s) kept, %d expired.",
+                        kept[0], dropped[0]));
+            }
+        }
+    }
+
+    private static void writeFully(FileChannel out, ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            out.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    private void apply(int siteId, long epochDay, int flags) {
+        final DateBitSet dates = openDates.computeIfAbsent(siteId, k -> new DateBitSet());
+        final LocalDate date = LocalDate.ofEpochDay(epochDay);
+        if ((flags & OPEN_FLAG) != 0) {
+            dates.add(date);
+        } else {
+            dates.remove(date);
+        }
+        if (siteId < loopBySiteId.size()) {
+            seenLoops.add(loopBySiteId.get(siteId));
+        }
+    }
+
+    /**
+     * @return per loop, how many dates were seen opening at each hour of day (index 0 - 23) in the zone
+     */
+    synchronized Map<String, long[]> getOpeningsByHourOfDay(ZoneId zone) throws IOException {
+        final Map<String, long[]> result = new TreeMap<>();
+        forEachRecord((seconds, siteId, epochDay, flags) -> {
+            if (flags == OPEN_FLAG) {
+                final int hour = Instant.ofEpochSecond(seconds).atZone(zone).getHour();
+                result.computeIfAbsent(loopBySiteId.get(siteId), k -> new long[24])[hour]++;
+            }
+        });
+        return result;
+    }
+
+    /**
+     * @return per loop, median time from the scan which saw a date open to the scan which saw it taken;
+     * dates still open and dates open since the first scan of their loop are not counted
+     */
+    synchronized Map<String, Duration> getMedianTimeToTaken() throws IOException {
+        final Map<Long, Long> openedAt = new HashMap<>();
+        final Map<String, List<Long>> durations = new TreeMap<>();
+        forEachRecord((seconds, siteId, epochDay, flags) -> {
+            final long key = (long) siteId << 32 | epochDay & 0xFFFFFFFFL;
+            if ((flags & OPEN_FLAG) != 0) {
+                if ((flags & FIRST_SIGHT_FLAG) == 0) {
+                    openedAt.put(key, seconds);
+                } else {
+                    openedAt.remove(key);
+                }
+                return;
+            }
+            final Long opened = openedAt.remove(key);
+            if (opened != null) {
+                durations.computeIfAbsent(loopBySiteId.get(siteId), k -> new ArrayList<>()).add(seconds - opened);
+            }
+        });
+        final Map<String, Duration> result = new TreeMap<>();
+        durations.forEach((loop, values) -> {
+            Collections.sort(values);
+            final int middle = values.size() / 2;
+            final long median = values.size() % 2 == 1 ?
+                    values.get(middle) : (values.get(middle - 1) + values.get(middle)) / 2;
+            result.put(loop, Duration.ofSeconds(median));
+        });
+        return result;
+    }
+
+    /**
+     * @return number of records in the log
+     */
+    synchronized long size() throws IOException {
+        return (channel.size() - HEADER_SIZE) / RECORD_SIZE;
+    }
+
+    private void forEachRecord(RecordVisitor visitor) throws IOException {
+        final long size = channel.size();
+        if (size <= HEADER_SIZE) {
+            return;
+        }
+        final MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        for (int position = HEADER_SIZE; position + RECORD_SIZE <= size; position += RECORD_SIZE) {
+            final long seconds = map.getInt(position) & 0xFFFFFFFFL;
+            final int siteId = map.getInt(position + 4);
+            final int date = map.getInt(position + 8);
+            visitor.visit(seconds, siteId, date >> 2, date & (OPEN_FLAG | FIRST_SIGHT_FLAG));
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        try {
+            channel.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    private interface RecordVisitor {
+        void visit(long seconds, int siteId, long epochDay, int flags);
+    }
+}
@@ -0,0 +1,370 @@
+package com.essheva.assateague;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.DateTimeException;
+import java.time.DayOfWeek;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Serves the latest merged scan as JSON at '/availability' on 'server.bind':'server.port', so clients do not
+ * have to scrape the reservation site themselves. Query parameters narrow the result down:
+ * 'loop' (repeatable), 'from' and 'to' (yyyy-MM-dd), 'days' (e.g. FRIDAY,SATURDAY) and 'minStay'.
+ * <p>
+ * Every scan publishes an immutable view which replaces the previous one by a single volatile write, so
+ * 'server.threads' request threads read it without locking while scans go on. The view's fingerprint
+ * together with the query is the ETag; a request with a matching If-None-Match gets 304 without any work,
+ * and bodies are rendered once per view and query. A scan which finds exactly the same availability keeps
+ * the previous view, so clients' ETags stay valid.
+ * <p>
+ * With 'history.file' set, '/history' reports per loop how many dates opened at each hour of day, in the zone
+ * of the 'zone' parameter or the system one, and the median minutes a date stayed open before it was taken.
+ * It reads the whole history log, so it is meant for occasional reports rather than polling.
+ */
+class AvailabilityServer implements AutoCloseable {
+
+    static final String PATH = "/availability";
+    static final String HISTORY_PATH = "/history";
+    private static final int BACKLOG = 1024;
+    private static final int MAX_CACHED_QUERIES = 512;
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final AvailabilityHistory history;
+    private volatile View view = new View(Collections.emptyList(), Collections.emptySet(), null);
+
+    /**
+     * @param history answers '/history', null to leave it out
+     */
+    AvailabilityServer(Configuration conf, AvailabilityHistory history) throws IOException {
+        this.history = history;
+        final AtomicInteger threadCount = new AtomicInteger();
+        this.executor = Executors.newFixedThreadPool(conf.getServerThreads(), runnable -> {
+            final Thread thread = new Thread(runnable, "availability-server-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.server = HttpServer.create(new InetSocketAddress(conf.getServerBind(), conf.getServerPort()), BACKLOG);
+        this.server.createContext(PATH, this::handle);
+        if (history != null) {
+            this.server.createContext(HISTORY_PATH, this::handleHistory);
+        }
+        this.server.setExecutor(executor);
+        this.server.start();
+        System.out.println("Availability served at http://" + conf.getServerBind() + ":" +
+                server.getAddress().getPort() + PATH);
+    }
+
+    /**
+     * @return port listened on, the one chosen by the system if 'server.port' is 0
+     */
+    int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * Makes the scan result the one served. Sites of loops whose scan failed are kept from the previous view.
+     * The sites must not be changed afterwards.
+     */
+    synchronized void publish(Collection<Site> sites, Set<String> failedLoops) {
+        final View previous = view;
+        final List<Site> merged = new ArrayList<>();
+        for (Site site : sites) {
+            if (!failedLoops.contains(site.getLoopName())) {
+                merged.add(site);
+            }
+        }
+        for (Site site : previous.sites) {
+            if (failedLoops.contains(site.getLoopName())) {
+                merged.add(site);
+            }
+        }
+        Collections.sort(merged);
+        final View next = new View(merged, failedLoops, LocalDateTime.now());
+        if (!next.fingerprint.equals(previous.fingerprint)) {
+            view = next;
+        }
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            if (!"GET".equals(exchange.getRequestMethod()) && !"HEAD".equals(exchange.getRequestMethod())) {
+                exchange.getResponseHeaders().set("Allow", "GET, HEAD");
+                send(exchange, 405, "text/plain", "Method not allowed".getBytes(StandardCharsets.UTF_8));
+                return;
+            }
+            final View current = view;
+            final Query query;
+            try {
+                query = Query.parse(exchange.getRequestURI().getRawQuery());
+            } catch (IllegalArgumentException | DateTimeParseException e) {
+                send(exchange, 400, "text/plain", ("Bad query: " + e.getMessage()).getBytes(StandardCharsets.UTF_8));
+                return;
+            }
+
+            final String etag = "\"" + current.fingerprint + "-" + Integer.toHexString(query.key.hashCode()) + "\"";
+            exchange.getResponseHeaders().set("ETag", etag);
+            exchange.getResponseHeaders().set("Cache-Control", "no-cache");
+            final String ifNoneMatch = exchange.getRequestHeaders().getFirst("If-None-Match");
+            if (ifNoneMatch != null && (ifNoneMatch.equals("*") || Arrays.asList(ifNoneMatch.split("\\s*,\\s*")).
+                    contains(etag))) {
+                exchange.sendResponseHeaders(304, -1);
+                return;
+            }
+            send(exchange, 200, "application/json; charset=utf-8", current.render(query));
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void handleHistory(HttpExchange exchange) throws IOException {
+        try {
+            if (!"GET".equals(exchange.getRequestMethod()) && !"HEAD".equals(exchange.getRequestMethod())) {
+                exchange.getResponseHeaders().set("Allow", "GET, HEAD");
+                send(exchange, 405, "text/plain", "Method not allowed".getBytes(StandardCharsets.UTF_8));
+                return;
+            }
+            final ZoneId zone;
+            try {
+                zone = parseZone(exchange.getRequestURI().getRawQuery());
+            } catch (IllegalArgumentException | DateTimeException e) {
+                send(exchange, 400, "text/plain", ("Bad query: " + e.getMessage()).getBytes(StandardCharsets.UTF_8));
+                return;
+            }
+            exchange.getResponseHeaders().set("Cache-Control", "no-cache");
+            send(exchange, 200, "application/json; charset=utf-8", renderHistory(zone));
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private byte[] renderHistory(ZoneId zone) throws IOException {
+        final Map<String, long[]> openingsByHour = history.getOpeningsByHourOfDay(zone);
+        final Map<String, Duration> medianToTaken = history.getMedianTimeToTaken();
+        final Set<String> loops = new TreeSet<>(openingsByHour.keySet());
+        loops.addAll(medianToTaken.keySet());
+
+        final JsonObject result = new JsonObject();
+        for (String loop : loops) {
+            final JsonObject json = new JsonObject();
+            final JsonArray hours = new JsonArray();
+            for (long count : openingsByHour.getOrDefault(loop, new long[24])) {
+                hours.add(count);
+            }
+            json.add("openingsByHourOfDay", hours);
+            final Duration median = medianToTaken.get(loop);
+            json.addProperty("medianMinutesToTaken", median == null ? null : median.toMinutes());
+            result.add(loop, json);
+        }
+        final JsonObject body = new JsonObject();
+        body.addProperty("zone", zone.getId());
+        body.add("loops", result);
+        return body.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static ZoneId parseZone(String rawQuery) {
+        ZoneId zone = ZoneId.systemDefault();
+        if (rawQuery != null) {
+            for (String parameter : rawQuery.split("&")) {
+                if (parameter.isEmpty()) {
+                    continue;
+                }
+                final int separator = parameter.indexOf('=');
+                final String name = Query.decode(separator < 0 ? parameter : parameter.substring(0, separator));
+                if (!name.equals("zone")) {
+                    throw new IllegalArgumentException("unknown parameter '" + name + "'");
+                }
+                zone = ZoneId.of(separator < 0 ? "" : Query.decode(parameter.substring(separator + 1)).trim());
+            }
+        }
+        return zone;
+    }
+
+    private static void send(HttpExchange exchange, int code, String contentType, byte[] body) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", contentType);
+        if ("HEAD".equals(exchange.getRequestMethod())) {
+            exchange.sendResponseHeaders(code, -1);
+            return;
+        }
+        exchange.sendResponseHeaders(code, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    /**
+     * Scan result as served, never changed once published.
+     */
+    private static class View {
+        private final List<Site> sites;
+        private final Set<String> failedLoops;
+        private final LocalDateTime updated;
+        private final String fingerprint;
+        private final Map<String, byte[]> responses = new ConcurrentHashMap<>();
+
+        private View(List<Site> sites, Set<String> failedLoops, LocalDateTime updated) {
+            this.sites = Collections.unmodifiableList(sites);
+            this.failedLoops = Collections.unmodifiableSet(new TreeSet<>(failedLoops));
+            this.updated = updated;
+            this.fingerprint = fingerprint(sites, this.failedLoops);
+        }
+
+        private byte[] render(Query query) {
+            final byte[] cached = responses.get(query.key);
+            if (cached != null) {
+                return cached;
+            }
+            final JsonArray result = new JsonArray();
+            for (Site site : sites) {
+                if (!query.loops.isEmpty() && !query.loops.contains(site.getLoopName())) {
+                    continue;
+                }
+                final DateBitSet dates = query.filter.apply(site.getAvailability());
+                if (dates.isEmpty()) {
+                    continue;
+                }
+                final JsonObject json = new JsonObject();
+                json.addProperty("loop", site.getLoopName());
+                json.addProperty("site", site.getSiteName());
+                json.addProperty("link", site.getSiteLink());
+                final JsonArray jsonDates = new JsonArray();
+                dates.stream().forEach(date -> jsonDates.add(date.toString()));
+                json.add("dates", jsonDates);
+                result.add(json);
+            }
+            final JsonObject body = new JsonObject();
+            body.addProperty("updated", updated == null ? null : updated.toString());
+            final JsonArray failed = new JsonArray();
+            failedLoops.forEach(failed::add);
+            body.add("failedLoops", failed);
+            body.add("sites", result);
+
+            final byte[] rendered = body.toString().getBytes(StandardCharsets.UTF_8);
+            if (responses.size() < MAX_CACHED_QUERIES) {
+                responses.put(query.key, rendered);
+            }
+            return rendered;
+        }
+
+        private static String fingerprint(List<Site> sites, Set<String> failedLoops) {
+            final MessageDigest digest;
+            try {
+                digest = MessageDigest.getInstance("SHA-256");
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException(e);
+            }
+            for (Site site : sites) {
+                digest.update((site.getLoopName() + '\t' + site.getSiteName() + '\t' + site.getSiteLink() + '\t' +
+                        site.getAvailability() + '\n').getBytes(StandardCharsets.UTF_8));
+            }
+            digest.update(failedLoops.toString().getBytes(StandardCharsets.UTF_8));
+            final StringBuilder hex = new StringBuilder();
+            final byte[] hash = digest.digest();
+            for (int i = 0; i < 8; i++) {
+                hex.append(String.format("%02x", hash[i]));
+            }
+            return hex.toString();
+        }
+    }
+
+    /**
+     * Query parameters turned into a filter, with a normalized key for caching and ETags.
+     */
+    private static class Query {
+        private final Set<String> loops;
+        private final AvailabilityFilter filter;
+        private final String key;
+
+        private Query(Set<String> loops, Set<DayOfWeek> days, LocalDate from, LocalDate to, int minStay) {
+            this.loops = loops;
+            this.filter = new AvailabilityFilter(new SearchProfile(PATH, loops, days, from, to, minStay, null));
+            this.key = loops + "|" + days + "|" + from + "|" + to + "|" + minStay;
+        }
+
+        static Query parse(String rawQuery) {
+            final Set<String> loops = new TreeSet<>();
+            final Set<DayOfWeek> days = EnumSet.allOf(DayOfWeek.class);
+            LocalDate from = LocalDate.MIN;
+            LocalDate to = LocalDate.MAX;
+            int minStay = 1;
+            if (rawQuery != null) {
+                for (String parameter : rawQuery.split("&")) {
+                    if (parameter.isEmpty()) {
+                        continue;
+                    }
+                    final int separator = parameter.indexOf('=');
+                    final String name = decode(separator < 0 ? parameter : parameter.substring(0, separator));
+                    final String value = separator < 0 ? "" : decode(parameter.substring(separator + 1)).trim();
+                    switch (name) {
+                        case "loop":
+                            loops.add(value);
+                            break;
+                        case "from":
+                            from = LocalDate.parse(value);
+                            break;
+                        case "to":
+                            to = LocalDate.parse(value);
+                            break;
+                        case "days":
+                            days.clear();
+                            for (String day : value.split("\\s*[,;]\\s*")) {
+                                days.add(DayOfWeek.valueOf(day.toUpperCase()));
+                            }
+                            break;
+                        case "minStay":
+                            minStay = Integer.parseInt(value);
+                            if (minStay < 1) {
+                                throw new IllegalArgumentException("minStay should be positive");
+                            }
+                            break;
+                        default:
+                            throw new IllegalArgumentException("unknown parameter '" + name + "'");
+                    }
+                }
+            }
+            return new Query(loops, days, from, to, minStay);
+        }
+
+        private static String decode(String value) {
+            try {
+                return URLDecoder.decode(value, StandardCharsets.UTF_8.name());
+            } catch (UnsupportedEncodingException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+}
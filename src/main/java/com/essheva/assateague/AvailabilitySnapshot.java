@@ -0,0 +1,133 @@
+package com.essheva.assateague;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+
+/**
+ * Result of one scan kept between runs. Stored as a tab separated text file, one site per line:
+ * loop, site, link and comma separated available dates.
+ */
+class AvailabilitySnapshot {
+
+    private static final char FIELD_SEPARATOR = '\t';
+    private static final String DATES_SEPARATOR = ",";
+
+    private final Map<String, Site> sites; // by loop and site name
+
+    private AvailabilitySnapshot(Map<String, Site> sites) {
+        this.sites = sites;
+    }
+
+    static AvailabilitySnapshot of(Collection<Site> sites) {
+        final Map<String, Site> byKey = new TreeMap<>();
+        sites.forEach(site -> byKey.put(key(site.getLoopName(), site.getSiteName()), site));
+        return new AvailabilitySnapshot(byKey);
+    }
+
+    /**
+     * @return snapshot stored in the file or an empty one if the file does not exist yet
+     */
+    static AvailabilitySnapshot load(Path file) throws IOException {
+        final Map<String, Site> byKey = new TreeMap<>();
+        if (Files.notExists(file)) {
+            return new AvailabilitySnapshot(byKey);
+        }
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isEmpty()) {
+                    continue;
+                }
+                final String[] fields = line.split(String.valueOf(FIELD_SEPARATOR), -1);
+                if (fields.length != 4) {
+                    throw new IOException("Malformed snapshot line in " + file + ": " + line);
+                }
+                final Site site = new Site(fields[1], fields[0]);
+                if (!fields[2].isEmpty()) {
+                    site.setSiteLink(fields[2]);
+                }
+                for (String date : fields[3].split(DATES_SEPARATOR)) {
+                    if (!date.isEmpty()) {
+                        site.getAvailability().add(LocalDate.parse(date));
+                    }
+                }
+                byKey.put(key(site.getLoopName(), site.getSiteName()), site);
+            }
+        }
+        return new AvailabilitySnapshot(byKey);
+    }
+
+    /**
+     * Writes the snapshot to a temporary file first and moves it over the old one,
+     * so a crash never leaves a half written snapshot behind.
+     */
+    void save(Path file) throws IOException {
+        final Path absolute = file.toAbsolutePath();
+        final Path tmp = absolute.resolveSibling(absolute.getFileName() + ".tmp");
+        try (BufferedWriter writer = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+            for (Site site : sites.values()) {
+                writer.write(site.getLoopName());
+                writer.write(FIELD_SEPARATOR);
+                writer.write(site.getSiteName());
+                writer.write(FIELD_SEPARATOR);
+                writer.write(site.getSiteLink() == null ? "" : site.getSiteLink());
+                writer.write(FIELD_SEPARATOR);
+                writer.write(site.getAvailability().stream().map(LocalDate::toString).
+                        collect(Collectors.joining(DATES_SEPARATOR)));
+                writer.newLine();
+            }
+        }
+        Files.move(tmp, absolute, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * @return this snapshot with sites of the given loops taken from the previous one; used for
+     * loops which failed to scan, so their sites are not reported as taken
+     */
+    AvailabilitySnapshot withLoopsFrom(AvailabilitySnapshot previous, Set<String> loops) {
+        if (loops.isEmpty()) {
+            return this;
+        }
+        final Map<String, Site> merged = new TreeMap<>();
+        sites.forEach((key, site) -> {
+            if (!loops.contains(site.getLoopName())) {
+                merged.put(key, site);
+            }
+        });
+        previous.sites.forEach((key, site) -> {
+            if (loops.contains(site.getLoopName())) {
+                merged.put(key, site);
+            }
+        });
+        return new AvailabilitySnapshot(merged);
+    }
+
+    Site getSite(String loopName, String siteName) {
+        return sites.get(key(loopName, siteName));
+    }
+
+    /**
+     * @return sites ordered by loop and site name
+     */
+    List<Site> getSites() {
+        return Collections.unmodifiableList(new ArrayList<>(sites.values()));
+    }
+
+    private static String key(String loopName, String siteName) {
+        return loopName + FIELD_SEPARATOR + siteName;
+    }
+}
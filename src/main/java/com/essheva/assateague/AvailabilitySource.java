@@ -0,0 +1,30 @@
+package com.essheva.assateague;
+
+import java.io.IOException;
+import java.time.LocalDate;
+import java.util.Set;
+
+/**
+ * Where raw site availability comes from. Implementations return every available date of a loop
+ * within the requested period; search criteria are applied later by {@link ProfileMatcher}. A source may leave out
+ * dates no search profile can match, see {@link ProfileMatcher#getWantedDates}.
+ */
+public interface AvailabilitySource extends AutoCloseable {
+
+    /**
+     * @param conf configuration snapshot of the scan cycle, which lists the loop
+     * @return sites of the loop having available dates within [from, to], both inclusive
+     */
+    Set<Site> getAvailableSites(Configuration conf, String loopName, LocalDate from, LocalDate to)
+            throws IOException, InterruptedException;
+
+    /**
+     * Makes a scan running in the given thread give up, e.g. when it is past its deadline. The thread is interrupted
+     * by the caller as well, so sources which block interruptibly need not do anything.
+     */
+    default void abort(Thread scanThread) {
+    }
+
+    @Override
+    void close();
+}
@@ -0,0 +1,125 @@
+package com.essheva.assateague;
+
+import org.openqa.selenium.JavascriptExecutor;
+
+import java.time.LocalDate;
+import java.time.Month;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Header of a calendar page resolved once into column index to date array, so that
+ * date of a cell is a plain array lookup.
+ */
+class CalendarHeader {
+
+    static final int FIRST_DAY_COLUMN = 2; // skip "site name" & "loop name"
+
+    static final String HEADER_SCRIPT_PART =
+            "var title = document.querySelector('div.rec-month-availability-date-title');" +
+            "var days = [];" +
+            "var ths = document.querySelectorAll('#availability-table thead th');" +
+            "for (var i = 0; i < ths.length; i++) {" +
+            "  var span = ths[i].querySelector('span.date');" +
+            "  days.push(span ? span.textContent.trim() : '');" +
+            "}";
+
+    private static final String EXTRACT_SCRIPT = HEADER_SCRIPT_PART +
+            "return {title: title ? title.textContent.trim() : '', days: days};";
+
+    private static final Pattern MONTH_YEAR_PATTERN = Pattern.compile("([A-Z]{3})(\\s+/\\s+([A-Z]{3}))?\\s+(\\d{4})");
+
+    private final String monthYearTitle;
+    private final LocalDate[] columnDates;
+    private final LocalDate lastDate;
+
+    private CalendarHeader(String monthYearTitle, LocalDate[] columnDates) {
+        this.monthYearTitle = monthYearTitle;
+        this.columnDates = columnDates;
+        LocalDate last = null;
+        for (LocalDate date : columnDates) {
+            if (date != null) {
+                last = date;
+            }
+        }
+        this.lastDate = last;
+    }
+
+    @SuppressWarnings("unchecked")
+    static CalendarHeader extract(JavascriptExecutor executor) {
+        final Map<String, Object> raw = (Map<String, Object>) executor.executeScript(EXTRACT_SCRIPT);
+        return fromScriptResult(raw);
+    }
+
+    @SuppressWarnings("unchecked")
+    static CalendarHeader fromScriptResult(Map<String, Object> raw) {
+        final List<Object> days = (List<Object>) raw.get("days");
+        return resolve(String.valueOf(raw.get("title")), days.stream().map(String::valueOf).toArray(String[]::new));
+    }
+
+    /**
+     * @param monthYearTitle title like "FEB 2019" or "FEB / MAR 2019" when the page spans two months
+     * @param headerDays day of month per header column, empty for columns without a date
+     */
+    static CalendarHeader resolve(String monthYearTitle, String[] headerDays) {
+        final Matcher matcher = MONTH_YEAR_PATTERN.matcher(monthYearTitle);
+        if (!matcher.find()) {
+            throw new RuntimeException("Something has been changed in format");
+        }
+        final Month firstMonth = toMonth(matcher.group(1));
+        final Month secondMonth = matcher.group(2) != null ? toMonth(matcher.group(3)) : firstMonth;
+        final int year = Integer.parseInt(matcher.group(4));
+        final int firstDay = FIRST_DAY_COLUMN < headerDays.length ? toDay(headerDays[FIRST_DAY_COLUMN]) : -1;
+
+        final LocalDate[] columnDates = new LocalDate[headerDays.length];
+        for (int column = 0; column < headerDays.length; column++) {
+            final int day = toDay(headerDays[column]);
+            if (day > 0) {
+                columnDates[column] = LocalDate.of(year, firstDay > day ? secondMonth : firstMonth, day);
+            }
+        }
+        return new CalendarHeader(monthYearTitle, columnDates);
+    }
+
+    String getMonthYearTitle() {
+        return monthYearTitle;
+    }
+
+    int getColumnCount() {
+        return columnDates.length;
+    }
+
+    /**
+     * @param column zero based header column, the same as a cell's 'cellIndex'
+     * @return date of the column or null if the column does not hold a date
+     */
+    LocalDate dateAt(int column) {
+        return column < columnDates.length ? columnDates[column] : null;
+    }
+
+    LocalDate getLastDate() {
+        return lastDate;
+    }
+
+    private static Month toMonth(String shortName) {
+        for (Month month : Month.values()) {
+            if (month.name().startsWith(shortName)) {
+                return month;
+            }
+        }
+        throw new RuntimeException("Unknown month " + shortName);
+    }
+
+    private static int toDay(String text) {
+        if (text == null || text.isEmpty()) {
+            return -1;
+        }
+        try {
+            return Integer.parseInt(text);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+}
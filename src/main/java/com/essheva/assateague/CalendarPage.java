@@ -0,0 +1,143 @@
+package com.essheva.assateague;
+
+import org.openqa.selenium.JavascriptExecutor;
+
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Snapshot of one availability calendar page (month title, header days, rows and cell states)
+ * pulled from the browser with a single script call.
+ */
+class CalendarPage {
+
+    static final char AVAILABLE = 'A';
+    static final char WALK_UP = 'W';
+    static final char NOT_AVAILABLE = '-';
+
+    private static final String EXTRACT_SCRIPT = CalendarHeader.HEADER_SCRIPT_PART +
+            "var rows = [];" +
+            "var trs = document.querySelectorAll('#availability-table tbody>tr');" +
+            "for (var r = 0; r < trs.length; r++) {" +
+            "  var loop = trs[r].querySelector('td.rec-site-loop');" +
+            "  var site = trs[r].querySelector('th button');" +
+            "  if (!loop || !site) continue;" +
+            "  var cells = '';" +
+            "  for (var c = 0; c < trs[r].cells.length; c++) {" +
+            "    var cls = trs[r].cells[c].className;" +
+            "    cells += cls === 'available' ? 'A' : cls === 'walk-up' ? 'W' : '-';" +
+            "  }" +
+            "  rows.push([loop.textContent.trim(), site.textContent.trim(), cells]);" +
+            "}" +
+            "return {title: title ? title.textContent.trim() : '', days: days, rows: rows};";
+
+    private final CalendarHeader header;
+    private final String[] loopNames;
+    private final String[] siteNames;
+    private final String[] cellStates;
+
+    CalendarPage(CalendarHeader header, String[] loopNames, String[] siteNames, String[] cellStates) {
+        this.header = header;
+        this.loopNames = loopNames;
+        this.siteNames = siteNames;
+        this.cellStates = cellStates;
+    }
+
+    static CalendarPage extract(JavascriptExecutor executor) {
+        return fromScriptResult(extractRaw(executor));
+    }
+
+    /**
+     * @return result of the extraction script as is, e.g. for recording
+     */
+    @SuppressWarnings("unchecked")
+    static Map<String, Object> extractRaw(JavascriptExecutor executor) {
+        return (Map<String, Object>) executor.executeScript(EXTRACT_SCRIPT);
+    }
+
+    /**
+     * @param raw structure returned by the extraction script: 'title', 'days' and 'rows' of [loop, site, cells]
+     */
+    @SuppressWarnings("unchecked")
+    static CalendarPage fromScriptResult(Map<String, Object> raw) {
+        final List<List<Object>> rows = (List<List<Object>>) raw.get("rows");
+
+        final String[] loopNames = new String[rows.size()];
+        final String[] siteNames = new String[rows.size()];
+        final String[] cellStates = new String[rows.size()];
+        for (int i = 0; i < rows.size(); i++) {
+            final List<Object> row = rows.get(i);
+            loopNames[i] = String.valueOf(row.get(0));
+            siteNames[i] = String.valueOf(row.get(1));
+            cellStates[i] = String.valueOf(row.get(2));
+        }
+        return new CalendarPage(CalendarHeader.fromScriptResult(raw), loopNames, siteNames, cellStates);
+    }
+
+    CalendarHeader getHeader() {
+        return header;
+    }
+
+    int getRowCount() {
+        return loopNames.length;
+    }
+
+    String getLoopName(int row) {
+        return loopNames[row];
+    }
+
+    String getSiteName(int row) {
+        return siteNames[row];
+    }
+
+    /**
+     * @return true for cells marked 'available' or 'walk-up'
+     */
+    boolean isAvailable(int row, int column) {
+        final String cells = cellStates[row];
+        if (column >= cells.length()) {
+            return false;
+        }
+        final char state = cells.charAt(column);
+        return state == AVAILABLE || state == WALK_UP;
+    }
+
+    int getCellCount(int row) {
+        return cellStates[row].length();
+    }
+
+    /**
+     * Adds available dates within [from, to] of the loop's sites to the result.
+     */
+    void collectAvailableSites(String loopName, LocalDate from, LocalDate to, SiteAccumulator result) {
+        collectAvailableSites(loopName, loopName, from, to, result);
+    }
+
+    /**
+     * Adds available dates within [from, to] of sites in rows of the page loop to the result, as sites
+     * of the camp group, see {@link Campground#qualify(String)}.
+     */
+    void collectAvailableSites(String loopName, String pageLoopName, LocalDate from, LocalDate to,
+                               SiteAccumulator result) {
+        for (int row = 0; row < getRowCount(); row++) {
+            if (!getLoopName(row).equals(pageLoopName)) {
+                continue;
+            }
+            Metrics.ROWS_PARSED.increment();
+            final DateBitSet candidates = new DateBitSet();
+            for (int column = 0; column < getCellCount(row); column++) {
+                if (isAvailable(row, column)) {
+                    final LocalDate date = header.dateAt(column);
+                    if (date != null) {
+                        candidates.add(date);
+                    }
+                }
+            }
+            final DateBitSet availableDates = candidates.clip(from, to);
+            if (!availableDates.isEmpty()) {
+                result.add(loopName, getSiteName(row), null, availableDates);
+            }
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package com.essheva.assateague;
+
+import com.google.gson.Gson;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Calendar pages captured during live scans, stored as extraction script results in JSON,
+ * one file per loop and first date of the page: '&lt;dir&gt;/&lt;loop&gt;/&lt;yyyy-MM-dd&gt;.json', or
+ * '&lt;dir&gt;/&lt;campground&gt;/&lt;loop&gt;/&lt;yyyy-MM-dd&gt;.json' for camp groups of a campground catalog.
+ * A page scanned again overwrites its previous recording.
+ */
+class CalendarRecording {
+
+    private static final String EXTENSION = ".json";
+
+    private final Path dir;
+    private final Gson gson = new Gson();
+
+    CalendarRecording(Path dir) {
+        this.dir = dir;
+    }
+
+    void save(String loopName, Map<String, Object> rawPage) throws IOException {
+        final CalendarHeader header = CalendarHeader.fromScriptResult(rawPage);
+        final LocalDate firstDate = header.dateAt(CalendarHeader.FIRST_DAY_COLUMN);
+        final String pageName = firstDate != null ? firstDate.toString() : toFileName(header.getMonthYearTitle());
+
+        final Path loopDir = Files.createDirectories(getLoopDir(loopName));
+        final Path file = loopDir.resolve(pageName + EXTENSION);
+        final Path tmp = loopDir.resolve(pageName + EXTENSION + ".tmp");
+        try (BufferedWriter writer = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+            gson.toJson(rawPage, writer);
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * @return recorded pages of the loop ordered by date, empty if nothing was recorded for it
+     */
+    List<CalendarPage> load(String loopName) throws IOException {
+        final Path loopDir = getLoopDir(loopName);
+        if (Files.notExists(loopDir)) {
+            return Collections.emptyList();
+        }
+        final List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(loopDir, "*" + EXTENSION)) {
+            stream.forEach(files::add);
+        }
+        Collections.sort(files);
+
+        final List<CalendarPage> pages = new ArrayList<>(files.size());
+        for (Path file : files) {
+            try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+                @SuppressWarnings("unchecked")
+                final Map<String, Object> rawPage = gson.fromJson(reader, Map.class);
+                if (rawPage == null) {
+                    throw new IOException("Empty recording " + file);
+                }
+                pages.add(CalendarPage.fromScriptResult(rawPage));
+            } catch (RuntimeException e) {
+                throw new IOException("Malformed recording " + file, e);
+            }
+        }
+        return pages;
+    }
+
+    private Path getLoopDir(String loopName) {
+        Path loopDir = dir;
+        for (String part : loopName.split("/")) {
+            loopDir = loopDir.resolve(toFileName(part));
+        }
+        return loopDir;
+    }
+
+    private static String toFileName(String name) {
+        return name.replaceAll("[^A-Za-z0-9-]+", "_");
+    }
+}
@@ -0,0 +1,79 @@
+package com.essheva.assateague;
+
+import java.util.Collections;
+import java.util.Set;
+
+/**
+ * Campground of the catalog: where its calendar is and which camp groups (loops) belong to it.
+ * <p>
+ * Campgrounds of a 'campgrounds' catalog qualify names of their camp groups as '&lt;campground&gt;/&lt;loop&gt;',
+ * so the same loop name may be used by several campgrounds. Sites, snapshots, history and scans use qualified
+ * names, calendar pages and the reservation site API the loop name only.
+ */
+class Campground {
+
+    private final String name;
+    private final String calendarUrl;
+    private final String httpId;
+    private final Set<String> loops;
+    private final boolean qualified;
+
+    /**
+     * @param loops loop names as shown on the calendar page
+     * @param qualified true if names of the camp groups are qualified by the campground name
+     */
+    Campground(String name, String calendarUrl, String httpId, Set<String> loops, boolean qualified) {
+        this.name = name;
+        this.calendarUrl = calendarUrl;
+        this.httpId = httpId;
+        this.loops = Collections.unmodifiableSet(loops);
+        this.qualified = qualified;
+    }
+
+    String getName() {
+        return name;
+    }
+
+    /**
+     * @return campsite calendar page driven by the 'selenium' source
+     */
+    String getCalendarUrl() {
+        return calendarUrl;
+    }
+
+    /**
+     * @return campground ID of the reservation site API read by the 'http' source
+     */
+    String getHttpId() {
+        return httpId;
+    }
+
+    /**
+     * @return loop names as shown on the calendar page
+     */
+    Set<String> getLoops() {
+        return loops;
+    }
+
+    /**
+     * @return name of the camp group of the loop used by scans and results
+     */
+    String qualify(String loop) {
+        return qualified ? name + '/' + loop : loop;
+    }
+
+    /**
+     * @return loop name of the camp group as shown on the calendar page
+     */
+    String getPageLoopName(String loopName) {
+        return qualified ? loopName.substring(name.length() + 1) : loopName;
+    }
+
+    @Override
+    public String toString() {
+        return "Campground{" +
+                "name='" + name + '\'' +
+                ", loops=" + loops +
+                '}';
+    }
+}
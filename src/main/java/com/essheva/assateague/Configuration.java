@@ -3,12 +3,24 @@ package com.essheva.assateague;
 import java.io.FileNotFoundException;
 import java.io.FileReader;
 import java.io.IOException;
+import java.io.Reader;
+import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.time.DayOfWeek;
 import java.time.LocalDate;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Properties;
 import java.util.Set;
+import java.util.TreeSet;
 import java.util.stream.Collectors;
 
 import static java.time.format.DateTimeFormatter.ofPattern;
@@ -17,59 +29,358 @@ import static java.time.format.DateTimeFormatter.ofPattern;
 public class Configuration {
 
     private static final String resourceDirPath = "src/main/resources";
+    private static final String configDirPath = System.getProperty("config.dir", resourceDirPath);
+    static final String APP_PROPERTIES = "app.properties";
+    static final String USER_SECRET = "user.secret";
+    static final String MAIL_DEFAULTS = "mail_default.properties";
     static final String DATE_FORMAT = "MM/dd/yyyy";
     private static final char PROPERTY_VALUES_SEPARATOR = ';';
+    static final String DEFAULT_PROFILE = "default";
+    static final String DEFAULT_CAMPGROUND = "assateague";
+    private static final String DEFAULT_CALENDAR_URL = "https://www.recreation.gov/camping/" +
+            "Assateague-Island-National-Seashore-Campground/r/" +
+            "campsiteCalendar.do?page=calendar&search=site&contractCode=NRSO&parkId=70989";
 
-    private static Configuration instance;
+    private static volatile Configuration instance;
 
+    private final Configuration startup;
     private final String driverPath;
+    private final List<SearchProfile> profiles;
     private final Set<String> campGroups;
-    private final Set<DayOfWeek> daysOfWeek;
+    private final List<Campground> campgrounds;
+    private final Map<String, Campground> campgroundsByLoop;
     private final LocalDate searchStart;
     private final LocalDate searchStop;
-    private final int minLength;
     private final boolean sendMail;
     private final boolean sendMailIfNotFound;
+    private final boolean mailOnChangesOnly;
+    private final String snapshotFile;
+    private final String historyFile;
+    private final int historyRetentionDays;
+    private final int historyCompactHours;
+    private final int mailCoalesceSeconds;
+    private final int mailMaxAttempts;
+    private final int mailRetryDelaySeconds;
+    private final int mailInlineMaxSites;
+    private final boolean adaptivePolling;
+    private final int pollIntervalMinutes;
+    private final int pollMinIntervalMinutes;
+    private final int pollMaxIntervalMinutes;
+    private final int pollNearDays;
+    private final int pollJitterPercent;
+    private final int pollNotifyDelaySeconds;
+    private final String availabilitySource;
+    private final String httpBaseUrl;
+    private final int httpCacheSeconds;
+    private final String recordingDir;
+    private final boolean bulkExtraction;
+    private final boolean navigationSeek;
+    private final double throttleRatePerSecond;
+    private final int throttleBurst;
+    private final int throttleLatencyTargetMillis;
+    private final int throttleBreakerWindow;
+    private final int throttleBreakerFailurePercent;
+    private final int throttleBreakerPauseSeconds;
+    private final int browserPoolSize;
+    private final int browserMaxUses;
+    private final int browserLeaseTimeoutMinutes;
+    private final int browserJsHeapLimitMb;
+    private final boolean browserLean;
+    private final List<String> browserBlockedHosts;
+    private final String browserCacheDir;
+    private final int browserCacheSizeMb;
+    private final int settleQuietMillis;
+    private final int settleTimeoutSeconds;
+    private final int scanConcurrency;
+    private final int scanTimeoutMinutes;
+    private final int scanRetries;
+    private final String checkpointDir;
+    private final int checkpointMaxAgeMinutes; // negative - not set
+    private final String scanRole;
+    private final String distributedDir;
+    private final int distributedLeaseSeconds;
+    private final int distributedMaxAttempts;
+    private final boolean metricsJmx;
+    private final String metricsFile;
+    private final boolean configWatch;
+    private final boolean serverEnabled;
+    private final String serverBind;
+    private final int serverPort;
+    private final int serverThreads;
 
     private Properties mailProps;
 
-    static synchronized Configuration getInstance() throws IOException {
-        if (instance == null) {
-            instance = new Configuration();
+    /**
+     * @return current configuration; a plain volatile read once loaded, so it is cheap to call on every use.
+     * Callers keep the returned snapshot for the whole operation to see consistent values.
+     */
+    static Configuration getInstance() throws IOException {
+        Configuration current = instance;
+        if (current == null) {
+            synchronized (Configuration.class) {
+                if (instance == null) {
+                    instance = new Configuration(getConfigDir(), null);
+                }
+                current = instance;
+            }
+        }
+        return current;
+    }
+
+    /**
+     * Reads and validates the configuration files again and makes the result current.
+     * If they cannot be read or are invalid, the exception is thrown and the current configuration stays.
+     * Properties read only at start keep their startup values, see {@link #getRestartRequiredChanges}.
+     */
+    static Configuration reload() throws IOException {
+        return reload(getConfigDir());
+    }
+
+    static synchronized Configuration reload(Path dir) throws IOException {
+        final Configuration previous = instance;
+        final Configuration loaded = new Configuration(dir, previous);
+        if (previous != null) {
+            final List<String> ignored = previous.getRestartRequiredChanges(loaded);
+            if (!ignored.isEmpty()) {
+                synchronized (System.err) {
+                    System.err.println("Changes of " + ignored + " take effect after restart only.");
+                }
+            }
         }
-        return instance;
+        instance = loaded;
+        return loaded;
     }
 
-    private Configuration() throws IOException {
+    /**
+     * @return directory of 'app.properties', 'user.secret' and 'mail_default.properties',
+     * 'src/main/resources' unless set by '-Dconfig.dir'
+     */
+    static Path getConfigDir() {
+        return Paths.get(configDirPath);
+    }
+
+    /**
+     * @return configuration read from the directory, not made current
+     */
+    static Configuration load(Path dir) throws IOException {
+        return new Configuration(dir, null);
+    }
+
+    /**
+     * @param running configuration of the running scanner whose startup values are kept, null at startup
+     */
+    private Configuration(Path dir, Configuration running) throws IOException {
         Properties props = new Properties();
-        props.load(getReader(resourceDirPath + "/app.properties"));
+        try (Reader reader = getReader(dir, APP_PROPERTIES)) {
+            props.load(reader);
+        }
 
         driverPath = getWebDriverFolderPathByOS();
 
-        campGroups = Arrays.stream(spiltValues(getValue(props, "campgroup.names"))).
-                distinct().
-                collect(Collectors.toSet());
-
-        daysOfWeek = Arrays.stream(spiltValues(getValue(props, "days.of.week")))
-                .distinct()
-                .map(String::toUpperCase)
-                .map(DayOfWeek::valueOf)
-                .collect(Collectors.toSet());
+        final List<SearchProfile> profileList = new ArrayList<>();
+        final String profileNames = props.getProperty("profiles");
+        if (profileNames == null || profileNames.trim().isEmpty()) {
+            profileList.add(readProfile(props, DEFAULT_PROFILE, ""));
+        } else {
+            for (String name : spiltValues(profileNames.trim())) {
+                profileList.add(readProfile(props, name, "profile." + name + "."));
+            }
+        }
 
-        searchStart = LocalDate.parse(getValue(props, "start.date"), ofPattern(DATE_FORMAT));
-        searchStop = LocalDate.parse(getValue(props,"stop.date"), ofPattern(DATE_FORMAT));
-        minLength = Integer.valueOf(getValue(props,"min.length.of.stay"));
+        searchStart = profileList.stream().map(SearchProfile::getSearchStart).min(LocalDate::compareTo).get();
+        searchStop = profileList.stream().map(SearchProfile::getSearchStop).max(LocalDate::compareTo).get();
 
         sendMail = Boolean.valueOf(props.getProperty("mail.send"));
         sendMailIfNotFound = Boolean.valueOf(props.getProperty("mail.send.if.not.found"));
 
+        final String notifyOn = props.getProperty("mail.notify.on", "all").trim();
+        if (!notifyOn.equals("all") && !notifyOn.equals("changes")) {
+            throw new IllegalArgumentException("Property 'mail.notify.on' should be 'all' or 'changes'");
+        }
+        mailOnChangesOnly = notifyOn.equals("changes");
+        snapshotFile = props.getProperty("snapshot.file", "availability.snapshot").trim();
+        historyFile = props.getProperty("history.file", "").trim();
+        historyRetentionDays = Integer.valueOf(props.getProperty("history.retention.days", "730"));
+        historyCompactHours = Integer.valueOf(props.getProperty("history.compact.hours", "24"));
+        if (historyRetentionDays < 1 || historyCompactHours < 1) {
+            throw new IllegalArgumentException("Properties 'history.retention.days' and 'history.compact.hours' " +
+                    "should be positive");
+        }
+        mailCoalesceSeconds = Integer.valueOf(props.getProperty("mail.coalesce.seconds", "30"));
+        mailMaxAttempts = Integer.valueOf(props.getProperty("mail.max.attempts", "5"));
+        mailRetryDelaySeconds = Integer.valueOf(props.getProperty("mail.retry.delay.seconds", "10"));
+        if (mailCoalesceSeconds < 0 || mailMaxAttempts < 1 || mailRetryDelaySeconds < 0) {
+            throw new IllegalArgumentException("Property 'mail.max.attempts' should be positive, " +
+                    "'mail.coalesce.seconds' and 'mail.retry.delay.seconds' should not be negative");
+        }
+        mailInlineMaxSites = Integer.valueOf(props.getProperty("mail.inline.max.sites", "200"));
+        if (mailInlineMaxSites < 1) {
+            throw new IllegalArgumentException("Property 'mail.inline.max.sites' should be positive");
+        }
+
+        final String pollMode = props.getProperty("poll.mode", "fixed").trim();
+        if (!pollMode.equals("fixed") && !pollMode.equals("adaptive")) {
+            throw new IllegalArgumentException("Property 'poll.mode' should be 'fixed' or 'adaptive'");
+        }
+        adaptivePolling = pollMode.equals("adaptive");
+        pollIntervalMinutes = Integer.valueOf(props.getProperty("poll.interval.minutes", "180"));
+        pollMinIntervalMinutes = Integer.valueOf(props.getProperty("poll.min.interval.minutes", "15"));
+        pollMaxIntervalMinutes = Integer.valueOf(props.getProperty("poll.max.interval.minutes", "720"));
+        pollNearDays = Integer.valueOf(props.getProperty("poll.near.days", "14"));
+        pollJitterPercent = Integer.valueOf(props.getProperty("poll.jitter.percent", "10"));
+        pollNotifyDelaySeconds = Integer.valueOf(props.getProperty("poll.notify.delay.seconds", "60"));
+        if (pollMinIntervalMinutes < 1 || pollMinIntervalMinutes > pollMaxIntervalMinutes) {
+            throw new IllegalArgumentException("Property 'poll.min.interval.minutes' should be positive " +
+                    "and not greater than 'poll.max.interval.minutes'");
+        }
+
+        availabilitySource = props.getProperty("availability.source", "selenium").trim();
+        if (!availabilitySource.equals("selenium") && !availabilitySource.equals("http")
+                && !availabilitySource.equals("replay")) {
+            throw new IllegalArgumentException("Property 'availability.source' should be 'selenium', 'http' or 'replay'");
+        }
+        httpBaseUrl = props.getProperty("http.base.url", "https://www.recreation.gov").trim();
+        httpCacheSeconds = Integer.valueOf(props.getProperty("http.cache.seconds", "60"));
+
+        final Set<String> profileLoops = profileList.stream().
+                flatMap(p -> p.getCampGroups().stream()).
+                collect(Collectors.toCollection(TreeSet::new));
+        campgrounds = Collections.unmodifiableList(readCampgrounds(props, profileLoops));
+        final Map<String, Campground> byLoop = new HashMap<>();
+        for (Campground campground : campgrounds) {
+            if (availabilitySource.equals("http") && campground.getHttpId().isEmpty()) {
+                throw new IllegalArgumentException("Campground '" + campground.getName() + "' needs 'http.id' " +
+                        "to be read by 'http' source");
+            }
+            for (String loop : campground.getLoops()) {
+                byLoop.put(campground.qualify(loop), campground);
+            }
+        }
+        campgroundsByLoop = Collections.unmodifiableMap(byLoop);
+        final List<SearchProfile> resolvedProfiles = new ArrayList<>();
+        for (SearchProfile profile : profileList) {
+            final Set<String> groups = new TreeSet<>();
+            for (String loopName : profile.getCampGroups()) {
+                groups.add(resolveCampGroup(loopName));
+            }
+            resolvedProfiles.add(profile.withCampGroups(groups));
+        }
+        profiles = Collections.unmodifiableList(resolvedProfiles);
+        campGroups = Collections.unmodifiableSet(interleave(campgrounds, profiles.stream().
+                flatMap(p -> p.getCampGroups().stream()).
+                collect(Collectors.toSet())));
+        recordingDir = props.getProperty("recording.dir", "").trim();
+        if (availabilitySource.equals("replay") && recordingDir.isEmpty()) {
+            throw new IllegalArgumentException("Property 'recording.dir' should be set to replay recorded pages");
+        }
+
+        final String extractionMode = props.getProperty("extraction.mode", "bulk").trim();
+        if (!extractionMode.equals("bulk") && !extractionMode.equals("element")) {
+            throw new IllegalArgumentException("Property 'extraction.mode' should be 'bulk' or 'element'");
+        }
+        bulkExtraction = extractionMode.equals("bulk");
+
+        final String navigationMode = props.getProperty("navigation.mode", "seek").trim();
+        if (!navigationMode.equals("seek") && !navigationMode.equals("sequential")) {
+            throw new IllegalArgumentException("Property 'navigation.mode' should be 'seek' or 'sequential'");
+        }
+        navigationSeek = navigationMode.equals("seek");
+
+        throttleRatePerSecond = Double.valueOf(props.getProperty("throttle.rate.per.second", "2"));
+        throttleBurst = Integer.valueOf(props.getProperty("throttle.burst", "5"));
+        throttleLatencyTargetMillis = Integer.valueOf(props.getProperty("throttle.latency.target.millis", "10000"));
+        throttleBreakerWindow = Integer.valueOf(props.getProperty("throttle.breaker.window", "20"));
+        throttleBreakerFailurePercent = Integer.valueOf(props.getProperty("throttle.breaker.failure.percent", "50"));
+        throttleBreakerPauseSeconds = Integer.valueOf(props.getProperty("throttle.breaker.pause.seconds", "300"));
+        if (throttleRatePerSecond < 0 || throttleBurst < 1 || throttleLatencyTargetMillis < 1 ||
+                throttleBreakerWindow < 1 || throttleBreakerPauseSeconds < 0) {
+            throw new IllegalArgumentException("Properties 'throttle.burst', 'throttle.latency.target.millis' and " +
+                    "'throttle.breaker.window' should be positive, 'throttle.rate.per.second' and " +
+                    "'throttle.breaker.pause.seconds' should not be negative");
+        }
+        if (throttleBreakerFailurePercent < 1 || throttleBreakerFailurePercent > 100) {
+            throw new IllegalArgumentException("Property 'throttle.breaker.failure.percent' should be within [1, 100]");
+        }
+
+        browserPoolSize = Integer.valueOf(props.getProperty("browser.pool.size", "2"));
+        browserMaxUses = Integer.valueOf(props.getProperty("browser.max.uses", "20"));
+        browserLeaseTimeoutMinutes = Integer.valueOf(props.getProperty("browser.lease.timeout.minutes", "30"));
+        browserJsHeapLimitMb = Integer.valueOf(props.getProperty("browser.js.heap.limit.mb", "0"));
+        if (browserPoolSize < 1) {
+            throw new IllegalArgumentException("Property 'browser.pool.size' should be positive");
+        }
+
+        final String browserProfile = props.getProperty("browser.profile", "lean").trim();
+        if (!browserProfile.equals("lean") && !browserProfile.equals("full")) {
+            throw new IllegalArgumentException("Property 'browser.profile' should be 'lean' or 'full'");
+        }
+        browserLean = browserProfile.equals("lean");
+        final String blockedHosts = props.getProperty("browser.blocked.hosts", "").trim();
+        browserBlockedHosts = blockedHosts.isEmpty() ?
+                Collections.emptyList() : Collections.unmodifiableList(Arrays.asList(spiltValues(blockedHosts)));
+        browserCacheDir = props.getProperty("browser.cache.dir", "").trim();
+        browserCacheSizeMb = Integer.valueOf(props.getProperty("browser.cache.size.mb", "50"));
+
+        settleQuietMillis = Integer.valueOf(props.getProperty("settle.quiet.millis", "300"));
+        settleTimeoutSeconds = Integer.valueOf(props.getProperty("settle.timeout.seconds", "60"));
+        if (settleQuietMillis < 0 || settleTimeoutSeconds < 1) {
+            throw new IllegalArgumentException("Property 'settle.quiet.millis' should not be negative " +
+                    "and 'settle.timeout.seconds' should be positive");
+        }
+
+        scanConcurrency = Integer.valueOf(props.getProperty("scan.concurrency", String.valueOf(browserPoolSize)));
+        scanTimeoutMinutes = Integer.valueOf(props.getProperty("scan.timeout.minutes", "20"));
+        if (scanConcurrency < 1 || scanTimeoutMinutes < 1) {
+            throw new IllegalArgumentException("Properties 'scan.concurrency' and 'scan.timeout.minutes' should be positive");
+        }
+        scanRetries = Integer.valueOf(props.getProperty("scan.retries", "1"));
+        checkpointDir = props.getProperty("checkpoint.dir", "").trim();
+        final String checkpointMaxAge = props.getProperty("checkpoint.max.age.minutes", "").trim();
+        checkpointMaxAgeMinutes = checkpointMaxAge.isEmpty() ? -1 : Integer.valueOf(checkpointMaxAge);
+        if (scanRetries < 0 || !checkpointMaxAge.isEmpty() && checkpointMaxAgeMinutes < 0) {
+            throw new IllegalArgumentException("Properties 'scan.retries' and 'checkpoint.max.age.minutes' " +
+                    "should not be negative");
+        }
+
+        scanRole = props.getProperty("scan.role", "standalone").trim();
+        if (!scanRole.equals("standalone") && !scanRole.equals("coordinator") && !scanRole.equals("worker")) {
+            throw new IllegalArgumentException("Property 'scan.role' should be 'standalone', 'coordinator' or 'worker'");
+        }
+        if (scanRole.equals("coordinator") && adaptivePolling) {
+            throw new IllegalArgumentException("Property 'scan.role' 'coordinator' works with 'fixed' poll mode only");
+        }
+        distributedDir = props.getProperty("distributed.dir", "distributed").trim();
+        distributedLeaseSeconds = Integer.valueOf(props.getProperty("distributed.lease.seconds", "60"));
+        distributedMaxAttempts = Integer.valueOf(props.getProperty("distributed.max.attempts", "3"));
+        if (distributedLeaseSeconds < 3 || distributedMaxAttempts < 1) {
+            throw new IllegalArgumentException("Property 'distributed.lease.seconds' should be at least 3 " +
+                    "and 'distributed.max.attempts' positive");
+        }
+
+        metricsJmx = Boolean.valueOf(props.getProperty("metrics.jmx", "true"));
+        metricsFile = props.getProperty("metrics.file", "").trim();
+        configWatch = Boolean.valueOf(props.getProperty("config.watch", "true"));
+
+        serverEnabled = Boolean.valueOf(props.getProperty("server.enabled", "false"));
+        serverBind = props.getProperty("server.bind", "127.0.0.1").trim();
+        serverPort = Integer.valueOf(props.getProperty("server.port", "8080"));
+        serverThreads = Integer.valueOf(props.getProperty("server.threads", "16"));
+        if (serverPort < 0 || serverPort > 65535 || serverThreads < 1) {
+            throw new IllegalArgumentException("Property 'server.port' should be a port number " +
+                    "and 'server.threads' positive");
+        }
+
         if (sendMail) {
             mailProps = new Properties();
-            mailProps.load(getReader(resourceDirPath + "/user.secret"));
+            try (Reader reader = getReader(dir, USER_SECRET)) {
+                mailProps.load(reader);
+            }
             if (!mailProps.containsKey("mail.smtp.host")
                     || !mailProps.containsKey("mail.imap.host")
                     || !mailProps.containsKey("mail.pop3.host")) {
-                mailProps.load(getReader(resourceDirPath + "/mail_default.properties"));
+                try (Reader reader = getReader(dir, MAIL_DEFAULTS)) {
+                    mailProps.load(reader);
+                }
             }
 
             if (!mailProps.containsKey("mail.from.user") || !mailProps.containsKey("mail.from.password")) {
@@ -77,42 +388,376 @@ public class Configuration {
                         "Please, set 'mail.from.user' and 'mail.from.password'");
             }
         }
+        startup = running == null ? this : running.startup;
     }
 
     String getDriverPath() {
         return driverPath;
     }
 
-    Set<String> getCampGroups() {
-        return campGroups;
+    List<SearchProfile> getProfiles() {
+        return profiles;
     }
 
-    Set<DayOfWeek> getDaysOfWeek() {
-        return daysOfWeek;
+    /**
+     * @return camp groups of all profiles, i.e. loops to scan, taking turns between campgrounds so that
+     * scans started in this order share browsers among campgrounds from the beginning; with a campground
+     * catalog the names are qualified by campground, see {@link Campground#qualify(String)}
+     */
+    Set<String> getCampGroups() {
+        return campGroups;
     }
 
+    /**
+     * @return the earliest start date of all profiles, i.e. where scan starts
+     */
     LocalDate getSearchStart() {
         return searchStart;
     }
 
+    /**
+     * @return the latest stop date of all profiles, i.e. where scan stops
+     */
     LocalDate getSearchStop() {
         return searchStop;
     }
 
-    int getMinLength() {
-        return minLength;
-    }
-
     boolean isSendMail() {
-        return sendMail;
+        return startup.sendMail;
     }
 
     boolean isSendMailIfNotFound() {
         return sendMailIfNotFound;
     }
 
+    boolean isMailOnChangesOnly() {
+        return mailOnChangesOnly;
+    }
+
+    String getSnapshotFile() {
+        return snapshotFile;
+    }
+
+    /**
+     * @return file availability transitions are logged to, empty if not configured
+     */
+    String getHistoryFile() {
+        return startup.historyFile;
+    }
+
+    int getHistoryRetentionDays() {
+        return startup.historyRetentionDays;
+    }
+
+    int getHistoryCompactHours() {
+        return startup.historyCompactHours;
+    }
+
+    /**
+     * @return how long notifications are collected into one digest after the first one
+     */
+    int getMailCoalesceSeconds() {
+        return startup.mailCoalesceSeconds;
+    }
+
+    int getMailMaxAttempts() {
+        return startup.mailMaxAttempts;
+    }
+
+    int getMailRetryDelaySeconds() {
+        return startup.mailRetryDelaySeconds;
+    }
+
+    int getMailInlineMaxSites() {
+        return startup.mailInlineMaxSites;
+    }
+
+    boolean isAdaptivePolling() {
+        return startup.adaptivePolling;
+    }
+
+    int getPollIntervalMinutes() {
+        return pollIntervalMinutes;
+    }
+
+    int getPollMinIntervalMinutes() {
+        return pollMinIntervalMinutes;
+    }
+
+    int getPollMaxIntervalMinutes() {
+        return pollMaxIntervalMinutes;
+    }
+
+    int getPollNearDays() {
+        return pollNearDays;
+    }
+
+    int getPollJitterPercent() {
+        return pollJitterPercent;
+    }
+
+    int getPollNotifyDelaySeconds() {
+        return pollNotifyDelaySeconds;
+    }
+
+    String getAvailabilitySource() {
+        return startup.availabilitySource;
+    }
+
+    String getHttpBaseUrl() {
+        return startup.httpBaseUrl;
+    }
+
+    List<Campground> getCampgrounds() {
+        return campgrounds;
+    }
+
+    /**
+     * @return campground listing the camp group
+     */
+    Campground getCampground(String loopName) {
+        final Campground campground = campgroundsByLoop.get(loopName);
+        if (campground == null) {
+            throw new IllegalArgumentException("Camp group '" + loopName + "' is not listed by any campground");
+        }
+        return campground;
+    }
+
+    int getHttpCacheSeconds() {
+        return startup.httpCacheSeconds;
+    }
+
+    /**
+     * @return directory calendar pages are recorded to by live scans and replayed from, empty if recording is off
+     */
+    String getRecordingDir() {
+        return startup.recordingDir;
+    }
+
+    boolean isBulkExtraction() {
+        return startup.bulkExtraction;
+    }
+
+    boolean isNavigationSeek() {
+        return startup.navigationSeek;
+    }
+
+    /**
+     * @return requests to the reservation site per second, 0 - no limit
+     */
+    double getThrottleRatePerSecond() {
+        return startup.throttleRatePerSecond;
+    }
+
+    int getThrottleBurst() {
+        return startup.throttleBurst;
+    }
+
+    int getThrottleLatencyTargetMillis() {
+        return startup.throttleLatencyTargetMillis;
+    }
+
+    int getThrottleBreakerWindow() {
+        return startup.throttleBreakerWindow;
+    }
+
+    int getThrottleBreakerFailurePercent() {
+        return startup.throttleBreakerFailurePercent;
+    }
+
+    int getThrottleBreakerPauseSeconds() {
+        return startup.throttleBreakerPauseSeconds;
+    }
+
+    int getBrowserPoolSize() {
+        return startup.browserPoolSize;
+    }
+
+    int getBrowserMaxUses() {
+        return startup.browserMaxUses;
+    }
+
+    int getBrowserLeaseTimeoutMinutes() {
+        return startup.browserLeaseTimeoutMinutes;
+    }
+
+    /**
+     * @return JS heap limit for a single browser so that a full pool stays within 'browser.js.heap.limit.mb',
+     * or 0 if no limit is configured.
+     */
+    int getBrowserHeapLimitMb() {
+        return startup.browserJsHeapLimitMb / startup.browserPoolSize;
+    }
+
+    /**
+     * @return true for headless browser without images, extensions and blocked hosts, false for a regular one
+     */
+    boolean isBrowserLean() {
+        return startup.browserLean;
+    }
+
+    List<String> getBrowserBlockedHosts() {
+        return startup.browserBlockedHosts;
+    }
+
+    /**
+     * @return directory with disk caches of pooled browsers, empty for Chrome's default
+     */
+    String getBrowserCacheDir() {
+        return startup.browserCacheDir;
+    }
+
+    int getBrowserCacheSizeMb() {
+        return startup.browserCacheSizeMb;
+    }
+
+    /**
+     * @return time without DOM changes after which the calendar page is considered rendered
+     */
+    int getSettleQuietMillis() {
+        return startup.settleQuietMillis;
+    }
+
+    int getSettleTimeoutSeconds() {
+        return startup.settleTimeoutSeconds;
+    }
+
+    /**
+     * @return number of loops scanned at once by a fixed polling cycle, 'browser.pool.size' by default
+     */
+    int getScanConcurrency() {
+        return startup.scanConcurrency;
+    }
+
+    int getScanTimeoutMinutes() {
+        return startup.scanTimeoutMinutes;
+    }
+
+    /**
+     * @return how many times a failed loop or unit scan is retried within the same cycle
+     */
+    int getScanRetries() {
+        return startup.scanRetries;
+    }
+
+    /**
+     * @return directory keeping progress of loop scans to resume them from, empty - progress is kept in memory only
+     */
+    String getCheckpointDir() {
+        return startup.checkpointDir;
+    }
+
+    /**
+     * @return age up to which progress is resumed, by default half of the startup 'poll.interval.minutes',
+     * so the next cycle never resumes progress of the previous one
+     */
+    int getCheckpointMaxAgeMinutes() {
+        return startup.checkpointMaxAgeMinutes >= 0 ?
+                startup.checkpointMaxAgeMinutes : startup.pollIntervalMinutes / 2;
+    }
+
+    /**
+     * @return 'standalone' - scan and notify in this process, 'coordinator' - hand scan units out to workers
+     * and notify, 'worker' - scan units handed out by coordinator
+     */
+    String getScanRole() {
+        return startup.scanRole;
+    }
+
+    /**
+     * @return directory shared by coordinator and workers
+     */
+    String getDistributedDir() {
+        return startup.distributedDir;
+    }
+
+    int getDistributedLeaseSeconds() {
+        return startup.distributedLeaseSeconds;
+    }
+
+    int getDistributedMaxAttempts() {
+        return startup.distributedMaxAttempts;
+    }
+
+    boolean isMetricsJmx() {
+        return startup.metricsJmx;
+    }
+
+    /**
+     * @return file metrics are written to in Prometheus text format, empty if not configured
+     */
+    String getMetricsFile() {
+        return startup.metricsFile;
+    }
+
     Properties getMailProps() {
-        return mailProps;
+        return startup.mailProps;
+    }
+
+    /**
+     * @return true if the latest scan is served over HTTP, see {@link AvailabilityServer}
+     */
+    boolean isServerEnabled() {
+        return startup.serverEnabled;
+    }
+
+    String getServerBind() {
+        return startup.serverBind;
+    }
+
+    int getServerPort() {
+        return startup.serverPort;
+    }
+
+    int getServerThreads() {
+        return startup.serverThreads;
+    }
+
+    /**
+     * @return true if configuration files are watched and reloaded on change
+     */
+    boolean isConfigWatch() {
+        return startup.configWatch;
+    }
+
+    /**
+     * @return properties whose new values differ from the ones this configuration runs with but are only read
+     * when the scanner, its browsers, sources and mail transport start; getters of these properties return
+     * the startup values until restart
+     */
+    List<String> getRestartRequiredChanges(Configuration other) {
+        final Map<String, Object> running = startup.getRestartRequiredValues();
+        final Map<String, Object> loaded = other.getRestartRequiredValues();
+        return running.keySet().stream().
+                filter(property -> !Objects.equals(running.get(property), loaded.get(property))).
+                collect(Collectors.toList());
+    }
+
+    private Map<String, Object> getRestartRequiredValues() {
+        final Map<String, Object> values = new LinkedHashMap<>();
+        values.put("availability.source", availabilitySource);
+        values.put("http.base.url/cache.seconds", Arrays.asList(httpBaseUrl, httpCacheSeconds));
+        values.put("recording.dir", recordingDir);
+        values.put("extraction.mode", bulkExtraction);
+        values.put("navigation.mode", navigationSeek);
+        values.put("throttle.*", Arrays.asList(throttleRatePerSecond, throttleBurst, throttleLatencyTargetMillis,
+                throttleBreakerWindow, throttleBreakerFailurePercent, throttleBreakerPauseSeconds));
+        values.put("browser.*", Arrays.asList(browserPoolSize, browserMaxUses, browserLeaseTimeoutMinutes,
+                browserJsHeapLimitMb, browserLean, browserBlockedHosts, browserCacheDir, browserCacheSizeMb));
+        values.put("settle.*", Arrays.asList(settleQuietMillis, settleTimeoutSeconds));
+        values.put("scan.*", Arrays.asList(scanConcurrency, scanTimeoutMinutes, scanRetries, scanRole));
+        values.put("checkpoint.*", Arrays.asList(checkpointDir, checkpointMaxAgeMinutes));
+        values.put("distributed.*", Arrays.asList(distributedDir, distributedLeaseSeconds, distributedMaxAttempts));
+        values.put("poll.mode", adaptivePolling);
+        values.put("history.*", Arrays.asList(historyFile, historyRetentionDays, historyCompactHours));
+        values.put("mail.send", sendMail);
+        values.put("mail.coalesce/max.attempts/retry.delay/inline.max.sites",
+                Arrays.asList(mailCoalesceSeconds, mailMaxAttempts, mailRetryDelaySeconds, mailInlineMaxSites));
+        values.put(USER_SECRET + " mail transport", mailProps);
+        values.put("metrics.*", Arrays.asList(metricsJmx, metricsFile));
+        values.put("server.*", Arrays.asList(serverEnabled, serverBind, serverPort, serverThreads));
+        values.put("config.watch", configWatch);
+        return values;
     }
 
     private String getWebDriverFolderPathByOS() {
@@ -133,13 +778,38 @@ public class Configuration {
     @Override
     public String toString() {
         return "Configuration{" +
-                "campGroups=" + campGroups +
-                ", daysOfWeek=" + daysOfWeek +
-                ", searchStart=" + searchStart +
-                ", searchStop=" + searchStop +
-                ", minLength=" + minLength +
+                "profiles=" + profiles +
+                ", campgrounds=" + campgrounds +
                 ", sendMail=" + sendMail +
                 ", sendMailIfNotFound=" + sendMailIfNotFound +
+                ", mailOnChangesOnly=" + mailOnChangesOnly +
+                ", mailInlineMaxSites=" + mailInlineMaxSites +
+                ", snapshotFile='" + snapshotFile + '\'' +
+                ", historyFile='" + historyFile + '\'' +
+                ", adaptivePolling=" + adaptivePolling +
+                ", pollIntervalMinutes=" + pollIntervalMinutes +
+                ", availabilitySource='" + availabilitySource + '\'' +
+                ", recordingDir='" + recordingDir + '\'' +
+                ", bulkExtraction=" + bulkExtraction +
+                ", navigationSeek=" + navigationSeek +
+                ", throttleRatePerSecond=" + throttleRatePerSecond +
+                ", browserPoolSize=" + browserPoolSize +
+                ", browserMaxUses=" + browserMaxUses +
+                ", browserLeaseTimeoutMinutes=" + browserLeaseTimeoutMinutes +
+                ", browserJsHeapLimitMb=" + browserJsHeapLimitMb +
+                ", browserLean=" + browserLean +
+                ", browserCacheDir='" + browserCacheDir + '\'' +
+                ", scanConcurrency=" + scanConcurrency +
+                ", scanTimeoutMinutes=" + scanTimeoutMinutes +
+                ", scanRetries=" + scanRetries +
+                ", checkpointDir='" + checkpointDir + '\'' +
+                ", scanRole='" + scanRole + '\'' +
+                ", distributedDir='" + distributedDir + '\'' +
+                ", metricsJmx=" + metricsJmx +
+                ", metricsFile='" + metricsFile + '\'' +
+                ", configWatch=" + configWatch +
+                ", serverEnabled=" + serverEnabled +
+                ", serverPort=" + serverPort +
                 '}';
     }
 
@@ -147,6 +817,99 @@ public class Configuration {
         return value.split("\\s*" + PROPERTY_VALUES_SEPARATOR + "\\s*");
     }
 
+    /**
+     * Reads the 'campgrounds' catalog, each with 'campground.&lt;name&gt;.url', '.http.id' and '.loops'.
+     * Without a catalog every camp group belongs to Assateague, whose API ID is 'http.campground.id'.
+     */
+    private List<Campground> readCampgrounds(Properties props, Set<String> profileLoops) {
+        final List<Campground> result = new ArrayList<>();
+        final String names = props.getProperty("campgrounds");
+        if (names == null || names.trim().isEmpty()) {
+            result.add(new Campground(DEFAULT_CAMPGROUND, DEFAULT_CALENDAR_URL,
+                    props.getProperty("http.campground.id", "232508").trim(), profileLoops, false));
+            return result;
+        }
+        for (String name : spiltValues(names.trim())) {
+            final String prefix = "campground." + name + ".";
+            final Set<String> loops = Arrays.stream(spiltValues(getValue(props, prefix + "loops").trim())).
+                    filter(loopName -> !loopName.isEmpty()).
+                    collect(Collectors.toCollection(TreeSet::new));
+            result.add(new Campground(name, getValue(props, prefix + "url").trim(),
+                    props.getProperty(prefix + "http.id", "").trim(), loops, true));
+        }
+        return result;
+    }
+
+    /**
+     * @return the camp group, or the qualified name of the only campground listing a loop of that name
+     */
+    private String resolveCampGroup(String loopName) {
+        if (campgroundsByLoop.containsKey(loopName)) {
+            return loopName;
+        }
+        final List<String> candidates = campgrounds.stream().
+                filter(campground -> campground.getLoops().contains(loopName)).
+                map(campground -> campground.qualify(loopName)).
+                collect(Collectors.toList());
+        if (candidates.isEmpty()) {
+            throw new IllegalArgumentException("Camp group '" + loopName + "' is not listed by any campground");
+        }
+        if (candidates.size() > 1) {
+            throw new IllegalArgumentException("Camp group '" + loopName + "' is listed by several campgrounds, " +
+                    "name it as one of " + candidates);
+        }
+        return candidates.get(0);
+    }
+
+    /**
+     * @return the loops, first loop of every campground, then second loop of every campground and so on
+     */
+    private static Set<String> interleave(List<Campground> campgrounds, Set<String> loops) {
+        final List<Iterator<String>> turns = new ArrayList<>();
+        for (Campground campground : campgrounds) {
+            turns.add(campground.getLoops().stream().map(campground::qualify).filter(loops::contains).iterator());
+        }
+        final Set<String> result = new LinkedHashSet<>();
+        while (result.size() < loops.size()) {
+            for (Iterator<String> turn : turns) {
+                if (turn.hasNext()) {
+                    result.add(turn.next());
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Reads criteria of a profile from properties prefixed with 'profile.&lt;name&gt;.', falling back
+     * to the top level ones for anything the profile does not set.
+     */
+    private SearchProfile readProfile(Properties props, String name, String prefix) {
+        final Set<String> groups = Arrays.stream(spiltValues(getValue(props, prefix, "campgroup.names"))).
+                collect(Collectors.toCollection(TreeSet::new));
+
+        final Set<DayOfWeek> days = Arrays.stream(spiltValues(getValue(props, prefix, "days.of.week")))
+                .distinct()
+                .map(String::toUpperCase)
+                .map(DayOfWeek::valueOf)
+                .collect(Collectors.toSet());
+
+        final LocalDate start = LocalDate.parse(getValue(props, prefix, "start.date"), ofPattern(DATE_FORMAT));
+        final LocalDate stop = LocalDate.parse(getValue(props, prefix, "stop.date"), ofPattern(DATE_FORMAT));
+        if (stop.isBefore(start)) {
+            throw new IllegalArgumentException("Profile '" + name + "' stop date is before start date");
+        }
+        final int minLength = Integer.valueOf(getValue(props, prefix, "min.length.of.stay"));
+
+        final String recipients = prefix.isEmpty() ? null : props.getProperty(prefix + "mail.to");
+        return new SearchProfile(name, groups, days, start, stop, minLength, recipients);
+    }
+
+    private String getValue(Properties props, String prefix, String s) {
+        final String value = props.getProperty(prefix + s);
+        return value != null ? value : getValue(props, s);
+    }
+
     private String getValue(Properties props, String s)  {
         final String value = props.getProperty(s);
         if (value == null) {
@@ -155,11 +918,7 @@ public class Configuration {
         return value;
     }
 
-    private static FileReader getReader(String resource) throws FileNotFoundException {
-        return new FileReader(Paths.get(resource).toFile());
-    }
-
-    public boolean isDesiredDayOfWeek(LocalDate date) {
-        return daysOfWeek.contains(date.getDayOfWeek());
+    private static FileReader getReader(Path dir, String fileName) throws FileNotFoundException {
+        return new FileReader(dir.resolve(fileName).toFile());
     }
 }
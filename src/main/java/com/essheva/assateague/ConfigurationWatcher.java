@@ -0,0 +1,99 @@
+package com.essheva.assateague;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Consumer;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+/**
+ * Reloads {@link Configuration} when one of its files in the configuration directory changes and hands
+ * the new configuration to the listener. A change which fails validation is logged and ignored.
+ * <p>
+ * Work already running keeps the configuration snapshot it started with; the next scan picks up the new one.
+ */
+class ConfigurationWatcher implements AutoCloseable {
+
+    private static final long SETTLE_MILLIS = 500; // editors write a file in several steps
+    private static final List<String> WATCHED_FILES =
+            Arrays.asList(Configuration.APP_PROPERTIES, Configuration.USER_SECRET, Configuration.MAIL_DEFAULTS);
+
+    private final WatchService watchService;
+    private final Consumer<Configuration> listener;
+    private final Thread thread;
+
+    ConfigurationWatcher(Path dir, Consumer<Configuration> listener) throws IOException {
+        this.watchService = FileSystems.getDefault().newWatchService();
+        this.listener = listener;
+        dir.register(watchService, ENTRY_CREATE, ENTRY_MODIFY);
+        this.thread = new Thread(this::run, "config-watcher");
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    private void run() {
+        try {
+            while (true) {
+                if (!isRelevant(watchService.take())) {
+                    continue;
+                }
+                Thread.sleep(SETTLE_MILLIS);
+                WatchKey more;
+                while ((more = watchService.poll()) != null) {
+                    isRelevant(more);
+                }
+                reload();
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) { // closed
+        }
+    }
+
+    private static boolean isRelevant(WatchKey key) {
+        boolean relevant = false;
+        for (WatchEvent<?> event : key.pollEvents()) {
+            relevant |= event.kind() == OVERFLOW || WATCHED_FILES.contains(event.context().toString());
+        }
+        key.reset();
+        return relevant;
+    }
+
+    private void reload() {
+        final Configuration conf;
+        try {
+            conf = Configuration.reload();
+        } catch (IOException | RuntimeException e) {
+            synchronized (System.err) {
+                System.err.println("Configuration change rejected, keeping the current one: " + e);
+            }
+            return;
+        }
+        synchronized (System.out) {
+            System.out.println("Configuration reloaded: " + conf);
+        }
+        try {
+            listener.accept(conf);
+        } catch (RuntimeException e) {
+            synchronized (System.err) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        try {
+            watchService.close();
+        } catch (IOException ignored) {
+        }
+        thread.interrupt();
+    }
+}
@@ -0,0 +1,206 @@
+package com.essheva.assateague;
+
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.function.BiConsumer;
+import java.util.stream.Stream;
+
+/**
+ * Set of dates kept as bits of epoch day offsets from the earliest date ever added.
+ * Range clipping, day of week masking and detection of consecutive runs are bit operations
+ * over the whole set instead of walking dates one by one.
+ */
+class DateBitSet {
+
+    private long origin; // epoch day of bit 0
+    private BitSet bits;
+
+    DateBitSet() {
+        this.bits = new BitSet();
+    }
+
+    private DateBitSet(long origin, BitSet bits) {
+        this.origin = origin;
+        this.bits = bits;
+    }
+
+    static DateBitSet of(Iterable<LocalDate> dates) {
+        final DateBitSet result = new DateBitSet();
+        dates.forEach(result::add);
+        return result;
+    }
+
+    void add(LocalDate date) {
+        final long epochDay = date.toEpochDay();
+        if (bits.isEmpty()) {
+            origin = epochDay;
+        } else if (epochDay < origin) {
+            bits = shiftedTo(epochDay);
+            origin = epochDay;
+        }
+        bits.set(toIndex(epochDay));
+    }
+
+    void addAll(DateBitSet other) {
+        if (other.bits.isEmpty()) {
+            return;
+        }
+        if (bits.isEmpty() || other.origin < origin) {
+            bits = shiftedTo(other.origin);
+            origin = other.origin;
+        }
+        bits.or(other.shiftedTo(origin));
+    }
+
+    void remove(LocalDate date) {
+        if (contains(date)) {
+            bits.clear(toIndex(date.toEpochDay()));
+        }
+    }
+
+    boolean contains(LocalDate date) {
+        final long epochDay = date.toEpochDay();
+        return epochDay >= origin && epochDay - origin <= Integer.MAX_VALUE && bits.get(toIndex(epochDay));
+    }
+
+    boolean isEmpty() {
+        return bits.isEmpty();
+    }
+
+    int size() {
+        return bits.cardinality();
+    }
+
+    /**
+     * @return dates of this set within [from, to], both inclusive
+     */
+    DateBitSet clip(LocalDate from, LocalDate to) {
+        final BitSet result = (BitSet) bits.clone();
+        final long fromIndex = from.toEpochDay() - origin;
+        final long toIndex = to.toEpochDay() - origin;
+        if (toIndex < 0 || fromIndex >= result.length()) {
+            return new DateBitSet();
+        }
+        if (fromIndex > 0) {
+            result.clear(0, (int) fromIndex);
+        }
+        if (toIndex + 1 < result.length()) {
+            result.clear((int) toIndex + 1, result.length());
+        }
+        return new DateBitSet(origin, result);
+    }
+
+    /**
+     * @return dates of this set falling on the given days of week
+     */
+    DateBitSet maskDaysOfWeek(Set<DayOfWeek> daysOfWeek) {
+        final BitSet mask = new BitSet(bits.length());
+        final DayOfWeek originDay = LocalDate.ofEpochDay(origin).getDayOfWeek();
+        for (DayOfWeek day : daysOfWeek) {
+            for (int i = (day.getValue() - originDay.getValue() + 7) % 7; i < bits.length(); i += 7) {
+                mask.set(i);
+            }
+        }
+        mask.and(bits);
+        return new DateBitSet(origin, mask);
+    }
+
+    /**
+     * @return dates of this set which belong to runs of at least minLength consecutive days
+     */
+    DateBitSet runsOfAtLeast(int minLength) {
+        final BitSet result = new BitSet(bits.length());
+        for (int start = bits.nextSetBit(0); start >= 0; ) {
+            final int end = bits.nextClearBit(start);
+            if (end - start >= minLength) {
+                result.set(start, end);
+            }
+            start = bits.nextSetBit(end);
+        }
+        return new DateBitSet(origin, result);
+    }
+
+    /**
+     * @return dates of this set missing in the other one
+     */
+    DateBitSet andNot(DateBitSet other) {
+        final BitSet result = (BitSet) bits.clone();
+        if (!other.bits.isEmpty() && !result.isEmpty()) {
+            result.andNot(other.shiftedTo(origin));
+        }
+        return new DateBitSet(origin, result);
+    }
+
+    /**
+     * Passes first and last date of every run of consecutive days, in ascending order.
+     */
+    void forEachRun(BiConsumer<LocalDate, LocalDate> consumer) {
+        for (int start = bits.nextSetBit(0); start >= 0; ) {
+            final int end = bits.nextClearBit(start);
+            consumer.accept(LocalDate.ofEpochDay(origin + start), LocalDate.ofEpochDay(origin + end - 1));
+            start = bits.nextSetBit(end);
+        }
+    }
+
+    Stream<LocalDate> stream() {
+        return bits.stream().mapToObj(i -> LocalDate.ofEpochDay(origin + i));
+    }
+
+    Set<LocalDate> toSortedSet() {
+        final Set<LocalDate> result = new TreeSet<>();
+        stream().forEach(result::add);
+        return Collections.unmodifiableSet(result);
+    }
+
+    private int toIndex(long epochDay) {
+        return (int) (epochDay - origin);
+    }
+
+    /**
+     * Shifts whole words of bits rather than single dates.
+     *
+     * @return bits of this set as if bit 0 were the given epoch day; days before it are dropped
+     */
+    private BitSet shiftedTo(long newOrigin) {
+        final long delta = origin - newOrigin;
+        if (delta == 0) {
+            return (BitSet) bits.clone();
+        }
+        if (delta < 0) {
+            return -delta >= bits.length() ? new BitSet() : bits.get((int) -delta, bits.length());
+        }
+        final long[] words = bits.toLongArray();
+        final int wordShift = (int) (delta / Long.SIZE);
+        final int bitShift = (int) (delta % Long.SIZE);
+        final long[] shifted = new long[words.length + wordShift + 1];
+        for (int i = 0; i < words.length; i++) {
+            shifted[i + wordShift] |= words[i] << bitShift;
+            if (bitShift != 0) {
+                shifted[i + wordShift + 1] |= words[i] >>> (Long.SIZE - bitShift);
+            }
+        }
+        return BitSet.valueOf(shifted);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        DateBitSet other = (DateBitSet) o;
+        return andNot(other).isEmpty() && other.andNot(this).isEmpty();
+    }
+
+    @Override
+    public int hashCode() {
+        return stream().mapToInt(LocalDate::hashCode).sum();
+    }
+
+    @Override
+    public String toString() {
+        return toSortedSet().toString();
+    }
+}
@@ -0,0 +1,107 @@
+package com.essheva.assateague;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Hands (loop, month) units of a cycle out to worker processes through a {@link FileWorkQueue} in 'distributed.dir'
+ * and merges their results as they arrive. A unit which failed or whose worker stopped renewing its lease
+ * for 'distributed.lease.seconds' is retried up to 'distributed.max.attempts' times in total.
+ */
+class DistributedScanCoordinator {
+
+    private static final long POLL_MILLIS = 1000;
+
+    private final FileWorkQueue queue;
+    private final long leaseMillis;
+    private final int maxAttempts;
+
+    DistributedScanCoordinator(Configuration conf) throws IOException {
+        this.queue = new FileWorkQueue(Paths.get(conf.getDistributedDir()));
+        this.leaseMillis = TimeUnit.SECONDS.toMillis(conf.getDistributedLeaseSeconds());
+        this.maxAttempts = conf.getDistributedMaxAttempts();
+    }
+
+    /**
+     * Passes sites found by each unit to the consumer as soon as a worker delivers them. Gives up on units
+     * not done within the timeout, the polling interval of the cycle, so that the next cycle starts on time.
+     *
+     * @return loops with units which could not be scanned
+     */
+    Set<String> scan(List<ScanUnit> units, long timeoutMillis, Consumer<Set<Site>> consumer)
+            throws IOException, InterruptedException {
+        queue.clear();
+        final String cycle = String.valueOf(System.currentTimeMillis());
+        final Map<String, ScanUnit> pending = new TreeMap<>();
+        final Map<String, Integer> attempts = new HashMap<>();
+        for (int i = 0; i < units.size(); i++) {
+            final String id = String.format("%s-%04d", cycle, i);
+            queue.submit(id, units.get(i));
+            pending.put(id, units.get(i));
+            attempts.put(id, 1);
+        }
+
+        final Set<String> failedLoops = new TreeSet<>();
+        final long deadline = System.currentTimeMillis() + timeoutMillis;
+        while (!pending.isEmpty()) {
+            for (String id : queue.listDone()) {
+                final Set<Site> sites = queue.takeResult(id);
+                if (pending.remove(id) != null) {
+                    queue.withdraw(id);
+                    consumer.accept(sites);
+                }
+            }
+            for (String id : queue.listFailed()) {
+                final String error = queue.takeError(id);
+                retry(id, "failed: " + error, pending, attempts, failedLoops);
+            }
+            for (String id : queue.takeExpiredLeases(leaseMillis)) {
+                retry(id, "lost its worker", pending, attempts, failedLoops);
+            }
+            if (pending.isEmpty()) {
+                break;
+            }
+            if (System.currentTimeMillis() > deadline) {
+                synchronized (System.err) {
+                    System.err.println(pending.size() + " unit(s) not scanned within the polling interval, giving up.");
+                }
+                pending.values().forEach(unit -> failedLoops.add(unit.getLoopName()));
+                queue.clear();
+                break;
+            }
+            Thread.sleep(POLL_MILLIS);
+        }
+        return failedLoops;
+    }
+
+    private void retry(String id, String reason, Map<String, ScanUnit> pending, Map<String, Integer> attempts,
+                       Set<String> failedLoops) throws IOException {
+        final ScanUnit unit = pending.get(id);
+        if (unit == null) { // stale attempt of a unit already done
+            return;
+        }
+        Metrics.LOOP_SCAN_FAILURES.increment();
+        final int attempt = attempts.merge(id, 1, Integer::sum);
+        synchronized (System.err) {
+            if (attempt > maxAttempts) {
+                System.err.println("Scan of " + unit + " " + reason + ", giving up.");
+            } else {
+                System.err.println("Scan of " + unit + " " + reason + ", retrying (attempt " + attempt + ").");
+            }
+        }
+        if (attempt > maxAttempts) {
+            pending.remove(id);
+            failedLoops.add(unit.getLoopName());
+        } else {
+            queue.submit(id, unit);
+        }
+    }
+}
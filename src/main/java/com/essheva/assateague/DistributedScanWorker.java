@@ -0,0 +1,138 @@
+package com.essheva.assateague;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Worker process of distributed scanning: keeps up to 'scan.concurrency' units claimed from the {@link FileWorkQueue}
+ * in 'distributed.dir', claiming the next one as soon as a scan completes, scans them with its own availability
+ * source and writes back each result as soon as it is ready. Leases of claimed units are renewed in the background,
+ * three times per lease period. Every unit is scanned under the configuration current when it was claimed.
+ */
+class DistributedScanWorker implements AutoCloseable {
+
+    private static final long IDLE_POLL_MILLIS = 1000;
+
+    private final String workerId = ManagementFactory.getRuntimeMXBean().getName();
+    private final FileWorkQueue queue;
+    private final ScanExecutor scanExecutor;
+    private final int concurrency;
+    private final long renewPeriodMillis;
+    private final Map<String, FileWorkQueue.Claim> claimed = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService renewer = Executors.newSingleThreadScheduledExecutor(r -> {
+        final Thread thread = new Thread(r, "lease-renewer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private volatile boolean closed;
+
+    DistributedScanWorker(Configuration conf, AvailabilitySource source) throws IOException {
+        this.queue = new FileWorkQueue(Paths.get(conf.getDistributedDir()));
+        this.scanExecutor = new ScanExecutor(conf, source);
+        this.concurrency = conf.getScanConcurrency();
+        this.renewPeriodMillis = TimeUnit.SECONDS.toMillis(conf.getDistributedLeaseSeconds()) / 3;
+    }
+
+    /**
+     * Serves units on 'scan.concurrency' threads until the worker is closed.
+     */
+    void run() throws InterruptedException {
+        System.out.println("Worker " + workerId + " is waiting for scan units.");
+        renewer.scheduleWithFixedDelay(this::renewLeases, renewPeriodMillis, renewPeriodMillis, TimeUnit.MILLISECONDS);
+        final List<Thread> slots = new ArrayList<>();
+        for (int i = 1; i <= concurrency; i++) {
+            final Thread slot = new Thread(this::serve, "worker-slot-" + i);
+            slot.setDaemon(true);
+            slot.start();
+            slots.add(slot);
+        }
+        for (Thread slot : slots) {
+            slot.join();
+        }
+    }
+
+    private void serve() {
+        try {
+            while (!closed) {
+                try {
+                    if (!serveOne()) {
+                        Thread.sleep(IDLE_POLL_MILLIS);
+                    }
+                } catch (IOException e) {
+                    synchronized (System.err) {
+                        System.err.println("Worker " + workerId + " failed to access work queue: " + e);
+                    }
+                    Thread.sleep(IDLE_POLL_MILLIS);
+                }
+            }
+        } catch (InterruptedException e) { // closed
+        }
+    }
+
+    /**
+     * Claims one unit, scans it and delivers the result or the failure.
+     *
+     * @return false if there was nothing to do
+     */
+    private boolean serveOne() throws IOException, InterruptedException {
+        final FileWorkQueue.Claim claim = queue.claim();
+        if (claim == null) {
+            return false;
+        }
+        claimed.put(claim.getId(), claim);
+        final Configuration conf = Configuration.getInstance();
+        final List<ScanUnit> failedUnits;
+        try {
+            failedUnits = scanExecutor.scanUnits(conf, Collections.singletonList(claim.getUnit()), (unit, sites) -> {
+                claimed.remove(claim.getId());
+                try {
+                    queue.complete(claim, sites);
+                } catch (IOException e) {
+                    synchronized (System.err) {
+                        System.err.println("Failed to deliver result of " + unit + ": " + e);
+                    }
+                }
+            });
+        } finally {
+            claimed.remove(claim.getId());
+        }
+        if (!failedUnits.isEmpty()) {
+            queue.fail(claim, "scan failed or timed out on worker " + workerId);
+        }
+        return true;
+    }
+
+    private void renewLeases() {
+        claimed.values().forEach(claim -> {
+            try {
+                if (!queue.renew(claim)) {
+                    claimed.remove(claim.getId());
+                    synchronized (System.err) {
+                        System.err.println("Lease of " + claim.getUnit() + " was taken back by coordinator.");
+                    }
+                }
+            } catch (IOException e) {
+                synchronized (System.err) {
+                    System.err.println("Failed to renew lease of " + claim.getUnit() + ": " + e);
+                }
+            }
+        });
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        renewer.shutdownNow();
+        scanExecutor.close();
+    }
+}
@@ -0,0 +1,87 @@
+package com.essheva.assateague;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Fixed number of permits shared by groups, e.g. browser sessions shared by campgrounds. A freed permit goes
+ * to the waiting group holding the fewest permits, the longest waiting caller of that group first, so a group
+ * queueing many requests cannot starve groups queueing few.
+ */
+class FairShare {
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition changed = lock.newCondition();
+    private final Map<String, Integer> held = new HashMap<>();
+    private final List<Waiter> waiters = new ArrayList<>();
+    private int available;
+
+    FairShare(int permits) {
+        this.available = permits;
+    }
+
+    /**
+     * @return true if a permit was taken for the group, false if the time elapsed before it was its turn
+     */
+    boolean tryAcquire(String group, long timeout, TimeUnit unit) throws InterruptedException {
+        long remainingNanos = unit.toNanos(timeout);
+        lock.lockInterruptibly();
+        try {
+            final Waiter waiter = new Waiter(group);
+            waiters.add(waiter);
+            try {
+                while (available == 0 || nextInTurn() != waiter) {
+                    if (remainingNanos <= 0) {
+                        return false;
+                    }
+                    remainingNanos = changed.awaitNanos(remainingNanos);
+                }
+                available--;
+                held.merge(group, 1, Integer::sum);
+                return true;
+            } finally {
+                waiters.remove(waiter);
+                changed.signalAll();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    void release(String group) {
+        lock.lock();
+        try {
+            available++;
+            held.computeIfPresent(group, (k, count) -> count > 1 ? count - 1 : null);
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private Waiter nextInTurn() {
+        Waiter next = null;
+        int fewest = Integer.MAX_VALUE;
+        for (Waiter waiter : waiters) {
+            final int count = held.getOrDefault(waiter.group, 0);
+            if (count < fewest) {
+                next = waiter;
+                fewest = count;
+            }
+        }
+        return next;
+    }
+
+    private static class Waiter {
+        private final String group;
+
+        private Waiter(String group) {
+            this.group = group;
+        }
+    }
+}
@@ -0,0 +1,227 @@
+package com.essheva.assateague;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Scan units exchanged between coordinator and worker processes through a shared directory:
+ * <ul>
+ * <li>'todo/&lt;id&gt;.unit' - unit waiting for a worker,</li>
+ * <li>'leased/&lt;id&gt;.unit' - unit claimed by a worker, which keeps touching the file while alive,</li>
+ * <li>'done/&lt;id&gt;.tsv' - sites found, in {@link AvailabilitySnapshot} format,</li>
+ * <li>'failed/&lt;id&gt;.txt' - error of a failed scan.</li>
+ * </ul>
+ * Every file appears through an atomic move, and a unit is claimed by moving it from 'todo' to 'leased',
+ * so exactly one worker gets it.
+ */
+class FileWorkQueue {
+
+    private static final String UNIT_EXTENSION = ".unit";
+    private static final String RESULT_EXTENSION = ".tsv";
+    private static final String ERROR_EXTENSION = ".txt";
+
+    private final Path todo;
+    private final Path leased;
+    private final Path done;
+    private final Path failed;
+
+    FileWorkQueue(Path dir) throws IOException {
+        this.todo = Files.createDirectories(dir.resolve("todo"));
+        this.leased = Files.createDirectories(dir.resolve("leased"));
+        this.done = Files.createDirectories(dir.resolve("done"));
+        this.failed = Files.createDirectories(dir.resolve("failed"));
+    }
+
+    // coordinator side
+
+    /**
+     * Drops everything left by a previous cycle.
+     */
+    void clear() throws IOException {
+        for (Path dir : new Path[]{todo, leased, done, failed}) {
+            for (Path file : list(dir, "*")) {
+                Files.deleteIfExists(file);
+            }
+        }
+    }
+
+    void submit(String id, ScanUnit unit) throws IOException {
+        final Properties props = new Properties();
+        props.setProperty("loop", unit.getLoopName());
+        props.setProperty("from", unit.getFrom().toString());
+        props.setProperty("to", unit.getTo().toString());
+        final Path tmp = todo.resolve(id + UNIT_EXTENSION + ".tmp");
+        try (Writer writer = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+            props.store(writer, null);
+        }
+        Files.move(tmp, todo.resolve(id + UNIT_EXTENSION), StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * @return ids of units with results in 'done'
+     */
+    List<String> listDone() throws IOException {
+        return ids(list(done, "*" + RESULT_EXTENSION), RESULT_EXTENSION);
+    }
+
+    /**
+     * Reads and removes the result of the unit.
+     */
+    Set<Site> takeResult(String id) throws IOException {
+        final Path file = done.resolve(id + RESULT_EXTENSION);
+        final Set<Site> sites = new TreeSet<>(AvailabilitySnapshot.load(file).getSites());
+        Files.deleteIfExists(file);
+        return sites;
+    }
+
+    /**
+     * @return ids of units with errors in 'failed'
+     */
+    List<String> listFailed() throws IOException {
+        return ids(list(failed, "*" + ERROR_EXTENSION), ERROR_EXTENSION);
+    }
+
+    /**
+     * Reads and removes the error of the unit.
+     */
+    String takeError(String id) throws IOException {
+        final Path file = failed.resolve(id + ERROR_EXTENSION);
+        final String error = new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+        Files.deleteIfExists(file);
+        return error;
+    }
+
+    /**
+     * Takes units back from workers which have not touched their lease for the given time.
+     *
+     * @return ids of the expired units, removed from 'leased'
+     */
+    List<String> takeExpiredLeases(long leaseMillis) throws IOException {
+        final long now = System.currentTimeMillis();
+        final List<String> expired = new ArrayList<>();
+        for (Path file : list(leased, "*" + UNIT_EXTENSION)) {
+            try {
+                if (now - Files.getLastModifiedTime(file).toMillis() > leaseMillis) {
+                    Files.delete(file);
+                    expired.add(id(file, UNIT_EXTENSION));
+                }
+            } catch (NoSuchFileException ignored) { // completed meanwhile
+            }
+        }
+        return expired;
+    }
+
+    /**
+     * Removes the unit wherever it is, e.g. once a result of an earlier attempt has arrived.
+     */
+    void withdraw(String id) throws IOException {
+        Files.deleteIfExists(todo.resolve(id + UNIT_EXTENSION));
+        Files.deleteIfExists(leased.resolve(id + UNIT_EXTENSION));
+    }
+
+    // worker side
+
+    /**
+     * @return a unit moved to 'leased' for this worker, or null if there is nothing to do
+     */
+    Claim claim() throws IOException {
+        for (Path file : list(todo, "*" + UNIT_EXTENSION)) {
+            final Path lease = leased.resolve(file.getFileName());
+            try {
+                Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+                Files.move(file, lease, StandardCopyOption.ATOMIC_MOVE);
+            } catch (NoSuchFileException | FileAlreadyExistsException e) { // claimed by another worker
+                continue;
+            }
+            final Properties props = new Properties();
+            try (Reader reader = Files.newBufferedReader(lease, StandardCharsets.UTF_8)) {
+                props.load(reader);
+            } catch (NoSuchFileException e) { // lease already expired
+                continue;
+            }
+            return new Claim(id(file, UNIT_EXTENSION), new ScanUnit(props.getProperty("loop"),
+                    LocalDate.parse(props.getProperty("from")), LocalDate.parse(props.getProperty("to"))));
+        }
+        return null;
+    }
+
+    /**
+     * @return false if the lease has been taken back by the coordinator
+     */
+    boolean renew(Claim claim) throws IOException {
+        try {
+            Files.setLastModifiedTime(leased.resolve(claim.id + UNIT_EXTENSION),
+                    FileTime.fromMillis(System.currentTimeMillis()));
+            return true;
+        } catch (NoSuchFileException e) {
+            return false;
+        }
+    }
+
+    void complete(Claim claim, Set<Site> sites) throws IOException {
+        AvailabilitySnapshot.of(sites).save(done.resolve(claim.id + RESULT_EXTENSION));
+        Files.deleteIfExists(leased.resolve(claim.id + UNIT_EXTENSION));
+    }
+
+    void fail(Claim claim, String error) throws IOException {
+        final Path tmp = failed.resolve(claim.id + ERROR_EXTENSION + ".tmp");
+        Files.write(tmp, error.getBytes(StandardCharsets.UTF_8));
+        Files.move(tmp, failed.resolve(claim.id + ERROR_EXTENSION),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        Files.deleteIfExists(leased.resolve(claim.id + UNIT_EXTENSION));
+    }
+
+    private static List<Path> list(Path dir, String glob) throws IOException {
+        final List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, glob)) {
+            stream.forEach(files::add);
+        }
+        Collections.sort(files);
+        return files;
+    }
+
+    private static List<String> ids(List<Path> files, String extension) {
+        final List<String> ids = new ArrayList<>(files.size());
+        files.forEach(file -> ids.add(id(file, extension)));
+        return ids;
+    }
+
+    private static String id(Path file, String extension) {
+        final String name = file.getFileName().toString();
+        return name.substring(0, name.length() - extension.length());
+    }
+
+    static class Claim {
+        private final String id;
+        private final ScanUnit unit;
+
+        private Claim(String id, ScanUnit unit) {
+            this.id = id;
+            this.unit = unit;
+        }
+
+        String getId() {
+            return id;
+        }
+
+        ScanUnit getUnit() {
+            return unit;
+        }
+    }
+}
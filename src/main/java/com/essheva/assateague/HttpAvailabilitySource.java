@@ -0,0 +1,170 @@
+package com.essheva.assateague;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Reads month availability of a whole campground as JSON straight from the reservation site API,
+ * no browser involved. One month response covers every loop of the campground, so responses are cached for
+ * 'http.cache.seconds' and shared by loop scans of the same run.
+ * <p>
+ * Connections are kept alive and reused by {@link HttpURLConnection} as long as every response
+ * body is read to the end and closed, which is done for both successful and error responses.
+ */
+public class HttpAvailabilitySource implements AvailabilitySource {
+
+    private static final String MONTH_PATH = "/api/camps/availability/campground/%s/month?start_date=%s-01T00%%3A00%%3A00.000Z";
+    private static final String SITE_PATH = "/camping/campsites/";
+    private static final int CONNECT_TIMEOUT_MILLIS = 10_000;
+    private static final int READ_TIMEOUT_MILLIS = 30_000;
+
+    private final String baseUrl;
+    private final long cacheTtlMillis;
+    private final Map<String, CachedMonth> cache = new ConcurrentHashMap<>();
+    private final LongSupplier clock;
+
+    HttpAvailabilitySource(Configuration conf) {
+        this(conf, System::currentTimeMillis);
+    }
+
+    /**
+     * @param clock source of {@link System#currentTimeMillis()} like time the cache expires by
+     */
+    HttpAvailabilitySource(Configuration conf, LongSupplier clock) {
+        this.baseUrl = conf.getHttpBaseUrl();
+        this.cacheTtlMillis = TimeUnit.SECONDS.toMillis(conf.getHttpCacheSeconds());
+        this.clock = clock;
+    }
+
+    @Override
+    public Set<Site> getAvailableSites(Configuration conf, String loopName, LocalDate from, LocalDate to)
+            throws IOException {
+        final Map<String, DateBitSet> datesBySite = new TreeMap<>();
+        final Map<String, String> idBySite = new TreeMap<>();
+        final Campground campground = conf.getCampground(loopName);
+        final String campgroundId = campground.getHttpId();
+        final String pageLoopName = campground.getPageLoopName(loopName);
+
+        final YearMonth last = YearMonth.from(to);
+        for (YearMonth month = YearMonth.from(from); !month.isAfter(last); month = month.plusMonths(1)) {
+            final JsonObject campsites = fetchMonth(campgroundId, month).getAsJsonObject("campsites");
+            if (campsites == null) {
+                continue;
+            }
+            for (Map.Entry<String, JsonElement> entry : campsites.entrySet()) {
+                final JsonObject campsite = entry.getValue().getAsJsonObject();
+                if (!pageLoopName.equals(getString(campsite, "loop"))) {
+                    continue;
+                }
+                final String siteName = getString(campsite, "site");
+                idBySite.put(siteName, entry.getKey());
+                final DateBitSet dates = datesBySite.computeIfAbsent(siteName, k -> new DateBitSet());
+                final JsonObject availabilities = campsite.getAsJsonObject("availabilities");
+                if (availabilities != null) {
+                    availabilities.entrySet().stream().
+                            filter(a -> isAvailable(a.getValue().getAsString())).
+                            forEach(a -> dates.add(LocalDate.parse(a.getKey().substring(0, 10))));
+                }
+            }
+        }
+
+        final Set<Site> result = new TreeSet<>();
+        datesBySite.forEach((siteName, dates) -> {
+            final DateBitSet availableDates = dates.clip(from, to);
+            if (!availableDates.isEmpty()) {
+                final Site site = new Site(siteName, loopName);
+                site.setSiteLink(baseUrl + SITE_PATH + idBySite.get(siteName));
+                site.addAvailableDates(availableDates);
+                result.add(site);
+            }
+        });
+        return result;
+    }
+
+    @Override
+    public void close() {
+        cache.clear();
+    }
+
+    private JsonObject fetchMonth(String campgroundId, YearMonth month) throws IOException {
+        final String cacheKey = campgroundId + '/' + month;
+        final CachedMonth cached = cache.get(cacheKey);
+        if (cached != null && clock.getAsLong() - cached.fetchedAt < cacheTtlMillis) {
+            return cached.body;
+        }
+
+        final URL url = new URL(baseUrl + String.format(MONTH_PATH, campgroundId, month));
+        final HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        connection.setConnectTimeout(CONNECT_TIMEOUT_MILLIS);
+        connection.setReadTimeout(READ_TIMEOUT_MILLIS);
+        connection.setRequestProperty("Accept", "application/json");
+        connection.setRequestProperty("Accept-Encoding", "gzip");
+
+        final int code = connection.getResponseCode();
+        if (code != HttpURLConnection.HTTP_OK) {
+            try (InputStream error = connection.getErrorStream()) {
+                drain(error);
+            }
+            throw new IOException("Availability request " + url + " failed with HTTP " + code);
+        }
+
+        final JsonObject body;
+        try (Reader reader = new InputStreamReader(openBody(connection), StandardCharsets.UTF_8)) {
+            body = new JsonParser().parse(reader).getAsJsonObject();
+        }
+        cache.put(cacheKey, new CachedMonth(body, clock.getAsLong()));
+        return body;
+    }
+
+    private static InputStream openBody(HttpURLConnection connection) throws IOException {
+        final InputStream in = connection.getInputStream();
+        return "gzip".equalsIgnoreCase(connection.getContentEncoding()) ? new GZIPInputStream(in) : in;
+    }
+
+    private static void drain(InputStream in) throws IOException {
+        if (in != null) {
+            final byte[] buffer = new byte[4096];
+            while (in.read(buffer) != -1) {
+                // keep connection reusable
+            }
+        }
+    }
+
+    private static boolean isAvailable(String status) {
+        return "Available".equalsIgnoreCase(status) || "Walk-up".equalsIgnoreCase(status);
+    }
+
+    private static String getString(JsonObject object, String member) {
+        final JsonElement element = object.get(member);
+        return element == null || element.isJsonNull() ? null : element.getAsString();
+    }
+
+    private static class CachedMonth {
+        private final JsonObject body;
+        private final long fetchedAt;
+
+        private CachedMonth(JsonObject body, long fetchedAt) {
+            this.body = body;
+            this.fetchedAt = fetchedAt;
+        }
+    }
+}
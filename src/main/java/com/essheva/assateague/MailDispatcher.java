@@ -0,0 +1,342 @@
+package com.essheva.assateague;
+
+import javax.mail.Address;
+import javax.mail.AuthenticationFailedException;
+import javax.mail.Authenticator;
+import javax.mail.MessagingException;
+import javax.mail.NoSuchProviderException;
+import javax.mail.PasswordAuthentication;
+import javax.mail.SendFailedException;
+import javax.mail.Session;
+import javax.mail.Transport;
+import javax.mail.internet.MimeMessage;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sends notification mails from a background thread over one SMTP connection kept open between mails.
+ * <p>
+ * Notifications arriving within 'mail.coalesce.seconds' after the first one are coalesced: a later notification
+ * of a profile replaces the earlier one, or, with 'mail.notify.on=changes', is merged with it, and all profiles
+ * with the same recipients get one digest. Digests with equal content go out as one mail to all their recipients.
+ * A mail failing for a transient reason is retried up to 'mail.max.attempts' times, 'mail.retry.delay.seconds'
+ * doubling after each attempt. Detection latency is recorded once a mail is sent, from the start of the earliest
+ * scan it reports on.
+ * <p>
+ * Bodies are rendered by one {@link MailRenderer} reused for every mail, which is safe as only the dispatcher
+ * thread renders.
+ */
+class MailDispatcher implements AutoCloseable {
+
+    private static final long CLOSE_TIMEOUT_MILLIS = TimeUnit.MINUTES.toMillis(1);
+
+    private final Session session;
+    private final boolean mergeChanges;
+    private final long coalesceMillis;
+    private final int maxAttempts;
+    private final long retryDelayMillis;
+    private final MailRenderer renderer;
+    private final BlockingQueue<Notification> queue = new LinkedBlockingQueue<>();
+    private final Thread thread;
+
+    private Transport transport;
+    private volatile boolean closing;
+
+    MailDispatcher(Configuration conf) {
+        final Properties props = conf.getMailProps();
+        this.session = Session.getInstance(props, new Authenticator() {
+            @Override
+            protected PasswordAuthentication getPasswordAuthentication() {
+                return new PasswordAuthentication(props.getProperty("mail.from.user"),
+                        props.getProperty("mail.from.password"));
+            }
+        });
+        this.mergeChanges = conf.isMailOnChangesOnly();
+        this.coalesceMillis = TimeUnit.SECONDS.toMillis(conf.getMailCoalesceSeconds());
+        this.maxAttempts = conf.getMailMaxAttempts();
+        this.retryDelayMillis = TimeUnit.SECONDS.toMillis(conf.getMailRetryDelaySeconds());
+        this.renderer = new MailRenderer(conf.getMailInlineMaxSites());
+        this.thread = new Thread(this::run, "mail-dispatcher");
+        this.thread.start();
+    }
+
+    /**
+     * Queues the mail of a profile and returns at once.
+     *
+     * @param scanStartNanos start of the scan whose results the mail reports, for detection latency
+     */
+    void submit(String profileName, SiteAvailabilityMailer mail, long scanStartNanos) {
+        if (closing) {
+            throw new IllegalStateException("Mail dispatcher is closed");
+        }
+        queue.add(new Notification(profileName, mail, scanStartNanos));
+    }
+
+    private void run() {
+        while (!closing || !queue.isEmpty()) {
+            final List<Notification> batch = new ArrayList<>();
+            try {
+                if (closing) {
+                    queue.drainTo(batch);
+                } else {
+                    batch.add(queue.take());
+                    final long deadline = System.currentTimeMillis() + coalesceMillis;
+                    long remaining;
+                    while ((remaining = deadline - System.currentTimeMillis()) > 0) {
+                        final Notification next = queue.poll(remaining, TimeUnit.MILLISECONDS);
+                        if (next != null) {
+                            batch.add(next);
+                        }
+                    }
+                }
+            } catch (InterruptedException e) { // closing, send what has been collected
+                queue.drainTo(batch);
+            }
+            coalesce(batch).forEach(this::send);
+        }
+        disconnect();
+    }
+
+    /**
+     * @return one mail per distinct content, addressed to everyone who should get that content, with the start
+     * of the earliest scan it reports on
+     */
+    private Map<SiteAvailabilityMailer, Long> coalesce(List<Notification> batch) {
+        final Map<String, Map<String, SiteAvailabilityMailer>> byRecipients = new LinkedHashMap<>();
+        final Map<String, Long> scanStartByRecipients = new HashMap<>();
+        for (Notification notification : batch) {
+            final String recipients = Arrays.toString(notification.mail.getToAddress());
+            final Map<String, SiteAvailabilityMailer> byProfile =
+                    byRecipients.computeIfAbsent(recipients, k -> new LinkedHashMap<>());
+            byProfile.merge(notification.profileName, notification.mail,
+                    (earlier, later) -> mergeChanges ? mergeChanges(earlier, later) : later);
+            scanStartByRecipients.merge(recipients, notification.scanStartNanos, MailDispatcher::earlier);
+        }
+
+        final Map<Content, SiteAvailabilityMailer> byContent = new LinkedHashMap<>();
+        final Map<Content, Set<Address>> recipientsByContent = new LinkedHashMap<>();
+        final Map<Content, Long> scanStartByContent = new HashMap<>();
+        byRecipients.forEach((recipients, byProfile) -> {
+            final SiteAvailabilityMailer digest = digest(byProfile.values());
+            final Content content = new Content(digest);
+            byContent.putIfAbsent(content, digest);
+            recipientsByContent.computeIfAbsent(content, k -> new LinkedHashSet<>()).
+                    addAll(Arrays.asList(digest.getToAddress()));
+            scanStartByContent.merge(content, scanStartByRecipients.get(recipients), MailDispatcher::earlier);
+        });
+
+        final Map<SiteAvailabilityMailer, Long> mails = new LinkedHashMap<>();
+        byContent.forEach((content, digest) -> mails.put(new SiteAvailabilityMailer(digest.getFromAddress(),
+                recipientsByContent.get(content).toArray(new Address[0]),
+                digest.getAvailableSites(), digest.getTakenSites()), scanStartByContent.get(content)));
+        if (batch.size() > mails.size()) {
+            System.out.println(String.format("Coalesced %d notification(s) into %d mail(s).", batch.size(), mails.size()));
+        }
+        return mails;
+    }
+
+    private static long earlier(long nanos, long other) {
+        return nanos - other <= 0 ? nanos : other;
+    }
+
+    /**
+     * @return changes of two consecutive notifications of a profile, dropping dates which opened
+     * and were taken again in between or the other way round
+     */
+    private static SiteAvailabilityMailer mergeChanges(SiteAvailabilityMailer earlier, SiteAvailabilityMailer later) {
+        final List<Site> opened = union(subtract(earlier.getAvailableSites(), later.getTakenSites()),
+                subtract(later.getAvailableSites(), earlier.getTakenSites()));
+        final List<Site> taken = union(subtract(earlier.getTakenSites(), later.getAvailableSites()),
+                subtract(later.getTakenSites(), earlier.getAvailableSites()));
+        return new SiteAvailabilityMailer(later.getFromAddress(), later.getToAddress(), opened, taken);
+    }
+
+    private static SiteAvailabilityMailer digest(Collection<SiteAvailabilityMailer> mails) {
+        SiteAvailabilityMailer digest = null;
+        for (SiteAvailabilityMailer mail : mails) {
+            digest = digest == null ? mail : new SiteAvailabilityMailer(mail.getFromAddress(), mail.getToAddress(),
+                    union(digest.getAvailableSites(), mail.getAvailableSites()),
+                    union(digest.getTakenSites(), mail.getTakenSites()));
+        }
+        return digest;
+    }
+
+    private static List<Site> union(Collection<Site> sites, Collection<Site> other) {
+        final SiteAccumulator merged = new SiteAccumulator();
+        merged.addAll(sites);
+        merged.addAll(other);
+        return new ArrayList<>(merged.toSortedSet());
+    }
+
+    private static List<Site> subtract(Collection<Site> sites, Collection<Site> other) {
+        return AvailabilityDiff.between(AvailabilitySnapshot.of(other), AvailabilitySnapshot.of(sites)).getOpened();
+    }
+
+    /**
+     * What a mail tells: its available and taken sites with their links and dates, compared without rendering.
+     */
+    private static class Content {
+        private final List<Site> availableSites;
+        private final List<Site> takenSites;
+
+        private Content(SiteAvailabilityMailer mail) {
+            this.availableSites = sorted(mail.getAvailableSites());
+            this.takenSites = sorted(mail.getTakenSites());
+        }
+
+        private static List<Site> sorted(Collection<Site> sites) {
+            final List<Site> result = new ArrayList<>(sites);
+            Collections.sort(result);
+            return result;
+        }
+
+        private static boolean sameSites(List<Site> sites, List<Site> other) {
+            if (sites.size() != other.size()) {
+                return false;
+            }
+            for (int i = 0; i < sites.size(); i++) {
+                final Site site = sites.get(i);
+                final Site otherSite = other.get(i);
+                if (!site.equals(otherSite) || !Objects.equals(site.getSiteLink(), otherSite.getSiteLink()) ||
+                        !site.getAvailability().equals(otherSite.getAvailability())) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            Content other = (Content) o;
+            return sameSites(availableSites, other.availableSites) && sameSites(takenSites, other.takenSites);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * availableSites.hashCode() + takenSites.hashCode();
+        }
+    }
+
+    private void send(SiteAvailabilityMailer mail, long scanStartNanos) {
+        for (int attempt = 1; ; attempt++) {
+            final long startNanos = System.nanoTime();
+            try {
+                final MimeMessage message = mail.createMessage(session, renderer);
+                sendMessage(message, mail.getToAddress());
+                Metrics.DETECTION_LATENCY.recordSince(scanStartNanos);
+                System.out.println("Notification sent to " + Arrays.toString(mail.getToAddress()));
+                return;
+            } catch (MessagingException e) {
+                disconnect();
+                final boolean permanent = isPermanent(e);
+                if (permanent || attempt >= maxAttempts) {
+                    Metrics.MAIL_SEND_FAILURES.increment();
+                    synchronized (System.err) {
+                        System.err.println("Failed to send notification to " + Arrays.toString(mail.getToAddress()) +
+                                (permanent ? "" : " after " + attempt + " attempt(s)") + ": " + e);
+                    }
+                    return;
+                }
+                Metrics.MAIL_RETRIES.increment();
+                final long delayMillis = retryDelayMillis << (attempt - 1);
+                synchronized (System.err) {
+                    System.err.println("Failed to send notification, retrying in " + delayMillis + " ms: " + e);
+                }
+                if (!closing) {
+                    try {
+                        Thread.sleep(delayMillis);
+                    } catch (InterruptedException ignored) { // closing, retry right away
+                    }
+                }
+            } catch (RuntimeException e) { // keep dispatcher alive for other mails
+                disconnect();
+                Metrics.MAIL_SEND_FAILURES.increment();
+                synchronized (System.err) {
+                    System.err.println("Failed to send notification to " + Arrays.toString(mail.getToAddress()));
+                    e.printStackTrace();
+                }
+                return;
+            } finally {
+                Metrics.MAIL_SEND.recordSince(startNanos);
+            }
+        }
+    }
+
+    /**
+     * Sends over the open connection, reconnecting if the server has dropped it.
+     */
+    private void sendMessage(MimeMessage message, Address[] recipients) throws MessagingException {
+        if (transport == null || !transport.isConnected()) {
+            disconnect();
+            transport = session.getTransport(recipients[0]);
+            transport.connect();
+        }
+        transport.sendMessage(message, recipients);
+    }
+
+    private void disconnect() {
+        if (transport != null) {
+            try {
+                transport.close();
+            } catch (MessagingException ignored) { // connection already broken
+            }
+            transport = null;
+        }
+    }
+
+    /**
+     * @return true for failures retrying won't help with: misconfigured transport, rejected credentials
+     * or no valid recipient
+     */
+    private static boolean isPermanent(MessagingException e) {
+        if (e instanceof NoSuchProviderException || e instanceof AuthenticationFailedException) {
+            return true;
+        }
+        if (e instanceof SendFailedException) {
+            final Address[] validUnsent = ((SendFailedException) e).getValidUnsentAddresses();
+            return validUnsent == null || validUnsent.length == 0;
+        }
+        return false;
+    }
+
+    /**
+     * Sends whatever is queued without waiting for more, then closes the connection.
+     */
+    @Override
+    public void close() {
+        closing = true;
+        thread.interrupt();
+        try {
+            thread.join(CLOSE_TIMEOUT_MILLIS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static class Notification {
+        private final String profileName;
+        private final SiteAvailabilityMailer mail;
+        private final long scanStartNanos;
+
+        private Notification(String profileName, SiteAvailabilityMailer mail, long scanStartNanos) {
+            this.profileName = profileName;
+            this.mail = mail;
+            this.scanStartNanos = scanStartNanos;
+        }
+    }
+}
@@ -0,0 +1,222 @@
+package com.essheva.assateague;
+
+import java.time.LocalDate;
+import java.time.Month;
+import java.time.Year;
+import java.util.Collection;
+
+/**
+ * Renders notification mail bodies from constant template fragments straight into one reusable buffer.
+ * Dates are written field by field without formatting objects, links are cut without regular expressions.
+ * <p>
+ * Tables list at most 'mail.inline.max.sites' sites each; when there are more, the body says so and the full
+ * result goes to a CSV attachment with one row per site and date. Not thread safe, one renderer per thread.
+ */
+class MailRenderer {
+
+    private static final String[] DAY_NAMES = {"MON", "TUE", "WED", "THU", "FRI", "SAT", "SUN"};
+    private static final String LINK_HOST_PREFIX = "www.";
+    private static final int COLOR_STEP = 30;
+
+    private static final String CELL_STYLE = "<td style=\"border: 1px solid black;\">";
+    private static final String TABLE_START =
+            "<table style=\"border: 1px solid black;width:100%;border-collapse: collapse;\">" +
+            "<tr style=\"color: green\">" +
+            "<th>Site #</th>" +
+            "<th>Facility Area</th>" +
+            "<th>Available dates</th>" +
+            "</tr>";
+    private static final String ROW_START = "<tr>" + CELL_STYLE;
+    private static final String CELL_BREAK = "</td>" + CELL_STYLE;
+    private static final String ROW_END = "</td></tr>";
+    private static final String TABLE_END = "</table>";
+    private static final String CSV_HEADER = "status,loop,site,date,day,link\r\n";
+
+    private final int inlineLimit;
+    private final StringBuilder buffer = new StringBuilder(1 << 16);
+
+    MailRenderer(int inlineLimit) {
+        this.inlineLimit = inlineLimit;
+    }
+
+    /**
+     * @return true if some sites do not fit into the body and should be attached as CSV
+     */
+    boolean needsAttachment(Collection<Site> availableSites, Collection<Site> takenSites) {
+        return availableSites.size() > inlineLimit || takenSites.size() > inlineLimit;
+    }
+
+    String renderHtml(String subject, Collection<Site> availableSites, Collection<Site> takenSites) {
+        buffer.setLength(0);
+        buffer.append("<h4 class=\"green\">").append(subject).append("</h4 >");
+        if (availableSites.isEmpty()) {
+            buffer.append("<p>Nothing found</p>");
+        } else {
+            appendTable(availableSites);
+        }
+        if (!takenSites.isEmpty()) {
+            buffer.append("<h4>No longer available</h4 >");
+            appendTable(takenSites);
+        }
+        if (needsAttachment(availableSites, takenSites)) {
+            buffer.append("<p>Only first ").append(inlineLimit).
+                    append(" sites of each table are listed, see attached CSV for all of them.</p>");
+        }
+        return buffer.toString();
+    }
+
+    String renderText(String subject, Collection<Site> availableSites, Collection<Site> takenSites) {
+        buffer.setLength(0);
+        buffer.append(subject).append("\r\n\r\n");
+        if (availableSites.isEmpty()) {
+            buffer.append("Nothing found\r\n");
+        } else {
+            appendLines(availableSites);
+        }
+        if (!takenSites.isEmpty()) {
+            buffer.append("\r\nNo longer available\r\n\r\n");
+            appendLines(takenSites);
+        }
+        if (needsAttachment(availableSites, takenSites)) {
+            buffer.append("\r\nOnly first ").append(inlineLimit).
+                    append(" sites of each list are shown, see attached CSV for all of them.\r\n");
+        }
+        return buffer.toString();
+    }
+
+    String renderCsv(Collection<Site> availableSites, Collection<Site> takenSites) {
+        buffer.setLength(0);
+        buffer.append(CSV_HEADER);
+        appendCsvRows("available", availableSites);
+        appendCsvRows("taken", takenSites);
+        return buffer.toString();
+    }
+
+    private void appendTable(Collection<Site> sites) {
+        buffer.append(TABLE_START);
+        int rows = 0;
+        for (Site site : sites) {
+            if (rows++ == inlineLimit) {
+                break;
+            }
+            buffer.append(ROW_START);
+            if (site.getSiteLink() != null) {
+                buffer.append("<a href=\"");
+                appendLinkWithoutScheme(site.getSiteLink());
+                buffer.append("\">").append(site.getSiteName()).append("</a>");
+            } else {
+                buffer.append(site.getSiteName());
+            }
+            buffer.append(CELL_BREAK).append(site.getLoopName()).append(CELL_BREAK);
+            final int[] color = {0};
+            site.getAvailability().forEachRun((first, last) -> {
+                color[0] += COLOR_STEP;
+                buffer.append("<span style=\"background-color: rgb(").append(102 + color[0]).append(',').
+                        append(255 - color[0]).append(",204);\">");
+                appendDates(first, last, "; ", true);
+                buffer.append("</span>");
+            });
+            buffer.append(ROW_END);
+        }
+        buffer.append(TABLE_END);
+    }
+
+    private void appendLines(Collection<Site> sites) {
+        int rows = 0;
+        for (Site site : sites) {
+            if (rows++ == inlineLimit) {
+                break;
+            }
+            buffer.append("Site #").append(site.getSiteName()).append(" (").append(site.getLoopName()).append("):");
+            final int datesStart = buffer.length();
+            site.getAvailability().forEachRun((first, last) -> {
+                buffer.append(' ');
+                appendDates(first, last, ", ", false);
+                buffer.append(" |");
+            });
+            if (buffer.length() > datesStart) {
+                buffer.setLength(buffer.length() - 2);
+            }
+            if (site.getSiteLink() != null) {
+                buffer.append("\r\n    ").append(site.getSiteLink());
+            }
+            buffer.append("\r\n");
+        }
+    }
+
+    private void appendCsvRows(String status, Collection<Site> sites) {
+        for (Site site : sites) {
+            site.getAvailability().forEachRun((first, last) -> {
+                int dayOfWeek = first.getDayOfWeek().ordinal();
+                for (LocalDate date = first; ; ) {
+                    buffer.append(status).append(',');
+                    appendCsvValue(site.getLoopName());
+                    buffer.append(',');
+                    appendCsvValue(site.getSiteName());
+                    buffer.append(',').append(date).append(',').append(DAY_NAMES[dayOfWeek]).append(',');
+                    if (site.getSiteLink() != null) {
+                        appendCsvValue(site.getSiteLink());
+                    }
+                    buffer.append("\r\n");
+                    if (date.equals(last)) {
+                        break;
+                    }
+                    date = date.plusDays(1);
+                    dayOfWeek = (dayOfWeek + 1) % 7;
+                }
+            });
+        }
+    }
+
+    /**
+     * Appends "DOW  M/D" of every date in [first, last], each followed by the separator (in the table) or
+     * separated by it (in text), stepping month and day by hand instead of creating a date per day.
+     */
+    private void appendDates(LocalDate first, LocalDate last, String separator, boolean trailing) {
+        final long days = last.toEpochDay() - first.toEpochDay();
+        int dayOfWeek = first.getDayOfWeek().ordinal();
+        int year = first.getYear();
+        int month = first.getMonthValue();
+        int day = first.getDayOfMonth();
+        int monthLength = first.lengthOfMonth();
+        for (long i = 0; i <= days; i++) {
+            if (i > 0 && !trailing) {
+                buffer.append(separator);
+            }
+            buffer.append(DAY_NAMES[dayOfWeek]).append("  ").append(month).append('/').append(day);
+            if (trailing) {
+                buffer.append(separator);
+            }
+            dayOfWeek = (dayOfWeek + 1) % 7;
+            if (++day > monthLength) {
+                day = 1;
+                if (++month > 12) {
+                    month = 1;
+                    year++;
+                }
+                monthLength = Month.of(month).length(Year.isLeap(year));
+            }
+        }
+    }
+
+    private void appendLinkWithoutScheme(String link) {
+        final int host = link.indexOf(LINK_HOST_PREFIX);
+        buffer.append(link, host < 0 ? 0 : host + LINK_HOST_PREFIX.length(), link.length());
+    }
+
+    private void appendCsvValue(String value) {
+        if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0 && value.indexOf('\r') < 0) {
+            buffer.append(value);
+            return;
+        }
+        buffer.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            final char c = value.charAt(i);
+            buffer.append(c);
+            if (c == '"') {
+                buffer.append('"');
+            }
+        }
+        buffer.append('"');
+    }
+}
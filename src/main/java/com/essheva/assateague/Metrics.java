@@ -0,0 +1,250 @@
+package com.essheva.assateague;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.JMException;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.ObjectName;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Process wide scan counters and timers. Exposed through JMX as 'com.essheva.assateague:type=ScanMetrics'
+ * and written in Prometheus text format to 'metrics.file'.
+ */
+final class Metrics {
+
+    private static final String PREFIX = "assateague_";
+    private static final String OBJECT_NAME = "com.essheva.assateague:type=ScanMetrics";
+
+    private static final Map<String, Counter> counters = new ConcurrentSkipListMap<>();
+    private static final Map<String, Timer> timers = new ConcurrentSkipListMap<>();
+
+    static final Timer BROWSER_STARTUP = timer("browser_startup", "Chrome session startup");
+    static final Timer PAGE_LOAD = timer("page_load", "Calendar page load, on startup and on session reset");
+    static final Counter LOAD_MORE_CLICKS = counter("load_more_clicks", "Clicks on 'load more' button");
+    static final Timer LOAD_MORE_WAIT = timer("load_more_wait", "Waiting for all rows of a page to load");
+    static final Timer NAVIGATION_WAIT = timer("navigation_wait", "Waiting for another month to render");
+    static final Counter WEBDRIVER_COMMANDS = counter("webdriver_commands", "Commands sent to browsers");
+    static final Timer THROTTLE_WAIT = timer("throttle_wait", "Waiting for the site rate limit, concurrency limit or breaker");
+    static final Counter THROTTLE_DECREASES = counter("throttle_decreases", "Site concurrency limit halvings");
+    static final Counter THROTTLE_BREAKER_OPENS = counter("throttle_breaker_opens", "Scanning paused for failing requests");
+    static final Counter PAGES_PARSED = counter("pages_parsed", "Calendar pages parsed");
+    static final Counter DAYS_SKIPPED = counter("days_skipped", "Calendar days skipped by seeking past them");
+    static final Counter ROWS_PARSED = counter("rows_parsed", "Calendar rows of scanned loops parsed");
+    static final Timer LOOP_SCAN = timer("loop_scan", "Scan of one loop or (loop, month) unit");
+    static final Counter LOOP_SCAN_FAILURES = counter("loop_scan_failures", "Failed scans of a loop or unit");
+    static final Counter LOOP_SCAN_RETRIES = counter("loop_scan_retries", "Failed scans of a loop or unit retried");
+    static final Counter SITES_MATCHED = counter("sites_matched", "Sites matching search profiles");
+    static final Timer MAIL_SEND = timer("mail_send", "Sending one notification mail");
+    static final Counter MAIL_SEND_FAILURES = counter("mail_send_failures", "Notification mails given up on");
+    static final Counter MAIL_RETRIES = counter("mail_retries", "Notification mail attempts retried");
+    static final Timer DETECTION_LATENCY = timer("detection_latency",
+            "From start of the scan which found a change to its notification mail sent");
+
+    private Metrics() {
+    }
+
+    static Counter counter(String name, String help) {
+        return counters.computeIfAbsent(name, k -> new Counter(help));
+    }
+
+    static Timer timer(String name, String help) {
+        return timers.computeIfAbsent(name, k -> new Timer(help));
+    }
+
+    static void registerMBean() {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(new MetricsMBean(), new ObjectName(OBJECT_NAME));
+        } catch (JMException e) {
+            synchronized (System.err) {
+                System.err.println("Failed to register metrics MBean: " + e);
+            }
+        }
+    }
+
+    /**
+     * Writes all metrics to a temporary file and moves it over the old one, so that collectors
+     * never read a half written file.
+     */
+    static void writeTo(Path file) throws IOException {
+        final Path absolute = file.toAbsolutePath();
+        final Path tmp = absolute.resolveSibling(absolute.getFileName() + ".tmp");
+        try (BufferedWriter writer = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+            writePrometheus(writer);
+        }
+        Files.move(tmp, absolute, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    static void writePrometheus(Writer writer) throws IOException {
+        for (Map.Entry<String, Counter> entry : counters.entrySet()) {
+            final String name = PREFIX + entry.getKey() + "_total";
+            writer.write("# HELP " + name + " " + entry.getValue().help + "\n");
+            writer.write("# TYPE " + name + " counter\n");
+            writer.write(name + " " + entry.getValue().get() + "\n");
+        }
+        for (Map.Entry<String, Timer> entry : timers.entrySet()) {
+            final String name = PREFIX + entry.getKey() + "_seconds";
+            final Timer timer = entry.getValue();
+            writer.write("# HELP " + name + " " + timer.help + "\n");
+            writer.write("# TYPE " + name + " summary\n");
+            writer.write(name + "_count " + timer.getCount() + "\n");
+            writer.write(name + "_sum " + format(timer.getTotalSeconds()) + "\n");
+            writer.write("# TYPE " + name + "_max gauge\n");
+            writer.write(name + "_max " + format(timer.getMaxSeconds()) + "\n");
+        }
+    }
+
+    private static String format(double value) {
+        return String.format(Locale.ROOT, "%.6f", value);
+    }
+
+    static class Counter {
+        private final String help;
+        private final LongAdder value = new LongAdder();
+
+        private Counter(String help) {
+            this.help = help;
+        }
+
+        void increment() {
+            value.increment();
+        }
+
+        void add(long delta) {
+            value.add(delta);
+        }
+
+        long get() {
+            return value.sum();
+        }
+    }
+
+    static class Timer {
+        private final String help;
+        private final LongAdder count = new LongAdder();
+        private final LongAdder totalNanos = new LongAdder();
+        private final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
+
+        private Timer(String help) {
+            this.help = help;
+        }
+
+        /**
+         * @param startNanos {@link System#nanoTime()} taken when the timed phase started
+         */
+        void recordSince(long startNanos) {
+            record(System.nanoTime() - startNanos);
+        }
+
+        void record(long nanos) {
+            count.increment();
+            totalNanos.add(nanos);
+            maxNanos.accumulate(nanos);
+        }
+
+        long getCount() {
+            return count.sum();
+        }
+
+        double getTotalSeconds() {
+            return toSeconds(totalNanos.sum());
+        }
+
+        double getMaxSeconds() {
+            return toSeconds(maxNanos.get());
+        }
+
+        private static double toSeconds(long nanos) {
+            return nanos / (double) TimeUnit.SECONDS.toNanos(1);
+        }
+    }
+
+    /**
+     * Read only attributes: '&lt;counter&gt;' for counters and '&lt;timer&gt;Count', '&lt;timer&gt;TotalSeconds',
+     * '&lt;timer&gt;MaxSeconds' for timers.
+     */
+    private static class MetricsMBean implements DynamicMBean {
+
+        private static final String COUNT = "Count";
+        private static final String TOTAL_SECONDS = "TotalSeconds";
+        private static final String MAX_SECONDS = "MaxSeconds";
+
+        @Override
+        public Object getAttribute(String attribute) throws AttributeNotFoundException {
+            final Counter counter = counters.get(attribute);
+            if (counter != null) {
+                return counter.get();
+            }
+            for (Map.Entry<String, Timer> entry : timers.entrySet()) {
+                final String name = entry.getKey();
+                if (attribute.equals(name + COUNT)) {
+                    return entry.getValue().getCount();
+                } else if (attribute.equals(name + TOTAL_SECONDS)) {
+                    return entry.getValue().getTotalSeconds();
+                } else if (attribute.equals(name + MAX_SECONDS)) {
+                    return entry.getValue().getMaxSeconds();
+                }
+            }
+            throw new AttributeNotFoundException(attribute);
+        }
+
+        @Override
+        public AttributeList getAttributes(String[] attributes) {
+            final AttributeList result = new AttributeList();
+            for (String attribute : attributes) {
+                try {
+                    result.add(new Attribute(attribute, getAttribute(attribute)));
+                } catch (AttributeNotFoundException ignored) { // skipped as the contract allows
+                }
+            }
+            return result;
+        }
+
+        @Override
+        public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+            throw new AttributeNotFoundException("Metrics are read only: " + attribute.getName());
+        }
+
+        @Override
+        public AttributeList setAttributes(AttributeList attributes) {
+            return new AttributeList();
+        }
+
+        @Override
+        public Object invoke(String actionName, Object[] params, String[] signature) {
+            throw new UnsupportedOperationException(actionName);
+        }
+
+        @Override
+        public MBeanInfo getMBeanInfo() {
+            final List<MBeanAttributeInfo> attributes = new ArrayList<>();
+            counters.forEach((name, counter) -> attributes.add(
+                    new MBeanAttributeInfo(name, "long", counter.help, true, false, false)));
+            timers.forEach((name, timer) -> {
+                attributes.add(new MBeanAttributeInfo(name + COUNT, "long", timer.help, true, false, false));
+                attributes.add(new MBeanAttributeInfo(name + TOTAL_SECONDS, "double", timer.help, true, false, false));
+                attributes.add(new MBeanAttributeInfo(name + MAX_SECONDS, "double", timer.help, true, false, false));
+            });
+            return new MBeanInfo(getClass().getName(), "Assateague scan metrics",
+                    attributes.toArray(new MBeanAttributeInfo[0]), null, null, null);
+        }
+    }
+}
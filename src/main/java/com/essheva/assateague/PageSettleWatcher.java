@@ -0,0 +1,158 @@
+package com.essheva.assateague;
+
+import org.openqa.selenium.JavascriptExecutor;
+import org.openqa.selenium.TimeoutException;
+
+import java.util.Map;
+
+/**
+ * Waits for the calendar page to settle from inside the browser: a MutationObserver re-arms a
+ * 'settle.quiet.millis' timer on every DOM change once the awaited condition holds, so a wait returns
+ * as soon as the page stops changing instead of polling from WebDriver side.
+ * Each wait is bounded by 'settle.timeout.seconds': a navigation, and every single 'load more' click, so a loop
+ * needing many clicks is not failed for its size. A script clicks 'load more' once at most, so every click
+ * can be let through the site throttle on its own, and no script runs into the WebDriver script timeout.
+ */
+class PageSettleWatcher {
+
+    private static final String PAGE_KEY_FUNCTION =
+            "function pageKey() {" +
+            "  var title = document.querySelector('div.rec-month-availability-date-title');" +
+            "  var day = document.querySelector('#availability-table thead th span.date');" +
+            "  return (title ? title.textContent.trim() : '') + '|' + (day ? day.textContent.trim() : '');" +
+            "}";
+
+    private static final String SETTLE_SCRIPT_PART = PAGE_KEY_FUNCTION +
+            "var done = arguments[arguments.length - 1];" +
+            "var quietMillis = arguments[0], timeoutMillis = arguments[1];" +
+            "var start = Date.now();" +
+            "function rowCount() {" +
+            "  return document.querySelectorAll('#availability-table tbody>tr').length;" +
+            "}" +
+            "function result(clicks, timedOut) {" +
+            "  return {rows: rowCount(), clicks: clicks, waited: Date.now() - start, timedOut: timedOut," +
+            "      more: document.querySelector('button.load-more-btn') !== null};" +
+            "}" +
+            "function settle(condition, callback) {" +
+            "  var timer = null, finished = false;" +
+            "  var observer = new MutationObserver(function() { if (condition()) arm(); });" +
+            "  var guard = setTimeout(function() { finish(true); }, timeoutMillis);" +
+            "  function finish(timedOut) {" +
+            "    if (finished) return;" +
+            "    finished = true;" +
+            "    observer.disconnect();" +
+            "    clearTimeout(timer);" +
+            "    clearTimeout(guard);" +
+            "    callback(timedOut);" +
+            "  }" +
+            "  function arm() {" +
+            "    clearTimeout(timer);" +
+            "    timer = setTimeout(function() { finish(false); }, quietMillis);" +
+            "  }" +
+            "  observer.observe(document.body, {childList: true, subtree: true, attributes: true, characterData: true});" +
+            "  if (condition()) arm();" +
+            "}";
+
+    private static final String LOAD_MORE_SCRIPT = SETTLE_SCRIPT_PART +
+            "var button = document.querySelector('button.load-more-btn');" +
+            "if (!button) {" +
+            "  done(result(0, false));" +
+            "} else {" +
+            "  var before = rowCount();" +
+            "  button.scrollIntoView();" +
+            "  button.click();" +
+            "  settle(function() {" +
+            "    return rowCount() > before || !document.querySelector('button.load-more-btn');" +
+            "  }, function(timedOut) { done(result(1, timedOut)); });" +
+            "}";
+
+    private static final String NAVIGATION_SCRIPT = SETTLE_SCRIPT_PART +
+            "var previousKey = arguments[2];" +
+            "settle(function() {" +
+            "  return rowCount() > 0 && (previousKey === null || pageKey() !== previousKey);" +
+            "}, function(timedOut) { done(result(0, timedOut)); });";
+
+    private static final String PAGE_KEY_SCRIPT = PAGE_KEY_FUNCTION + "return pageKey();";
+
+    private final JavascriptExecutor executor;
+    private final long quietMillis;
+    private final long timeoutMillis;
+
+    /**
+     * @param timeoutMillis longest wait for the page to settle after a navigation or a single click
+     */
+    PageSettleWatcher(JavascriptExecutor executor, long quietMillis, long timeoutMillis) {
+        this.executor = executor;
+        this.quietMillis = quietMillis;
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    /**
+     * Clicks 'load more' once if the page shows it and waits until new rows have rendered.
+     */
+    Settle loadMore() {
+        return settle(run("load more rows", LOAD_MORE_SCRIPT, null));
+    }
+
+    /**
+     * @return identity of the page shown (month title and first day), to wait for navigation away from it
+     */
+    String pageKey() {
+        return String.valueOf(executor.executeScript(PAGE_KEY_SCRIPT));
+    }
+
+    /**
+     * Waits until a page different from the one with the given key, or any page if the key is null, has rendered.
+     */
+    Settle awaitNavigation(String previousKey) {
+        return settle(run("navigate", NAVIGATION_SCRIPT, previousKey));
+    }
+
+    private static Settle settle(Map<String, Object> raw) {
+        return new Settle(((Number) raw.get("rows")).intValue(), ((Number) raw.get("clicks")).intValue(),
+                ((Number) raw.get("waited")).longValue(), Boolean.TRUE.equals(raw.get("more")));
+    }
+
+    @SuppressWarnings("unchecked")
+    private Map<String, Object> run(String action, String script, String previousKey) {
+        final Map<String, Object> raw = (Map<String, Object>) executor.executeAsyncScript(script,
+                quietMillis, timeoutMillis, previousKey);
+        if (Boolean.TRUE.equals(raw.get("timedOut"))) {
+            throw new TimeoutException("Page did not settle in " + timeoutMillis + " ms to " + action);
+        }
+        return raw;
+    }
+
+    static class Settle {
+        private final int rowCount;
+        private final int clicks;
+        private final long waitedMillis;
+        private final boolean moreRows;
+
+        Settle(int rowCount, int clicks, long waitedMillis, boolean moreRows) {
+            this.rowCount = rowCount;
+            this.clicks = clicks;
+            this.waitedMillis = waitedMillis;
+            this.moreRows = moreRows;
+        }
+
+        int getRowCount() {
+            return rowCount;
+        }
+
+        int getClicks() {
+            return clicks;
+        }
+
+        long getWaitedMillis() {
+            return waitedMillis;
+        }
+
+        /**
+         * @return true if the page still shows 'load more'
+         */
+        boolean hasMoreRows() {
+            return moreRows;
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package com.essheva.assateague;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Matches raw availability of one scan against many search profiles. Profiles are indexed by camp group,
+ * so a site is only checked against profiles watching its loop, and profiles sharing the same date
+ * criteria are filtered once and share the result.
+ */
+class ProfileMatcher {
+
+    private final List<SearchProfile> profiles;
+    private final Map<String, List<CriteriaGroup>> groupsByLoop = new HashMap<>();
+
+    ProfileMatcher(List<SearchProfile> profiles) {
+        this.profiles = profiles;
+        final Map<String, Map<List<Object>, CriteriaGroup>> index = new HashMap<>();
+        for (SearchProfile profile : profiles) {
+            for (String loopName : profile.getCampGroups()) {
+                index.computeIfAbsent(loopName, k -> new LinkedHashMap<>()).
+                        computeIfAbsent(profile.getDateCriteria(), k -> new CriteriaGroup(profile)).
+                        profiles.add(profile);
+            }
+        }
+        index.forEach((loopName, groups) -> groupsByLoop.put(loopName, new ArrayList<>(groups.values())));
+    }
+
+    /**
+     * @return sites with matching dates per profile, every profile present even without matches
+     */
+    Map<SearchProfile, List<Site>> match(Collection<Site> rawSites) {
+        final Map<SearchProfile, List<Site>> result = new LinkedHashMap<>();
+        profiles.forEach(profile -> result.put(profile, new ArrayList<>()));
+
+        for (Site site : rawSites) {
+            final List<CriteriaGroup> groups = groupsByLoop.get(site.getLoopName());
+            if (groups == null) {
+                continue;
+            }
+            for (CriteriaGroup group : groups) {
+                final DateBitSet dates = group.filter.apply(site.getAvailability());
+                if (!dates.isEmpty()) {
+                    final Site matched = new Site(site.getSiteName(), site.getLoopName());
+                    matched.setSiteLink(site.getSiteLink());
+                    matched.addAvailableDates(dates);
+                    group.profiles.forEach(profile -> result.get(profile).add(matched));
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return dates within [from, to] which fall within the period and on the days of week of any profile
+     * watching the loop; availability of other dates can never match
+     */
+    DateBitSet getWantedDates(String loopName, LocalDate from, LocalDate to) {
+        final DateBitSet period = new DateBitSet();
+        for (LocalDate date = from; !date.isAfter(to); date = date.plusDays(1)) {
+            period.add(date);
+        }
+        final DateBitSet wanted = new DateBitSet();
+        for (CriteriaGroup group : groupsByLoop.getOrDefault(loopName, Collections.emptyList())) {
+            wanted.addAll(period.clip(group.criteria.getSearchStart(), group.criteria.getSearchStop()).
+                    maskDaysOfWeek(group.criteria.getDaysOfWeek()));
+        }
+        return wanted;
+    }
+
+    private static class CriteriaGroup {
+        private final SearchProfile criteria;
+        private final AvailabilityFilter filter;
+        private final List<SearchProfile> profiles = new ArrayList<>();
+
+        private CriteriaGroup(SearchProfile criteria) {
+            this.criteria = criteria;
+            this.filter = new AvailabilityFilter(criteria);
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package com.essheva.assateague;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Feeds calendar pages recorded by earlier live scans through the same parsing and filtering as the
+ * browser does, offline and at full CPU speed. Pages are read from 'recording.dir' once per loop and kept in memory.
+ */
+public class ReplayAvailabilitySource implements AvailabilitySource {
+
+    private final CalendarRecording recording;
+    private final Map<String, List<CalendarPage>> pagesByLoop = new ConcurrentHashMap<>();
+
+    ReplayAvailabilitySource(Configuration conf) {
+        this.recording = new CalendarRecording(Paths.get(conf.getRecordingDir()));
+    }
+
+    @Override
+    public Set<Site> getAvailableSites(Configuration conf, String loopName, LocalDate from, LocalDate to)
+            throws IOException {
+        final String pageLoopName = conf.getCampground(loopName).getPageLoopName(loopName);
+        List<CalendarPage> pages = pagesByLoop.get(loopName);
+        if (pages == null) {
+            pages = recording.load(loopName);
+            if (pages.isEmpty()) {
+                throw new IOException("No recorded pages of '" + loopName + "'");
+            }
+            pagesByLoop.put(loopName, pages);
+        }
+
+        final long startNanos = System.nanoTime();
+        final SiteAccumulator result = new SiteAccumulator();
+        for (CalendarPage page : pages) {
+            final LocalDate lastDate = page.getHeader().getLastDate();
+            if (lastDate != null && lastDate.isBefore(from)) {
+                continue;
+            }
+            page.collectAvailableSites(loopName, pageLoopName, from, to, result);
+        }
+        synchronized (System.out) {
+            System.out.println(String.format("Replayed %d pages of '%s' in %d us.",
+                    pages.size(), loopName, (System.nanoTime() - startNanos) / 1000));
+        }
+        return result.toSortedSet();
+    }
+
+    @Override
+    public void close() {
+        pagesByLoop.clear();
+    }
+}
@@ -0,0 +1,291 @@
+package com.essheva.assateague;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.Collection;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+/**
+ * Progress of loop scans kept per calendar window, so a scan failing deep into the season is resumed by
+ * a retry or the next run from the first window not scanned yet instead of from the start.
+ * <p>
+ * Every scan in progress has a file of its own in 'checkpoint.dir', so scans running at once never write the
+ * same file. It is tab separated text: a 'scan' line with loop and period, then per scanned window the 'site'
+ * lines with sites found on it followed by a 'window' line with the last date scanned and save time. Windows
+ * are appended, and lines after the last 'window' line, left by a crash while appending, are ignored.
+ * Progress older than 'checkpoint.max.age.minutes' is not resumed.
+ */
+class ScanCheckpoint {
+
+    private static final char FIELD_SEPARATOR = '\t';
+    private static final String DATES_SEPARATOR = ",";
+    private static final String SCAN = "scan";
+    private static final String WINDOW = "window";
+    private static final String SITE = "site";
+    private static final String SUFFIX = ".checkpoint";
+
+    private final Path dir;
+    private final long maxAgeMillis;
+    private final Map<String, Progress> progressByScan = new ConcurrentHashMap<>();
+
+    /**
+     * @param dir where progress is kept, null to keep it in memory only
+     */
+    ScanCheckpoint(Path dir, long maxAgeMillis) {
+        this.dir = dir;
+        this.maxAgeMillis = maxAgeMillis;
+        if (dir != null) {
+            try {
+                Files.createDirectories(dir);
+                deleteExpired();
+            } catch (IOException e) {
+                synchronized (System.err) {
+                    System.err.println("Failed to prepare scan checkpoint directory " + dir + ": " + e);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return progress of an earlier attempt of the scan which may be resumed, or a fresh one
+     */
+    Progress resume(String loopName, LocalDate from, LocalDate to) {
+        final String key = key(loopName, from, to);
+        Progress previous = progressByScan.get(key);
+        final boolean loaded = previous == null && dir != null;
+        if (loaded) {
+            previous = load(loopName, from, to);
+        }
+        if (previous != null && previous.scannedThrough != null &&
+                System.currentTimeMillis() - previous.savedAt <= maxAgeMillis) {
+            synchronized (System.out) {
+                System.out.println(String.format("Resuming scan of '%s' after %s.", loopName, previous.scannedThrough));
+            }
+            progressByScan.put(key, previous);
+            if (loaded) {
+                rewrite(previous); // drops what a crash may have left after the last window
+            }
+            return previous;
+        }
+        final Progress progress = new Progress(loopName, from, to);
+        progressByScan.put(key, progress);
+        delete(progress);
+        return progress;
+    }
+
+    /**
+     * Adds sites of a scanned calendar window ending at the date and appends them to the scan's file.
+     */
+    void completeWindow(Progress progress, LocalDate lastDate, Collection<Site> sites) {
+        synchronized (progress) {
+            progress.sites.addAll(sites);
+            progress.scannedThrough = lastDate;
+            progress.savedAt = System.currentTimeMillis();
+            if (dir == null) {
+                return;
+            }
+            final Path file = file(progress);
+            try (BufferedWriter writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8,
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+                if (Files.size(file) == 0) {
+                    writeScan(writer, progress);
+                }
+                writeSites(writer, sites);
+                writeWindow(writer, progress);
+            } catch (IOException e) {
+                synchronized (System.err) {
+                    System.err.println("Failed to save scan checkpoint " + file + ": " + e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Drops the progress of a completed scan.
+     *
+     * @return all sites found by the scan, including the ones of resumed attempts
+     */
+    NavigableSet<Site> finish(Progress progress) {
+        progressByScan.remove(key(progress.loopName, progress.from, progress.to), progress);
+        delete(progress);
+        return progress.sites.toSortedSet();
+    }
+
+    /**
+     * @return progress saved in the scan's file up to its last complete window, null if there is none
+     */
+    private Progress load(String loopName, LocalDate from, LocalDate to) {
+        final Path file = file(loopName, from, to);
+        if (!Files.exists(file)) {
+            return null;
+        }
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            final String scan = reader.readLine();
+            if (scan == null || !scan.equals(SCAN + FIELD_SEPARATOR + key(loopName, from, to))) {
+                throw new IOException("Not a checkpoint of this scan");
+            }
+            final Progress progress = new Progress(loopName, from, to);
+            SiteAccumulator pending = new SiteAccumulator();
+            String line;
+            while ((line = reader.readLine()) != null) {
+                final String[] fields = line.split(String.valueOf(FIELD_SEPARATOR), -1);
+                try {
+                    if (fields[0].equals(SITE) && fields.length == 4) {
+                        final DateBitSet dates = new DateBitSet();
+                        for (String date : fields[3].split(DATES_SEPARATOR)) {
+                            if (!date.isEmpty()) {
+                                dates.add(LocalDate.parse(date));
+                            }
+                        }
+                        pending.add(loopName, fields[1], fields[2].isEmpty() ? null : fields[2], dates);
+                    } else if (fields[0].equals(WINDOW) && fields.length == 3) {
+                        final LocalDate scannedThrough = LocalDate.parse(fields[1]);
+                        progress.savedAt = Long.parseLong(fields[2]);
+                        progress.scannedThrough = scannedThrough;
+                        progress.sites.addAll(pending.toSortedSet());
+                        pending = new SiteAccumulator();
+                    } else {
+                        break; // torn by a crash while appending
+                    }
+                } catch (RuntimeException e) {
+                    break;
+                }
+            }
+            return progress;
+        } catch (IOException | RuntimeException e) {
+            synchronized (System.err) {
+                System.err.println("Failed to read scan checkpoint " + file + ", scan starts from scratch: " + e);
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Writes the progress to a temporary file first and moves it over the scan's file, so a crash never leaves
+     * a half written checkpoint behind. Failing to save only costs resuming, so it does not fail the scan.
+     */
+    private void rewrite(Progress progress) {
+        if (dir == null) {
+            return;
+        }
+        synchronized (progress) {
+            final Path file = file(progress);
+            final Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+            try {
+                try (BufferedWriter writer = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+                    writeScan(writer, progress);
+                    writeSites(writer, progress.sites.toSortedSet());
+                    writeWindow(writer, progress);
+                }
+                Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException e) {
+                synchronized (System.err) {
+                    System.err.println("Failed to save scan checkpoint " + file + ": " + e);
+                }
+            }
+        }
+    }
+
+    private void delete(Progress progress) {
+        if (dir == null) {
+            return;
+        }
+        final Path file = file(progress);
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            synchronized (System.err) {
+                System.err.println("Failed to delete scan checkpoint " + file + ": " + e);
+            }
+        }
+    }
+
+    /**
+     * Deletes files of scans which were never resumed, e.g. because their period changed.
+     */
+    private void deleteExpired() throws IOException {
+        final long oldest = System.currentTimeMillis() - maxAgeMillis;
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, "*" + SUFFIX)) {
+            for (Path file : files) {
+                if (Files.getLastModifiedTime(file).toMillis() < oldest) {
+                    Files.deleteIfExists(file);
+                }
+            }
+        }
+    }
+
+    private static void writeScan(BufferedWriter writer, Progress progress) throws IOException {
+        writer.write(SCAN + FIELD_SEPARATOR + key(progress.loopName, progress.from, progress.to));
+        writer.newLine();
+    }
+
+    private static void writeSites(BufferedWriter writer, Collection<Site> sites) throws IOException {
+        for (Site site : sites) {
+            writer.write(SITE + FIELD_SEPARATOR + site.getSiteName() + FIELD_SEPARATOR +
+                    (site.getSiteLink() == null ? "" : site.getSiteLink()) + FIELD_SEPARATOR +
+                    site.getAvailability().stream().map(LocalDate::toString).
+                            collect(Collectors.joining(DATES_SEPARATOR)));
+            writer.newLine();
+        }
+    }
+
+    private static void writeWindow(BufferedWriter writer, Progress progress) throws IOException {
+        writer.write(WINDOW + FIELD_SEPARATOR + progress.scannedThrough + FIELD_SEPARATOR + progress.savedAt);
+        writer.newLine();
+    }
+
+    private Path file(Progress progress) {
+        return file(progress.loopName, progress.from, progress.to);
+    }
+
+    private Path file(String loopName, LocalDate from, LocalDate to) {
+        try {
+            return dir.resolve(URLEncoder.encode(loopName, StandardCharsets.UTF_8.name()) + '_' + from + '_' + to +
+                    SUFFIX);
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String key(String loopName, LocalDate from, LocalDate to) {
+        return loopName + FIELD_SEPARATOR + from + FIELD_SEPARATOR + to;
+    }
+
+    /**
+     * Sites found by a loop scan over [from, to] so far and the last date scanned.
+     */
+    static class Progress {
+        private final String loopName;
+        private final LocalDate from;
+        private final LocalDate to;
+        private final SiteAccumulator sites = new SiteAccumulator();
+        private volatile LocalDate scannedThrough;
+        private volatile long savedAt;
+
+        private Progress(String loopName, LocalDate from, LocalDate to) {
+            this.loopName = loopName;
+            this.from = from;
+            this.to = to;
+        }
+
+        /**
+         * @return last date of the last window scanned, null if none was
+         */
+        LocalDate getScannedThrough() {
+            return scannedThrough;
+        }
+    }
+}
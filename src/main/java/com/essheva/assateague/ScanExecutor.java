@@ -0,0 +1,178 @@
+package com.essheva.assateague;
+
+import java.io.IOException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+
+/**
+ * Runs loop or unit scans of one cycle on 'scan.concurrency' dedicated threads. A scan running longer than
+ * 'scan.timeout.minutes' is cancelled and its session aborted through {@link AvailabilitySource#abort(Thread)},
+ * a failed scan is retried up to 'scan.retries' times, results are handed over as soon as each scan completes,
+ * and closing the executor cancels the whole cycle.
+ */
+class ScanExecutor implements AutoCloseable {
+
+    private static final long POLL_MILLIS = 1000;
+
+    private final AvailabilitySource source;
+    private final long timeoutNanos;
+    private final int retries;
+    private final ExecutorService executor;
+
+    ScanExecutor(Configuration conf, AvailabilitySource source) {
+        this.source = source;
+        this.timeoutNanos = TimeUnit.MINUTES.toNanos(conf.getScanTimeoutMinutes());
+        this.retries = conf.getScanRetries();
+        final AtomicInteger threadCount = new AtomicInteger();
+        this.executor = Executors.newFixedThreadPool(conf.getScanConcurrency(), r -> {
+            final Thread thread = new Thread(r, "loop-scan-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Scans the loops within [from, to] and passes sites found by each loop to the consumer,
+     * in the calling thread, in order of completion.
+     *
+     * @param conf configuration snapshot of the cycle
+     * @return loops whose scan failed, timed out or was cancelled
+     */
+    Set<String> scan(Configuration conf, Collection<String> loops, LocalDate from, LocalDate to,
+                     Consumer<Set<Site>> consumer) throws InterruptedException {
+        final List<ScanUnit> units = loops.stream().map(loop -> new ScanUnit(loop, from, to)).collect(Collectors.toList());
+        return scanUnits(conf, units, (unit, sites) -> consumer.accept(sites)).stream().
+                map(ScanUnit::getLoopName).
+                collect(Collectors.toCollection(TreeSet::new));
+    }
+
+    /**
+     * Scans the units and passes sites found by each unit to the consumer, in the calling thread, in order of completion.
+     *
+     * @return units whose scan failed, timed out or was cancelled
+     */
+    List<ScanUnit> scanUnits(Configuration conf, Collection<ScanUnit> units,
+                             BiConsumer<ScanUnit, Set<Site>> consumer) throws InterruptedException {
+        final CompletionService<Set<Site>> completion = new ExecutorCompletionService<>(executor);
+        final Map<Future<Set<Site>>, LoopScan> scans = new HashMap<>();
+        for (ScanUnit unit : units) {
+            final LoopScan scan = new LoopScan(conf, unit, 0);
+            scans.put(completion.submit(scan), scan);
+        }
+
+        final List<ScanUnit> failedUnits = new ArrayList<>();
+        try {
+            while (!scans.isEmpty()) {
+                final Future<Set<Site>> done = completion.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+                if (done == null) {
+                    if (executor.isShutdown()) {
+                        throw new InterruptedException("Scan cycle cancelled");
+                    }
+                    cancelOverdue(scans);
+                    continue;
+                }
+                final LoopScan scan = scans.remove(done);
+                try {
+                    consumer.accept(scan.unit, done.get());
+                } catch (CancellationException e) {
+                    failedUnits.add(scan.unit);
+                } catch (ExecutionException e) {
+                    Metrics.LOOP_SCAN_FAILURES.increment();
+                    final boolean retry = scan.retry < retries && !executor.isShutdown();
+                    synchronized (System.err) {
+                        System.err.println("Scan of " + scan.unit + " failed" + (retry ? ", retrying" : "") + ": " +
+                                e.getCause());
+                    }
+                    if (retry) {
+                        Metrics.LOOP_SCAN_RETRIES.increment();
+                        final LoopScan next = new LoopScan(scan.conf, scan.unit, scan.retry + 1);
+                        scans.put(completion.submit(next), next);
+                    } else {
+                        failedUnits.add(scan.unit);
+                    }
+                }
+            }
+        } finally {
+            scans.forEach((future, scan) -> {
+                failedUnits.add(scan.unit);
+                cancel(future, scan);
+            });
+        }
+        return failedUnits;
+    }
+
+    private void cancelOverdue(Map<Future<Set<Site>>, LoopScan> scans) {
+        final long now = System.nanoTime();
+        scans.forEach((future, scan) -> {
+            final long startNanos = scan.startNanos;
+            if (startNanos != 0 && now - startNanos > timeoutNanos && !future.isDone()) {
+                Metrics.LOOP_SCAN_FAILURES.increment();
+                synchronized (System.err) {
+                    System.err.println("Scan of " + scan.unit + " exceeded its deadline, cancelling it.");
+                }
+                cancel(future, scan);
+            }
+        });
+    }
+
+    private void cancel(Future<Set<Site>> future, LoopScan scan) {
+        final Thread runner = scan.runner;
+        future.cancel(true);
+        if (runner != null) {
+            source.abort(runner);
+        }
+    }
+
+    /**
+     * Cancels the running cycle, if any; threads blocked in a scan are interrupted.
+     */
+    @Override
+    public void close() {
+        executor.shutdownNow();
+    }
+
+    private class LoopScan implements Callable<Set<Site>> {
+        private final Configuration conf;
+        private final ScanUnit unit;
+        private final int retry;
+        private volatile long startNanos;
+        private volatile Thread runner;
+
+        private LoopScan(Configuration conf, ScanUnit unit, int retry) {
+            this.conf = conf;
+            this.unit = unit;
+            this.retry = retry;
+        }
+
+        @Override
+        public Set<Site> call() throws IOException, InterruptedException {
+            runner = Thread.currentThread();
+            startNanos = System.nanoTime();
+            try {
+                return source.getAvailableSites(conf, unit.getLoopName(), unit.getFrom(), unit.getTo());
+            } finally {
+                runner = null;
+                Metrics.LOOP_SCAN.recordSince(startNanos);
+            }
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package com.essheva.assateague;
+
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Part of the search scanned and scheduled on its own: one loop within one calendar month,
+ * clipped to the search period.
+ */
+class ScanUnit {
+
+    private final String loopName;
+    private final LocalDate from;
+    private final LocalDate to;
+
+    ScanUnit(String loopName, LocalDate from, LocalDate to) {
+        this.loopName = loopName;
+        this.from = from;
+        this.to = to;
+    }
+
+    /**
+     * @return (loop, month) units covering all camp groups over the whole search period
+     */
+    static List<ScanUnit> plan(Configuration conf) {
+        final List<ScanUnit> units = new ArrayList<>();
+        final YearMonth last = YearMonth.from(conf.getSearchStop());
+        for (String loopName : conf.getCampGroups()) {
+            YearMonth month = YearMonth.from(conf.getSearchStart());
+            for (; !month.isAfter(last); month = month.plusMonths(1)) {
+                final LocalDate from = month.atDay(1).isBefore(conf.getSearchStart()) ?
+                        conf.getSearchStart() : month.atDay(1);
+                final LocalDate to = month.atEndOfMonth().isAfter(conf.getSearchStop()) ?
+                        conf.getSearchStop() : month.atEndOfMonth();
+                units.add(new ScanUnit(loopName, from, to));
+            }
+        }
+        return units;
+    }
+
+    String getLoopName() {
+        return loopName;
+    }
+
+    LocalDate getFrom() {
+        return from;
+    }
+
+    LocalDate getTo() {
+        return to;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        ScanUnit unit = (ScanUnit) o;
+        return loopName.equals(unit.loopName) && from.equals(unit.from) && to.equals(unit.to);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(loopName, from, to);
+    }
+
+    @Override
+    public String toString() {
+        return "'" + loopName + "' " + from + ".." + to;
+    }
+}
@@ -0,0 +1,92 @@
+package com.essheva.assateague;
+
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * One set of search criteria with its own mail recipients. Several profiles are matched
+ * against the same scan results.
+ */
+class SearchProfile {
+
+    private final String name;
+    private final Set<String> campGroups;
+    private final Set<DayOfWeek> daysOfWeek;
+    private final LocalDate searchStart;
+    private final LocalDate searchStop;
+    private final int minLength;
+    private final String recipients;
+
+    SearchProfile(String name, Set<String> campGroups, Set<DayOfWeek> daysOfWeek,
+                  LocalDate searchStart, LocalDate searchStop, int minLength, String recipients) {
+        this.name = name;
+        this.campGroups = campGroups;
+        this.daysOfWeek = daysOfWeek.isEmpty() ? EnumSet.noneOf(DayOfWeek.class) : EnumSet.copyOf(daysOfWeek);
+        this.searchStart = searchStart;
+        this.searchStop = searchStop;
+        this.minLength = minLength;
+        this.recipients = recipients;
+    }
+
+    String getName() {
+        return name;
+    }
+
+    Set<String> getCampGroups() {
+        return campGroups;
+    }
+
+    /**
+     * @return the same profile searching the given camp groups
+     */
+    SearchProfile withCampGroups(Set<String> campGroups) {
+        return new SearchProfile(name, campGroups, daysOfWeek, searchStart, searchStop, minLength, recipients);
+    }
+
+    Set<DayOfWeek> getDaysOfWeek() {
+        return daysOfWeek;
+    }
+
+    LocalDate getSearchStart() {
+        return searchStart;
+    }
+
+    LocalDate getSearchStop() {
+        return searchStop;
+    }
+
+    int getMinLength() {
+        return minLength;
+    }
+
+    /**
+     * @return recipients separated by ';' or null to use 'mail.to' of user.secret
+     */
+    String getRecipients() {
+        return recipients;
+    }
+
+    /**
+     * @return key equal for profiles which select the same dates out of the same availability
+     */
+    List<Object> getDateCriteria() {
+        return Arrays.asList(daysOfWeek, searchStart, searchStop, minLength);
+    }
+
+    @Override
+    public String toString() {
+        return "SearchProfile{" +
+                "name='" + name + '\'' +
+                ", campGroups=" + campGroups +
+                ", daysOfWeek=" + daysOfWeek +
+                ", searchStart=" + searchStart +
+                ", searchStop=" + searchStop +
+                ", minLength=" + minLength +
+                ", recipients='" + recipients + '\'' +
+                '}';
+    }
+}
@@ -0,0 +1,61 @@
+package com.essheva.assateague;
+
+import java.nio.file.Paths;
+import java.time.LocalDate;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Scrapes campsite calendars of the campgrounds through pooled Chrome sessions. With 'navigation.mode=seek' only pages holding
+ * dates wanted by current search profiles are visited. Scans are checkpointed page by page, see {@link ScanCheckpoint}.
+ */
+public class SeleniumAvailabilitySource implements AvailabilitySource {
+
+    private final SiteWebDriverPool driverPool;
+    private final Map<Thread, SiteWebDriver> driversInUse = new ConcurrentHashMap<>();
+    private final boolean seek;
+    private final ScanCheckpoint checkpoint;
+
+    SeleniumAvailabilitySource(Configuration conf) {
+        this.driverPool = new SiteWebDriverPool(conf);
+        this.seek = conf.isNavigationSeek();
+        this.checkpoint = new ScanCheckpoint(
+                conf.getCheckpointDir().isEmpty() ? null : Paths.get(conf.getCheckpointDir()),
+                TimeUnit.MINUTES.toMillis(conf.getCheckpointMaxAgeMinutes()));
+    }
+
+    @Override
+    public Set<Site> getAvailableSites(Configuration conf, String loopName, LocalDate from, LocalDate to)
+            throws InterruptedException {
+        final Campground campground = conf.getCampground(loopName);
+        final DateBitSet wanted = seek ?
+                new ProfileMatcher(conf.getProfiles()).getWantedDates(loopName, from, to) : null;
+        final SiteWebDriver driver = driverPool.acquire(campground);
+        driversInUse.put(Thread.currentThread(), driver);
+        try {
+            return driver.getAvailableSites(loopName, campground.getPageLoopName(loopName), from, to, wanted,
+                    checkpoint);
+        } finally {
+            driversInUse.remove(Thread.currentThread());
+            driverPool.release(driver);
+        }
+    }
+
+    /**
+     * Kills the browser session used by the thread, which makes a WebDriver call hung in it fail.
+     */
+    @Override
+    public void abort(Thread scanThread) {
+        final SiteWebDriver driver = driversInUse.get(scanThread);
+        if (driver != null) {
+            driverPool.kill(driver);
+        }
+    }
+
+    @Override
+    public void close() {
+        driverPool.close();
+    }
+}
@@ -2,7 +2,6 @@ package com.essheva.assateague;
 
 import java.time.LocalDate;
 import java.util.Set;
-import java.util.TreeSet;
 
 /**
  *
@@ -13,7 +12,7 @@ public class Site implements Cloneable, Comparable<Site> {
     private String siteName;
     private String loopName;
     private String siteLink;
-    private Set<LocalDate> availableDates = new TreeSet<>();
+    private final DateBitSet availableDates = new DateBitSet();
 
     Site(String name, String loopName) {
         this.siteName = name;
@@ -44,11 +43,18 @@ public class Site implements Cloneable, Comparable<Site> {
         this.siteLink = siteLink;
     }
 
+    /**
+     * @return sorted read-only copy of available dates
+     */
     Set<LocalDate> getAvailableDates() {
+        return availableDates.toSortedSet();
+    }
+
+    DateBitSet getAvailability() {
         return availableDates;
     }
 
-    void addAvailableDates(Set<LocalDate> dates) {
+    void addAvailableDates(DateBitSet dates) {
         availableDates.addAll(dates);
     }
 
@@ -57,17 +63,21 @@ public class Site implements Cloneable, Comparable<Site> {
         if (this == o) return true;
         if (o == null || getClass() != o.getClass()) return false;
         Site site = (Site) o;
-        return siteName.equals(site.siteName);
+        return loopName.equals(site.loopName) && siteName.equals(site.siteName);
     }
 
+    /**
+     * Orders by loop, then by site name, as sites with the same name exist in different loops.
+     */
     @Override
     public int compareTo(Site o) {
-        return o.getSiteName().compareToIgnoreCase(this.getSiteName());
+        final int byLoop = loopName.compareTo(o.loopName);
+        return byLoop != 0 ? byLoop : siteName.compareTo(o.siteName);
     }
 
     @Override
     public int hashCode() {
-        return siteName.hashCode();
+        return 31 * loopName.hashCode() + siteName.hashCode();
     }
 
     @Override
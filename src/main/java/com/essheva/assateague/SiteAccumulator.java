@@ -0,0 +1,59 @@
+package com.essheva.assateague;
+
+import java.util.Collection;
+import java.util.NavigableSet;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Scan results keyed by (loop, site), so a site met again on a later page or in another partial result is found
+ * in constant time and its dates are OR-ed into the ones already collected.
+ * <p>
+ * Merges take no lock shared between sites: each one is an atomic update of its own map entry, so scan threads
+ * can add their results while others do the same. Sorted snapshots are taken for printing, matching and mail.
+ */
+class SiteAccumulator {
+
+    private static final char KEY_SEPARATOR = '\t';
+
+    private final ConcurrentMap<String, Site> sites = new ConcurrentHashMap<>();
+
+    /**
+     * Adds dates of a site, creating its entry on first sight.
+     */
+    void add(String loopName, String siteName, String siteLink, DateBitSet dates) {
+        sites.compute(loopName + KEY_SEPARATOR + siteName, (key, site) -> {
+            if (site == null) {
+                site = new Site(siteName, loopName);
+            }
+            if (site.getSiteLink() == null) {
+                site.setSiteLink(siteLink);
+            }
+            site.addAvailableDates(dates);
+            return site;
+        });
+    }
+
+    /**
+     * Merges copies of the sites, the given ones are left untouched.
+     */
+    void addAll(Collection<Site> sites) {
+        sites.forEach(site -> add(site.getLoopName(), site.getSiteName(), site.getSiteLink(), site.getAvailability()));
+    }
+
+    /**
+     * @return sites ordered by loop and site name, to be taken once the threads merging into them are done
+     */
+    NavigableSet<Site> toSortedSet() {
+        return new TreeSet<>(sites.values());
+    }
+
+    int size() {
+        return sites.size();
+    }
+
+    boolean isEmpty() {
+        return sites.isEmpty();
+    }
+}
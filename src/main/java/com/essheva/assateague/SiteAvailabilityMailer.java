@@ -1,15 +1,18 @@
 package com.essheva.assateague;
 
+import javax.activation.DataHandler;
 import javax.mail.*;
 import javax.mail.internet.AddressException;
 import javax.mail.internet.InternetAddress;
+import javax.mail.internet.MimeBodyPart;
 import javax.mail.internet.MimeMessage;
-import java.time.LocalDate;
-import java.time.temporal.ChronoUnit;
+import javax.mail.internet.MimeMultipart;
+import javax.mail.util.ByteArrayDataSource;
+import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
-import java.util.Iterator;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Properties;
-import java.util.Set;
 
 /**
  *
@@ -18,19 +21,31 @@ import java.util.Set;
 public class SiteAvailabilityMailer {
 
     private static final char PROPERTY_VALUES_SEPARATOR = ';';
+    private static final String CSV_FILE_NAME = "assateague-sites.csv";
 
-    private final Set<Site> availableSites;
+    private final Collection<Site> availableSites;
+    private final Collection<Site> takenSites;
     private final Address[] toAddress;
     private final Address fromAddress;
-    private final Session session;
 
-    SiteAvailabilityMailer(Properties props, Set<Site> availableSites) throws AddressException {
+    SiteAvailabilityMailer(Properties props, Collection<Site> availableSites) throws AddressException {
+        this(props, null, availableSites, Collections.emptyList());
+    }
+
+    /**
+     * @param recipients addresses separated by ';', or null to take them from 'mail.to'
+     * @param takenSites sites with dates which are not available anymore since the previous scan,
+     *                   listed in a separate table when not empty
+     */
+    SiteAvailabilityMailer(Properties props, String recipients,
+                           Collection<Site> availableSites, Collection<Site> takenSites) throws AddressException {
         this.availableSites = availableSites;
+        this.takenSites = takenSites;
 
         final String from = props.getProperty("mail.from.user");
         fromAddress = new InternetAddress(from);
 
-        final String toList = props.getProperty("mail.to");
+        final String toList = recipients != null ? recipients : props.getProperty("mail.to");
         if (toList != null) {
             toAddress = Arrays.stream(toList.split("\\s*" + PROPERTY_VALUES_SEPARATOR + "\\s*")).
                     map(address -> {
@@ -46,102 +61,73 @@ public class SiteAvailabilityMailer {
             }
             toAddress = new InternetAddress[]{ new InternetAddress(from)};
         }
-
-        session = Session.getDefaultInstance(props, new Authenticator() {
-            public PasswordAuthentication getPasswordAuthentication() {
-                return new PasswordAuthentication(from, props.getProperty("mail.from.password"));
-            }
-        });
     }
 
-    void sendEmail() throws MessagingException {
-
-        Message message = new MimeMessage(session);
+    /**
+     * Mail of several notifications merged into one, see {@link MailDispatcher}.
+     */
+    SiteAvailabilityMailer(Address fromAddress, Address[] toAddress,
+                           Collection<Site> availableSites, Collection<Site> takenSites) {
+        this.fromAddress = fromAddress;
+        this.toAddress = toAddress;
+        this.availableSites = availableSites;
+        this.takenSites = takenSites;
+    }
 
+    /**
+     * @return multipart message with plain text and HTML alternatives, plus a CSV of all sites when
+     * there are more of them than the renderer lists inline
+     */
+    MimeMessage createMessage(Session session, MailRenderer renderer) throws MessagingException {
+        final MimeMessage message = new MimeMessage(session);
         message.setFrom(fromAddress);
         message.addRecipients(Message.RecipientType.TO, toAddress);
-        message.setSubject("Assateague sites available!");
-
-        String body = "<h4 class=\"green\">" + message.getSubject() + "</h4 >" +
-                (availableSites.isEmpty() ? "<p>Nothing found</p>" : processAvailableDates());
-
-        message.setContent(body, "text/html; charset=utf-8");
+        message.setSubject(getSubject());
+
+        final MimeBodyPart text = new MimeBodyPart();
+        text.setText(renderer.renderText(getSubject(), availableSites, takenSites), "utf-8");
+        final MimeBodyPart html = new MimeBodyPart();
+        html.setContent(renderer.renderHtml(getSubject(), availableSites, takenSites), "text/html; charset=utf-8");
+        final MimeMultipart alternative = new MimeMultipart("alternative");
+        alternative.addBodyPart(text);
+        alternative.addBodyPart(html);
+
+        if (renderer.needsAttachment(availableSites, takenSites)) {
+            final MimeBodyPart body = new MimeBodyPart();
+            body.setContent(alternative);
+            final MimeBodyPart csv = new MimeBodyPart();
+            csv.setDataHandler(new DataHandler(new ByteArrayDataSource(
+                    renderer.renderCsv(availableSites, takenSites).getBytes(StandardCharsets.UTF_8),
+                    "text/csv; charset=utf-8")));
+            csv.setFileName(CSV_FILE_NAME);
+            final MimeMultipart mixed = new MimeMultipart("mixed");
+            mixed.addBodyPart(body);
+            mixed.addBodyPart(csv);
+            message.setContent(mixed);
+        } else {
+            message.setContent(alternative);
+        }
         message.saveChanges();
-
-        Transport.send(message, toAddress);
+        return message;
     }
 
-    private String processAvailableDates() {
-
-        final StringBuilder sitesHtml = new StringBuilder();
-
-        availableSites.forEach(s -> {
-            sitesHtml.append("<tr>");
-            sitesHtml.append("<td style=\"border: 1px solid black;\">").append(formHtmlSiteName(s)).append("</td>");
-            sitesHtml.append("<td style=\"border: 1px solid black;\">").append(s.getLoopName()).append("</td>");
-            sitesHtml.append("<td style=\"border: 1px solid black;\">").append(formatHtmlDatesForSite(s)).append("</td>");
-            sitesHtml.append("</tr>");
-        });
-
-        return "<table style=\"border: 1px solid black;width:100%;border-collapse: collapse;\">" +
-                "<tr style=\"color: green\">" +
-                "<th>Site #</th>" +
-                "<th>Facility Area</th>" +
-                "<th>Available dates</th>" +
-                "</tr>"
-                + sitesHtml +
-                "</table>";
+    String getSubject() {
+        return takenSites.isEmpty() ? "Assateague sites available!" : "Assateague sites availability changed";
     }
 
-    private String formHtmlSiteName(Site site) {
-        String siteNameText = site.getSiteName();
-        if (site.getSiteLink() != null) {
-            siteNameText = "<a href=\"" + site.getSiteLink().split("www.")[1] + "\">" + siteNameText + "</a>";
-        }
-        return siteNameText;
+    Address getFromAddress() {
+        return fromAddress;
     }
 
-    private StringBuilder formatHtmlDatesForSite(Site site) {
-        final StringBuilder result = new StringBuilder();
-        boolean isSameGroup = false;
-        int colorIter = 0;
-        LocalDate prevDate = null;
-        final Iterator<LocalDate> iterator = site.getAvailableDates().iterator();
-        while (iterator.hasNext() || prevDate != null) {
-            if (!isSameGroup) {
-                colorIter += 30;
-                result.append("<span style=\"background-color: rgb(").append(102 + colorIter).append(",").append(255 - colorIter).append(",204);\">");
-                if (prevDate != null) {
-                    result.append(formatDateForMail(prevDate)).append("; ");
-                }
-            }
+    Address[] getToAddress() {
+        return toAddress;
+    }
 
-            if (iterator.hasNext()) {
-                final LocalDate curDate = iterator.next();
-                if (prevDate == null) {
-                    isSameGroup = true;
-                    result.append(formatDateForMail(curDate)).append(";  ");
-                } else {
-                    if (prevDate.plus(1, ChronoUnit.DAYS).isEqual(curDate)) {
-                        isSameGroup = true;
-                        result.append(formatDateForMail(curDate)).append("; ");
-                    } else {
-                        isSameGroup = false;
-                        result.append("</span>");
-                    }
-                }
-                prevDate = curDate;
-            } else {
-                if (prevDate != null) {
-                    result.append("</span>");
-                }
-                prevDate = null;
-            }
-        }
-        return result;
+    Collection<Site> getAvailableSites() {
+        return availableSites;
     }
 
-    private String formatDateForMail(LocalDate date) {
-        return date.getDayOfWeek().toString().substring(0, 3) + "  " + date.getMonthValue() + "/" + date.getDayOfMonth();
+    Collection<Site> getTakenSites() {
+        return takenSites;
     }
 }
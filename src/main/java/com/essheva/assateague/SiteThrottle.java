@@ -0,0 +1,170 @@
+package com.essheva.assateague;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * Process wide limit on requests to the reservation site: page loads, month switches and 'load more' clicks
+ * of all browser sessions.
+ * <ul>
+ * <li>A token bucket lets 'throttle.rate.per.second' requests through, with bursts of 'throttle.burst'.
+ * Every request takes its token before it is sent, 'load more' clicks included.</li>
+ * <li>Concurrent requests are limited AIMD style: a request which failed or took longer than
+ * 'throttle.latency.target.millis' halves the limit, at most once per round of requests in flight, and each
+ * successful one adds 1/limit, i.e. about one per round. The limit stays between 1 and 'browser.pool.size'.</li>
+ * <li>A circuit breaker opens when at least 'throttle.breaker.failure.percent' of the last
+ * 'throttle.breaker.window' requests failed: requests wait 'throttle.breaker.pause.seconds', then one probe
+ * request goes through and closes the breaker on success or opens it again on failure.</li>
+ * </ul>
+ */
+class SiteThrottle {
+
+    private final double tokensPerNano;
+    private final double burst;
+    private final long latencyTargetNanos;
+    private final int maxConcurrency;
+    private final boolean[] outcomes;
+    private final int failurePercent;
+    private final long pauseNanos;
+    private final LongSupplier clock;
+
+    private double tokens;
+    private long refilledAt;
+    private double limit;
+    private int inFlight;
+    private long decreasedAt;
+    private int outcomeCount;
+    private int outcomeIndex;
+    private int failures;
+    private long openUntil;
+    private boolean probing;
+
+    SiteThrottle(Configuration conf) {
+        this(conf, System::nanoTime);
+    }
+
+    /**
+     * @param clock source of {@link System#nanoTime()} like time, waits are re-checked against it
+     */
+    SiteThrottle(Configuration conf, LongSupplier clock) {
+        this.clock = clock;
+        this.tokensPerNano = conf.getThrottleRatePerSecond() / (double) TimeUnit.SECONDS.toNanos(1);
+        this.burst = Math.max(1, conf.getThrottleBurst());
+        this.tokens = burst;
+        this.latencyTargetNanos = TimeUnit.MILLISECONDS.toNanos(conf.getThrottleLatencyTargetMillis());
+        this.maxConcurrency = conf.getBrowserPoolSize();
+        this.limit = maxConcurrency;
+        this.outcomes = new boolean[conf.getThrottleBreakerWindow()];
+        this.failurePercent = conf.getThrottleBreakerFailurePercent();
+        this.pauseNanos = TimeUnit.SECONDS.toNanos(conf.getThrottleBreakerPauseSeconds());
+        this.refilledAt = clock.getAsLong();
+        this.decreasedAt = refilledAt;
+    }
+
+    /**
+     * Waits until the breaker is closed, the concurrency limit allows one more request and a token is available,
+     * then takes the token. Every call must be paired with {@link #release(long, boolean)}.
+     *
+     * @return start of the request, to be passed to release
+     */
+    synchronized long acquire() throws InterruptedException {
+        final long waitStartNanos = System.nanoTime();
+        while (true) {
+            final long now = clock.getAsLong();
+            if (openUntil != 0 && now < openUntil) {
+                TimeUnit.NANOSECONDS.timedWait(this, openUntil - now);
+                continue;
+            }
+            if (inFlight >= (probing ? 1 : (int) limit)) {
+                wait();
+                continue;
+            }
+            refill(now);
+            if (tokensPerNano > 0 && tokens < 1) {
+                TimeUnit.NANOSECONDS.timedWait(this, Math.max(1, (long) ((1 - tokens) / tokensPerNano)));
+                continue;
+            }
+            tokens--;
+            inFlight++;
+            Metrics.THROTTLE_WAIT.recordSince(waitStartNanos);
+            return now;
+        }
+    }
+
+    /**
+     * @param success false if the request failed, e.g. timed out
+     */
+    synchronized void release(long startNanos, boolean success) {
+        final long now = clock.getAsLong();
+        inFlight--;
+
+        final boolean slow = now - startNanos > latencyTargetNanos;
+        if (!success || slow) {
+            if (startNanos >= decreasedAt) { // one decrease per round, requests started earlier saw the same trouble
+                limit = Math.max(1, limit / 2);
+                decreasedAt = now;
+                Metrics.THROTTLE_DECREASES.increment();
+            }
+        } else {
+            limit = Math.min(maxConcurrency, limit + 1 / limit);
+        }
+
+        if (probing) {
+            if (startNanos >= openUntil) { // the probe, not a request which was in flight when the breaker opened
+                probing = false;
+                if (!success) {
+                    open(now);
+                }
+            }
+        } else {
+            recordOutcome(success);
+            if (outcomeCount == outcomes.length && failures * 100 >= failurePercent * outcomeCount) {
+                open(now);
+            }
+        }
+        notifyAll();
+    }
+
+    /**
+     * @return number of requests currently allowed in flight at once
+     */
+    synchronized int getConcurrencyLimit() {
+        return probing ? 1 : (int) limit;
+    }
+
+    private void refill(long now) {
+        if (tokensPerNano > 0) {
+            tokens = Math.min(burst, tokens + (now - refilledAt) * tokensPerNano);
+        }
+        refilledAt = now;
+    }
+
+    private void recordOutcome(boolean success) {
+        if (outcomeCount == outcomes.length) {
+            if (!outcomes[outcomeIndex]) {
+                failures--;
+            }
+        } else {
+            outcomeCount++;
+        }
+        outcomes[outcomeIndex] = success;
+        if (!success) {
+            failures++;
+        }
+        outcomeIndex = (outcomeIndex + 1) % outcomes.length;
+    }
+
+    private void open(long now) {
+        openUntil = now + pauseNanos;
+        probing = true;
+        limit = 1;
+        outcomeCount = 0;
+        outcomeIndex = 0;
+        failures = 0;
+        Metrics.THROTTLE_BREAKER_OPENS.increment();
+        synchronized (System.err) {
+            System.err.println("Too many failed requests to the reservation site, pausing for " +
+                    TimeUnit.NANOSECONDS.toSeconds(pauseNanos) + " s.");
+        }
+    }
+}
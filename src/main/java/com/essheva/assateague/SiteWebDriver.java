@@ -2,24 +2,26 @@ package com.essheva.assateague;
 
 import org.openqa.selenium.JavascriptExecutor;
 import org.openqa.selenium.NoSuchElementException;
-import org.openqa.selenium.WebDriver;
+import org.openqa.selenium.WebDriverException;
 import org.openqa.selenium.WebElement;
 import org.openqa.selenium.chrome.ChromeDriver;
 import org.openqa.selenium.chrome.ChromeOptions;
-import org.openqa.selenium.support.ui.Wait;
-import org.openqa.selenium.support.ui.WebDriverWait;
+import org.openqa.selenium.remote.Response;
 
+import java.io.IOException;
 import java.time.LocalDate;
 import java.time.format.DateTimeFormatter;
-import java.time.temporal.ChronoUnit;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
-import java.util.TreeSet;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
 
 import static java.nio.file.Paths.get;
 import static org.openqa.selenium.By.*;
-import static org.openqa.selenium.support.ui.ExpectedConditions.elementToBeClickable;
 
 /**
  *
@@ -27,190 +29,353 @@ import static org.openqa.selenium.support.ui.ExpectedConditions.elementToBeClick
  */
 public class SiteWebDriver implements AutoCloseable {
 
-    private final WebDriver webDriver;
-    private final Wait<WebDriver> wait;
-    private final Configuration conf;
-    private static final DateTimeFormatter dateFormatter = DateTimeFormatter.ofPattern("MMM/d/yyyy");
+    private static final long SCRIPT_TIMEOUT_MARGIN_MILLIS = 5000;
 
-    SiteWebDriver(Configuration conf) {
+    private final CountingChromeDriver webDriver;
+    private final PageSettleWatcher settleWatcher;
+    private final Configuration conf;
+    private final CalendarRecording recording;
+    private final SiteThrottle throttle;
+
+    private int uses;
+
+    /**
+     * @param cacheSlot index of the disk cache directory within 'browser.cache.dir' used by this session only
+     * @param calendarUrl campsite calendar page to open
+     * @param throttle limit on requests to the site shared by all sessions
+     */
+    SiteWebDriver(Configuration conf, int cacheSlot, String calendarUrl, SiteThrottle throttle)
+            throws InterruptedException {
         this.conf = conf;
+        this.throttle = throttle;
+        this.recording = conf.getRecordingDir().isEmpty() ? null : new CalendarRecording(get(conf.getRecordingDir()));
 
         System.setProperty("webdriver.chrome.driver", get(conf.getDriverPath()).toFile().getAbsolutePath());
 
-        ChromeOptions options = new ChromeOptions();
-        options.addArguments("window-size=1500,1280");
+        final long startNanos = System.nanoTime();
+        webDriver = new CountingChromeDriver(createOptions(conf, cacheSlot));
+        Metrics.BROWSER_STARTUP.recordSince(startNanos);
+        try {
+            loadCalendar(calendarUrl);
+        } catch (RuntimeException | InterruptedException e) {
+            close();
+            throw e;
+        }
 
-        webDriver = new ChromeDriver(options);
-        webDriver.get("https://www.recreation.gov/camping/Assateague-Island-National-Seashore-Campground/r/" +
-                "campsiteCalendar.do?page=calendar&search=site&contractCode=NRSO&parkId=70989");
+        final long settleTimeoutMillis = TimeUnit.SECONDS.toMillis(conf.getSettleTimeoutSeconds());
+        webDriver.manage().timeouts().setScriptTimeout(settleTimeoutMillis + SCRIPT_TIMEOUT_MARGIN_MILLIS,
+                TimeUnit.MILLISECONDS);
+        settleWatcher = new PageSettleWatcher(webDriver, conf.getSettleQuietMillis(), settleTimeoutMillis);
+    }
+
+    /**
+     * 'lean' profile runs headless without GPU, extensions, images and background services, resolves
+     * 'browser.blocked.hosts' (trackers, web fonts) to nothing and keeps a small disk cache which survives
+     * session recycling. 'full' profile is a regular visible browser.
+     */
+    private static ChromeOptions createOptions(Configuration conf, int cacheSlot) {
+        final ChromeOptions options = new ChromeOptions();
+        options.addArguments("window-size=1500,1280");
+        if (conf.getBrowserHeapLimitMb() > 0) {
+            options.addArguments("js-flags=--max-old-space-size=" + conf.getBrowserHeapLimitMb());
+        }
+        if (!conf.isBrowserLean()) {
+            return options;
+        }
 
-        wait = new WebDriverWait(webDriver, 60);
+        options.addArguments("headless", "disable-gpu", "disable-extensions", "disable-default-apps",
+                "disable-background-networking", "disable-sync", "disable-dev-shm-usage", "no-first-run",
+                "mute-audio", "autoplay-policy=user-gesture-required", "blink-settings=imagesEnabled=false");
+        final Map<String, Object> prefs = new HashMap<>();
+        prefs.put("profile.managed_default_content_settings.images", 2);
+        options.setExperimentalOption("prefs", prefs);
+
+        if (!conf.getBrowserBlockedHosts().isEmpty()) {
+            options.addArguments("host-resolver-rules=" + conf.getBrowserBlockedHosts().stream().
+                    map(host -> "MAP " + host + " ~NOTFOUND").
+                    collect(Collectors.joining(", ")));
+        }
+        if (!conf.getBrowserCacheDir().isEmpty()) {
+            options.addArguments("disk-cache-dir=" + get(conf.getBrowserCacheDir(), String.valueOf(cacheSlot)).
+                            toAbsolutePath(),
+                    "disk-cache-size=" + conf.getBrowserCacheSizeMb() * 1024L * 1024L);
+        }
+        return options;
     }
 
-    Set<Site> getAvailableSites(final String loopName) {
-        WebElement datePicker = webDriver.findElement(id("single-date-picker"));
-        focusToElement(datePicker);
-        datePicker.sendKeys(conf.getSearchStart().format(DateTimeFormatter.ofPattern(Configuration.DATE_FORMAT)));
-        blurToElement(datePicker);
-        webDriver.findElement(cssSelector("button.rec-button-link-small")).click();
+    /**
+     * Scans the loop page by page, saving every page to the checkpoint, and starts after the last page
+     * saved by an earlier failed attempt if there is one.
+     *
+     * @param loopName camp group the sites are reported under
+     * @param pageLoopName loop name of the camp group as shown on the calendar page
+     * @param wanted dates to visit pages for, null to visit every page within [from, to]
+     * @return sites of the loop with their available dates within [from, to]; with wanted dates given,
+     * dates on pages holding none of them are left out
+     */
+    Set<Site> getAvailableSites(final String loopName, String pageLoopName, LocalDate from, LocalDate to,
+                                DateBitSet wanted, ScanCheckpoint checkpoint) throws InterruptedException {
+        final ScanCheckpoint.Progress progress = checkpoint.resume(loopName, from, to);
+        final LocalDate scannedThrough =
+                progress.getScannedThrough() == null ? from.minusDays(1) : progress.getScannedThrough();
+        final LocalDate start = wanted == null ? scannedThrough.plusDays(1) : firstWantedAfter(wanted, scannedThrough, to);
+        if (start == null || start.isAfter(to)) {
+            return checkpoint.finish(progress);
+        }
 
-        final Set<Site> result = new TreeSet<>();
+        PageSettleWatcher.Settle navigated = request(() -> {
+            enterDate(start);
+            return awaitNavigation(null);
+        });
+        while(true) {
+            final long commandsBeforePage = webDriver.getCommandCount();
 
-        while(!checkStopCondition()) {
+            final PageSettleWatcher.Settle expanded = expandAllRows(navigated);
+            Metrics.LOAD_MORE_CLICKS.add(expanded.getClicks());
+            Metrics.LOAD_MORE_WAIT.record(TimeUnit.MILLISECONDS.toNanos(expanded.getWaitedMillis()));
+            final long settleMillis = navigated.getWaitedMillis() + expanded.getWaitedMillis();
 
-            boolean listedAllSitesForPeriod = false;
-            while(!listedAllSitesForPeriod) {
-                try {
-                    WebElement loadMoreBtn = webDriver.findElement(cssSelector("button.load-more-btn"));
-                    scrollToElement(loadMoreBtn);
-                    loadMoreBtn.click();
-                    wait.until(elementToBeClickable(id("availability-table")));
-                } catch (NoSuchElementException ignored) {
-                    listedAllSitesForPeriod = true;
-                }
+            scrollToElement(webDriver.findElement(xpath(
+                    String.format("//table[@id='availability-table']//tbody//td[text()='%s']", pageLoopName))));
+
+            final SiteAccumulator pageSites = new SiteAccumulator();
+            final Map<String, Object> rawPage =
+                    conf.isBulkExtraction() || recording != null ? CalendarPage.extractRaw(webDriver) : null;
+            // the script result holds title and header days too, so the header takes no round trip of its own
+            final CalendarPage page = rawPage == null ? null : CalendarPage.fromScriptResult(rawPage);
+            final CalendarHeader header = page == null ? CalendarHeader.extract(webDriver) : page.getHeader();
+            if (conf.isBulkExtraction()) {
+                page.collectAvailableSites(loopName, pageLoopName, from, to, pageSites);
+            } else {
+                collectAvailableSites(header, loopName, pageLoopName, from, to, pageSites);
+            }
+            if (recording != null) {
+                record(loopName, rawPage);
+            }
+            checkpoint.completeWindow(progress, header.getLastDate(), pageSites.toSortedSet());
+            Metrics.PAGES_PARSED.increment();
+
+            synchronized (System.out) {
+                System.out.println(String.format("Page '%s' of '%s' parsed with %d WebDriver round trips, " +
+                                "%d 'load more' clicks and %d ms waiting for page to settle.",
+                        header.getMonthYearTitle(), loopName, webDriver.getCommandCount() - commandsBeforePage,
+                        expanded.getClicks(), settleMillis));
             }
 
-            scrollToElement(webDriver.findElement(xpath(
-                    String.format("//table[@id='availability-table']//tbody//td[text()='%s']", loopName))));
-
-            final String monthYearPeriod = webDriver.findElement(cssSelector("div.rec-month-availability-date-title")).getText();
-
-            webDriver.findElement(id("availability-table")).findElements(cssSelector("tbody>tr")).stream().
-                    filter(rowE ->
-                    {
-                        try {
-                            return rowE.findElement(cssSelector("td.rec-site-loop")).getText().equals(loopName);
-                        } catch (NoSuchElementException ignored) {
-                            return false;
-                        }
-                    }).
-                    forEach(rowE ->
-                    {
-                        final WebElement siteE = rowE.findElement(cssSelector("th button"));
-
-                        Set<LocalDate> availableDates = getConsequentDatesRange(
-                                getAvailableDateCandidates(rowE, monthYearPeriod), conf.getMinLength());
-                        if (!availableDates.isEmpty()) {
-                            final Site site = findSiteByNameOrNew(result, siteE.getText(), loopName);
-//                            site.setSiteLink(siteE.getAttribute("href"));
-                            site.addAvailableDates(availableDates);
-                            result.add(site);
-                        }
+            if (checkStopCondition(header, to)) {
+                break;
+            }
+
+            if (wanted != null) {
+                final LocalDate next = firstWantedAfter(wanted, header.getLastDate(), to);
+                if (next == null) {
+                    break;
+                }
+                if (next.isAfter(header.getLastDate().plusDays(1))) {
+                    final long skippedDays = next.toEpochDay() - header.getLastDate().toEpochDay() - 1;
+                    Metrics.DAYS_SKIPPED.add(skippedDays);
+                    synchronized (System.out) {
+                        System.out.println(String.format("Seeking '%s' to %s, %d day(s) without wanted dates skipped.",
+                                loopName, next, skippedDays));
+                    }
+                    final String previousPage = settleWatcher.pageKey();
+                    navigated = request(() -> {
+                        enterDate(next);
+                        return awaitNavigation(previousPage);
                     });
+                    continue;
+                }
+            }
+
             scrollToElement(webDriver.findElement(cssSelector("div.rec-day-picker")));
-            try {
-                webDriver.findElement(xpath("//div[@class='rec-day-picker'] //button[last()]")).click();
-            } catch (NoSuchElementException ignored) { // nothing to view more
+            final List<WebElement> nextButton =
+                    webDriver.findElements(xpath("//div[@class='rec-day-picker'] //button[last()]"));
+            if (nextButton.isEmpty()) { // nothing to view more
+                break;
             }
+            final String previousPage = settleWatcher.pageKey();
+            navigated = request(() -> {
+                nextButton.get(0).click();
+                return awaitNavigation(previousPage);
+            });
         }
-        return result;
+        return checkpoint.finish(progress);
     }
 
-    @Override
-    public void close() {
-        webDriver.quit();
+    /**
+     * Sends one request to the site, e.g. a month switch, through the throttle.
+     */
+    private <T> T request(Supplier<T> call) throws InterruptedException {
+        final long startNanos = throttle.acquire();
+        boolean success = false;
+        try {
+            final T result = call.get();
+            success = true;
+            return result;
+        } finally {
+            throttle.release(startNanos, success);
+        }
     }
 
-    private Set<LocalDate> getAvailableDateCandidates(WebElement row, String monthYearPeriod) {
-        Set<LocalDate> candidates = new TreeSet<>();
-        row.findElements(cssSelector("td")).stream().
-                filter(e -> e.getAttribute("class").equals("available")
-                        || e.getAttribute("class").equals("walk-up")).
-                filter(e -> {
-                    LocalDate date = getAvailableDate(e, monthYearPeriod);
-                    LocalDate start = conf.getSearchStart();
-                    LocalDate stop = conf.getSearchStop();
-                    boolean isInRange = (date.isAfter(start) && date.isBefore(stop))
-                            || date.isEqual(start) || date.isEqual(stop);
-                    boolean isDesiredDayOfWeek = conf.isDesiredDayOfWeek(date);
-                    return isInRange && isDesiredDayOfWeek;
+    /**
+     * Clicks 'load more' until all rows are shown, sending every click through the throttle on its own.
+     *
+     * @param navigated settle of the navigation which brought the page up
+     * @return clicks made and time spent waiting for rows to render
+     */
+    private PageSettleWatcher.Settle expandAllRows(PageSettleWatcher.Settle navigated) throws InterruptedException {
+        PageSettleWatcher.Settle settle = navigated;
+        int clicks = 0;
+        long waitedMillis = 0;
+        while (settle.hasMoreRows()) {
+            settle = request(settleWatcher::loadMore);
+            clicks += settle.getClicks();
+            waitedMillis += settle.getWaitedMillis();
+        }
+        return new PageSettleWatcher.Settle(settle.getRowCount(), clicks, waitedMillis, false);
+    }
+
+    /**
+     * Opens the calendar at the date through the date picker.
+     */
+    private void enterDate(LocalDate date) {
+        final WebElement datePicker = webDriver.findElement(id("single-date-picker"));
+        focusToElement(datePicker);
+        datePicker.clear();
+        datePicker.sendKeys(date.format(DateTimeFormatter.ofPattern(Configuration.DATE_FORMAT)));
+        blurToElement(datePicker);
+        webDriver.findElement(cssSelector("button.rec-button-link-small")).click();
+    }
+
+    private static LocalDate firstWantedAfter(DateBitSet wanted, LocalDate after, LocalDate to) {
+        return after.isBefore(to) ? wanted.clip(after.plusDays(1), to).stream().findFirst().orElse(null) : null;
+    }
+
+    /**
+     * Reads the page element by element, issuing WebDriver calls per row and per cell.
+     */
+    private void collectAvailableSites(CalendarHeader header, String loopName, String pageLoopName,
+                                       LocalDate from, LocalDate to, SiteAccumulator result) {
+        webDriver.findElement(id("availability-table")).findElements(cssSelector("tbody>tr")).stream().
+                filter(rowE ->
+                {
+                    try {
+                        return rowE.findElement(cssSelector("td.rec-site-loop")).getText().equals(pageLoopName);
+                    } catch (NoSuchElementException ignored) {
+                        return false;
+                    }
                 }).
-                forEach(e -> {
-                    LocalDate date = getAvailableDate(e, monthYearPeriod);
-                    candidates.add(date);
+                peek(rowE -> Metrics.ROWS_PARSED.increment()).
+                forEach(rowE ->
+                {
+                    final WebElement siteE = rowE.findElement(cssSelector("th button"));
+
+                    final DateBitSet availableDates = getAvailableDateCandidates(rowE, header).clip(from, to);
+                    if (!availableDates.isEmpty()) {
+//                        siteE.getAttribute("href")
+                        result.add(loopName, siteE.getText(), null, availableDates);
+                    }
                 });
-        return candidates;
     }
 
-    private static Set<LocalDate>  getConsequentDatesRange(Set<LocalDate> input, int minLength) {
-        Set<LocalDate> result = new TreeSet<>();
-        if (input.size() < minLength) {
-            return result;
-        }
+    private PageSettleWatcher.Settle awaitNavigation(String previousPage) {
+        final PageSettleWatcher.Settle settle = settleWatcher.awaitNavigation(previousPage);
+        Metrics.NAVIGATION_WAIT.record(TimeUnit.MILLISECONDS.toNanos(settle.getWaitedMillis()));
+        return settle;
+    }
 
-        int count = 0;
-        LocalDate prev = null;
-        Set<LocalDate> datesOfGroup = new TreeSet<>();
-        for (final LocalDate cur : input) {
-            if (prev == null || prev.plus(1, ChronoUnit.DAYS).equals(cur)) {
-                count++;
-            } else {
-                if (count >= minLength) {
-                    result.addAll(datesOfGroup);
-                }
-                count = 1;
-                datesOfGroup.clear();
+    private void record(String loopName, Map<String, Object> rawPage) {
+        try {
+            recording.save(loopName, rawPage);
+        } catch (IOException e) {
+            synchronized (System.err) {
+                System.err.println("Failed to record page of '" + loopName + "': " + e);
             }
-
-            datesOfGroup.add(cur);
-            prev = cur;
-        }
-
-        if (count >= minLength && !datesOfGroup.isEmpty()) {
-            result.addAll(datesOfGroup);
         }
+    }
 
-        return result;
+    /**
+     * Brings a reused session to a freshly loaded calendar page, dropping whatever state
+     * the previous loop scan left behind (campground, expanded rows, selected month, scroll position).
+     */
+    void reset(String calendarUrl) throws InterruptedException {
+        webDriver.manage().deleteAllCookies();
+        loadCalendar(calendarUrl);
     }
 
-    private boolean checkStopCondition() {
-        final String monthYearPeriod = webDriver.findElement(cssSelector("div.rec-month-availability-date-title")).getText();
-        String lastInTableDate = createDate(monthYearPeriod, findDayInLastPosition());
-        LocalDate lastDateInPeriod = LocalDate.parse(lastInTableDate, dateFormatter);
-        return conf.getSearchStop().isBefore(lastDateInPeriod) || conf.getSearchStop().isEqual(lastDateInPeriod);
+    private void loadCalendar(String calendarUrl) throws InterruptedException {
+        request(() -> {
+            final long startNanos = System.nanoTime();
+            webDriver.get(calendarUrl);
+            Metrics.PAGE_LOAD.recordSince(startNanos);
+            return null;
+        });
     }
 
-    private String createDate(String monthYearPeriod, String day) {
-        String patternStr = ("([A-Z]{3})(\\s+/\\s+([A-Z]{3}))?\\s+(\\d{4})");
-        Matcher matcher = Pattern.compile(patternStr).matcher(monthYearPeriod);
-        if (matcher.find()) {
-            String month = matcher.group(1);
-            if (matcher.group(2) != null) {
-                String firstDay = findDayByPosition(3); // skip "site name" & "loop name"
-                if (Integer.valueOf(firstDay) > Integer.valueOf(day)) {
-                    month = matcher.group(3);
-                } else {
-                    month = matcher.group(1);
-                }
-            }
-            month = month.substring(0, 1) + month.substring(1).toLowerCase(); // translate to "MMM" format
-            String year = matcher.group(4);
-            return month + "/" + day + "/" + year;
-        }  else {
-            throw new RuntimeException("Something has been changed in format");
+    /**
+     * @return true if the underlying browser still answers WebDriver commands.
+     */
+    boolean isAlive() {
+        try {
+            webDriver.getWindowHandle();
+            return true;
+        } catch (WebDriverException e) {
+            return false;
         }
     }
 
-    private LocalDate getAvailableDate(WebElement e, String monthYearPeriod) {
-        int position = Integer.valueOf(e.getAttribute("cellIndex"));
-        String availableDate = createDate(monthYearPeriod, findDayByPosition(position + 1));
-        return LocalDate.parse(availableDate, dateFormatter);
+    int markUsed() {
+        return ++uses;
     }
 
-    private String findDayByPosition(int position) {
-        return webDriver.findElement(cssSelector(
-                String.format("table[id='availability-table'] thead th:nth-of-type(%s) span[class='date']", position))).
-                getText();
+    @Override
+    public void close() {
+        try {
+            webDriver.quit();
+        } catch (WebDriverException ignored) { // browser already gone
+        }
     }
 
-    private String findDayInLastPosition() {
-        return webDriver.findElement(
-                xpath("//table[@id='availability-table']//thead//th[last()]//span[@class='date']")).getText();
+    private DateBitSet getAvailableDateCandidates(WebElement row, CalendarHeader header) {
+        final DateBitSet candidates = new DateBitSet();
+        row.findElements(cssSelector("td")).stream().
+                filter(e -> {
+                    final String cssClass = e.getAttribute("class");
+                    return cssClass.equals("available") || cssClass.equals("walk-up");
+                }).
+                map(e -> header.dateAt(Integer.valueOf(e.getAttribute("cellIndex")))).
+                filter(date -> date != null).
+                forEach(candidates::add);
+        return candidates;
     }
 
-    private Site findSiteByNameOrNew(Set<Site> availableSites, String siteName, String loopName) {
-        return availableSites.parallelStream().filter(s ->
-                s.getSiteName().equals(siteName)).findFirst().orElse(new Site(siteName, loopName));
+    private boolean checkStopCondition(CalendarHeader header, LocalDate stop) {
+        LocalDate lastDateInPeriod = header.getLastDate();
+        return stop.isBefore(lastDateInPeriod) || stop.isEqual(lastDateInPeriod);
+    }
+
+    /**
+     * ChromeDriver that counts commands sent to the browser, i.e. WebDriver round trips,
+     * including the ones issued through {@link WebElement}s it has found.
+     */
+    private static class CountingChromeDriver extends ChromeDriver {
+
+        private final AtomicLong commandCount = new AtomicLong();
+
+        CountingChromeDriver(ChromeOptions options) {
+            super(options);
+        }
+
+        @Override
+        protected Response execute(String driverCommand, Map<String, ?> parameters) {
+            commandCount.incrementAndGet();
+            Metrics.WEBDRIVER_COMMANDS.increment();
+            return super.execute(driverCommand, parameters);
+        }
+
+        long getCommandCount() {
+            return commandCount.get();
+        }
     }
 
     private void scrollToElement(WebElement e) {
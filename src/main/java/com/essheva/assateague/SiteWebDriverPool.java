@@ -0,0 +1,186 @@
+package com.essheva.assateague;
+
+import org.openqa.selenium.WebDriverException;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Bounded pool of warm {@link SiteWebDriver} sessions shared between loop scans and scheduler runs.
+ * Sessions are reset to the calendar page when borrowed, health-checked, recycled after
+ * 'browser.max.uses' scans and killed if a borrower holds them longer than 'browser.lease.timeout.minutes'.
+ * Every live session owns one of 'browser.pool.size' disk cache slots, so a cache is reused by the next
+ * session of the slot but never shared by two browsers at once.
+ * <p>
+ * Campgrounds get fair shares of the pool: a freed session goes to the waiting campground holding
+ * the fewest sessions, see {@link FairShare}.
+ */
+public class SiteWebDriverPool implements AutoCloseable {
+
+    private final Configuration conf;
+    private final int maxUses;
+    private final long leaseTimeoutMillis;
+    private final FairShare permits;
+    private final SiteThrottle throttle;
+    private final BlockingDeque<SiteWebDriver> idle = new LinkedBlockingDeque<>();
+    private final Map<SiteWebDriver, Lease> leased = new ConcurrentHashMap<>();
+    private final Map<SiteWebDriver, Integer> cacheSlots = new ConcurrentHashMap<>();
+    private final NavigableSet<Integer> freeCacheSlots = new ConcurrentSkipListSet<>();
+
+    private volatile boolean closed;
+
+    SiteWebDriverPool(Configuration conf) {
+        this.conf = conf;
+        this.maxUses = conf.getBrowserMaxUses();
+        this.leaseTimeoutMillis = TimeUnit.MINUTES.toMillis(conf.getBrowserLeaseTimeoutMinutes());
+        this.permits = new FairShare(conf.getBrowserPoolSize());
+        this.throttle = new SiteThrottle(conf);
+        for (int slot = 0; slot < conf.getBrowserPoolSize(); slot++) {
+            freeCacheSlots.add(slot);
+        }
+    }
+
+    /**
+     * Borrows a session positioned on the calendar page of the campground, blocking while all sessions are in use.
+     * Every successful call must be paired with {@link #release(SiteWebDriver)}.
+     */
+    SiteWebDriver acquire(Campground campground) throws InterruptedException {
+        if (closed) {
+            throw new IllegalStateException("Pool is closed");
+        }
+        reclaimLeaked();
+        while (!permits.tryAcquire(campground.getName(), 1, TimeUnit.MINUTES)) {
+            reclaimLeaked();
+        }
+        try {
+            SiteWebDriver driver = pollHealthyIdle(campground.getCalendarUrl());
+            if (driver == null) {
+                driver = open(campground.getCalendarUrl());
+            }
+            leased.put(driver, new Lease(campground.getName()));
+            return driver;
+        } catch (RuntimeException | InterruptedException e) {
+            permits.release(campground.getName());
+            throw e;
+        }
+    }
+
+    /**
+     * Returns a borrowed session. Dead or worn-out sessions are quit instead of being kept.
+     */
+    void release(SiteWebDriver driver) {
+        final Lease lease = leased.remove(driver);
+        if (lease == null) { // lease expired, session was already killed
+            return;
+        }
+        try {
+            if (closed || driver.markUsed() >= maxUses || !driver.isAlive()) {
+                discard(driver);
+            } else {
+                idle.offerFirst(driver);
+            }
+        } finally {
+            permits.release(lease.campgroundName);
+        }
+    }
+
+    private SiteWebDriver pollHealthyIdle(String calendarUrl) throws InterruptedException {
+        SiteWebDriver driver;
+        while ((driver = idle.pollFirst()) != null) {
+            if (driver.isAlive()) {
+                try {
+                    driver.reset(calendarUrl);
+                    return driver;
+                } catch (WebDriverException e) {
+                    synchronized (System.err) {
+                        System.err.println("Failed to reset browser session, recycling it: " + e.getMessage());
+                    }
+                } catch (InterruptedException e) {
+                    discard(driver);
+                    throw e;
+                }
+            }
+            discard(driver);
+        }
+        return null;
+    }
+
+    private SiteWebDriver open(String calendarUrl) throws InterruptedException {
+        final Integer slot = freeCacheSlots.pollFirst();
+        if (slot == null) { // cannot happen while every live session holds a permit
+            throw new IllegalStateException("No free browser cache slot");
+        }
+        try {
+            final SiteWebDriver driver = new SiteWebDriver(conf, slot, calendarUrl, throttle);
+            cacheSlots.put(driver, slot);
+            return driver;
+        } catch (RuntimeException | InterruptedException e) {
+            freeCacheSlots.add(slot);
+            throw e;
+        }
+    }
+
+    private void discard(SiteWebDriver driver) {
+        try {
+            driver.close();
+        } finally {
+            final Integer slot = cacheSlots.remove(driver);
+            if (slot != null) {
+                freeCacheSlots.add(slot);
+            }
+        }
+    }
+
+    /**
+     * Quits a borrowed session right away and gives its slot back to the pool; the borrower's
+     * later {@link #release(SiteWebDriver)} is a no-op.
+     */
+    void kill(SiteWebDriver driver) {
+        final Lease lease = leased.remove(driver);
+        if (lease != null) {
+            discard(driver);
+            permits.release(lease.campgroundName);
+        }
+    }
+
+    private void reclaimLeaked() {
+        final long now = System.currentTimeMillis();
+        final Iterator<Map.Entry<SiteWebDriver, Lease>> iterator = leased.entrySet().iterator();
+        while (iterator.hasNext()) {
+            final Map.Entry<SiteWebDriver, Lease> lease = iterator.next();
+            if (now - lease.getValue().since > leaseTimeoutMillis && leased.remove(lease.getKey(), lease.getValue())) {
+                synchronized (System.err) {
+                    System.err.println("Browser session held longer than " + leaseTimeoutMillis + " ms, killing it.");
+                }
+                discard(lease.getKey());
+                permits.release(lease.getValue().campgroundName);
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        SiteWebDriver driver;
+        while ((driver = idle.pollFirst()) != null) {
+            discard(driver);
+        }
+        leased.keySet().forEach(this::discard);
+        leased.clear();
+    }
+
+    private static class Lease {
+        private final String campgroundName;
+        private final long since = System.currentTimeMillis();
+
+        private Lease(String campgroundName) {
+            this.campgroundName = campgroundName;
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package com.essheva.assateague;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.time.LocalDate;
+import java.util.Collections;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+public class AdaptiveScanSchedulerTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void loopWithoutCompletedScanIsReportedAsFailed() throws Exception {
+        final Configuration conf = TestConfigurations.load(folder.getRoot().toPath(),
+                "campgroup.names=Loop A; Loop B", "poll.mode=adaptive", "poll.notify.delay.seconds=0");
+        final CountDownLatch loopBReleased = new CountDownLatch(1);
+        final AvailabilitySource source = new AvailabilitySource() {
+            @Override
+            public Set<Site> getAvailableSites(Configuration conf, String loopName, LocalDate from, LocalDate to)
+                    throws InterruptedException {
+                if (loopName.equals("Loop B")) {
+                    loopBReleased.await();
+                }
+                final Site site = new Site("1", loopName);
+                site.addAvailableDates(DateBitSet.of(Collections.singleton(from)));
+                return new TreeSet<>(Collections.singleton(site));
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+        final BlockingQueue<Set<String>> notifications = new LinkedBlockingQueue<>();
+        try (AdaptiveScanScheduler scheduler = new AdaptiveScanScheduler(conf, source,
+                (scanConf, sites, failedLoops, scanStartNanos) -> notifications.add(failedLoops))) {
+            scheduler.start();
+
+            final Set<String> first = notifications.poll(10, TimeUnit.SECONDS);
+            assertNotNull(first);
+            assertEquals(Collections.singleton("Loop B"), first);
+
+            loopBReleased.countDown();
+            final Set<String> second = notifications.poll(10, TimeUnit.SECONDS);
+            assertNotNull(second);
+            assertEquals(Collections.emptySet(), second);
+        }
+    }
+}
@@ -0,0 +1,171 @@
+package com.essheva.assateague;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class AvailabilityHistoryTest {
+
+    private static final int OPEN = 1;
+    private static final int FIRST_SIGHT = 2;
+    private static final Collection<String> LOOPS = Collections.singletonList("Loop A");
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final LocalDate start = LocalDate.now().plusDays(10);
+
+    @Test
+    public void reopenedHistoryReplaysOpenDates() throws IOException {
+        final Path file = folder.getRoot().toPath().resolve("availability.history");
+        try (AvailabilityHistory history = new AvailabilityHistory(file, 30, 24)) {
+            assertEquals(2, record(history, site("001", start, start.plusDays(1))));
+        }
+
+        try (AvailabilityHistory history = new AvailabilityHistory(file, 30, 24)) {
+            assertEquals(2, history.size());
+            assertEquals(0, record(history, site("001", start, start.plusDays(1))));
+            assertEquals(1, record(history, site("001", start)));
+            assertEquals(3, history.size());
+        }
+    }
+
+    @Test
+    public void failedLoopKeepsItsDates() throws IOException {
+        final Path file = folder.getRoot().toPath().resolve("availability.history");
+        try (AvailabilityHistory history = new AvailabilityHistory(file, 30, 24)) {
+            record(history, site("001", start));
+            assertEquals(0, history.record(Collections.emptyList(), LOOPS, LOOPS, start, start.plusDays(30)));
+            assertEquals(0, record(history, site("001", start)));
+        }
+    }
+
+    @Test
+    public void halfWrittenRecordIsDroppedOnOpen() throws IOException {
+        final Path file = folder.getRoot().toPath().resolve("availability.history");
+        try (AvailabilityHistory history = new AvailabilityHistory(file, 30, 24)) {
+            record(history, site("001", start, start.plusDays(1)));
+        }
+        final long intact = Files.size(file);
+        Files.write(file, new byte[]{1, 2, 3, 4, 5}, StandardOpenOption.APPEND);
+
+        try (AvailabilityHistory history = new AvailabilityHistory(file, 30, 24)) {
+            assertEquals(intact, Files.size(file));
+            assertEquals(2, history.size());
+            assertEquals(1, record(history, site("001", start)));
+            assertEquals(3, history.size());
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void foreignFileIsRejected() throws IOException {
+        final Path file = folder.getRoot().toPath().resolve("availability.history");
+        Files.write(file, "not a history".getBytes(StandardCharsets.UTF_8));
+        new AvailabilityHistory(file, 30, 24).close();
+    }
+
+    @Test
+    public void compactionDropsDatesPastRetention() throws IOException {
+        final Path file = folder.getRoot().toPath().resolve("availability.history");
+        final long now = System.currentTimeMillis() / 1000;
+        final LocalDate expired = LocalDate.now().minusDays(31);
+        final LocalDate kept = LocalDate.now().minusDays(29);
+        writeLog(file, "Loop A\t001",
+                record(now, 0, expired, OPEN), record(now, 0, expired, 0),
+                record(now, 0, kept, OPEN), record(now, 0, start, OPEN));
+
+        try (AvailabilityHistory history = new AvailabilityHistory(file, 30, 24)) {
+            assertEquals(2, history.size());
+            // the open state is rebuilt from the records kept: 'start' is still open, 'kept' is in the past
+            assertEquals(0, record(history, site("001", start)));
+        }
+    }
+
+    @Test
+    public void statisticsSkipFirstSightAndDatesStillOpen() throws IOException {
+        final Path file = folder.getRoot().toPath().resolve("availability.history");
+        final long opened = ZonedDateTime.of(start.atTime(9, 30), ZoneOffset.UTC).toEpochSecond();
+        writeLog(file, "Loop A\t001\nLoop A\t002\nLoop B\t001",
+                record(opened, 0, start, OPEN | FIRST_SIGHT), // open before history started
+                record(opened, 1, start, OPEN), record(opened + 600, 1, start, 0),
+                record(opened, 1, start.plusDays(1), OPEN), record(opened + 1800, 1, start.plusDays(1), 0),
+                record(opened, 1, start.plusDays(2), OPEN), record(opened + 3600, 1, start.plusDays(2), 0),
+                record(opened + 3600, 0, start, 0),
+                record(opened + 7200, 2, start, OPEN)); // still open
+
+        try (AvailabilityHistory history = new AvailabilityHistory(file, 30, 24)) {
+            final Map<String, Duration> medians = history.getMedianTimeToTaken();
+            assertEquals(Collections.singletonMap("Loop A", Duration.ofMinutes(30)), medians);
+
+            final Map<String, long[]> openings = history.getOpeningsByHourOfDay(ZoneOffset.UTC);
+            assertEquals(Arrays.asList("Loop A", "Loop B"), new ArrayList<>(openings.keySet()));
+            final long[] loopA = new long[24];
+            loopA[9] = 3;
+            assertArrayEquals(loopA, openings.get("Loop A"));
+            assertEquals(1, openings.get("Loop B")[11]);
+            assertEquals(1, history.getOpeningsByHourOfDay(ZoneOffset.ofHours(-4)).get("Loop B")[7]);
+        }
+    }
+
+    @Test
+    public void recordedTransitionsShowInStatistics() throws IOException {
+        final Path file = folder.getRoot().toPath().resolve("availability.history");
+        try (AvailabilityHistory history = new AvailabilityHistory(file, 30, 24)) {
+            record(history, site("001", start)); // first sight
+            record(history, site("001", start, start.plusDays(1)));
+            record(history, site("001", start));
+
+            final long[] openings = history.getOpeningsByHourOfDay(ZoneOffset.UTC).get("Loop A");
+            assertEquals(1, Arrays.stream(openings).sum());
+            final Duration median = history.getMedianTimeToTaken().get("Loop A");
+            assertTrue(median != null && median.getSeconds() < 60);
+        }
+    }
+
+    private int record(AvailabilityHistory history, Site... sites) throws IOException {
+        return history.record(Arrays.asList(sites), LOOPS, Collections.emptySet(), start, start.plusDays(30));
+    }
+
+    private static Site site(String name, LocalDate... dates) {
+        final Site site = new Site(name, "Loop A");
+        site.addAvailableDates(DateBitSet.of(Arrays.asList(dates)));
+        return site;
+    }
+
+    private static int[] record(long seconds, int siteId, LocalDate date, int flags) {
+        return new int[]{(int) seconds, siteId, (int) date.toEpochDay() << 2 | flags};
+    }
+
+    /**
+     * Writes a log in the documented format: 'AVH1' and the record size, then the records.
+     */
+    private static void writeLog(Path file, String sites, int[]... records) throws IOException {
+        final ByteBuffer buffer = ByteBuffer.allocate(8 + 12 * records.length);
+        buffer.putInt(0x41564831).putInt(12);
+        for (int[] record : records) {
+            buffer.putInt(record[0]).putInt(record[1]).putInt(record[2]);
+        }
+        Files.write(file, buffer.array());
+        Files.write(file.resolveSibling(file.getFileName() + ".sites"), sites.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,138 @@
+package com.essheva.assateague;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class AvailabilityServerTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void queryNarrowsSitesAndUnchangedScanKeepsETag() throws IOException {
+        final Configuration conf = TestConfigurations.load(folder.getRoot().toPath(),
+                "server.enabled=true", "server.port=0");
+        final LocalDate friday = LocalDate.of(2030, 6, 7);
+        try (AvailabilityServer server = new AvailabilityServer(conf, null)) {
+            server.publish(Arrays.asList(site("Loop A", "001", friday, friday.plusDays(1), friday.plusDays(5)),
+                    site("Loop B", "002", friday.plusDays(2))), Collections.emptySet());
+
+            JsonObject body = getJson(server, AvailabilityServer.PATH);
+            assertEquals(2, body.getAsJsonArray("sites").size());
+            body = getJson(server, AvailabilityServer.PATH + "?loop=Loop+A&days=FRIDAY,SATURDAY&minStay=2");
+            assertEquals(1, body.getAsJsonArray("sites").size());
+            assertEquals("[\"2030-06-07\",\"2030-06-08\"]",
+                    body.getAsJsonArray("sites").get(0).getAsJsonObject().getAsJsonArray("dates").toString());
+            body = getJson(server, AvailabilityServer.PATH + "?from=2030-06-09&to=2030-06-30");
+            assertEquals(2, body.getAsJsonArray("sites").size());
+            assertEquals(400, get(server, AvailabilityServer.PATH + "?minStay=many").getResponseCode());
+
+            final String etag = get(server, AvailabilityServer.PATH).getHeaderField("ETag");
+            server.publish(Arrays.asList(site("Loop A", "001", friday, friday.plusDays(1), friday.plusDays(5)),
+                    site("Loop B", "002", friday.plusDays(2))), Collections.emptySet());
+            assertEquals(304, get(server, AvailabilityServer.PATH, etag).getResponseCode());
+
+            // the scan of Loop B failed: its sites are kept from the previous scan
+            server.publish(Collections.singletonList(site("Loop A", "001", friday)), Collections.singleton("Loop B"));
+            assertEquals(200, get(server, AvailabilityServer.PATH, etag).getResponseCode());
+            body = getJson(server, AvailabilityServer.PATH);
+            assertEquals(2, body.getAsJsonArray("sites").size());
+            assertEquals("[\"Loop B\"]", body.getAsJsonArray("failedLoops").toString());
+        }
+    }
+
+    @Test
+    public void historyIsServedWhenKept() throws IOException {
+        final Path dir = folder.newFolder().toPath();
+        final Configuration conf = TestConfigurations.load(dir, "server.enabled=true", "server.port=0");
+        final LocalDate start = LocalDate.now().plusDays(10);
+        try (AvailabilityHistory history = new AvailabilityHistory(dir.resolve("availability.history"), 30, 24);
+             AvailabilityServer server = new AvailabilityServer(conf, history)) {
+            final Site site = new Site("001", "Bayside Loop A");
+            site.addAvailableDates(DateBitSet.of(Collections.singleton(start)));
+            history.record(Collections.emptyList(), Collections.singleton("Bayside Loop A"),
+                    Collections.emptySet(), start, start.plusDays(30));
+            history.record(Collections.singletonList(site), Collections.singleton("Bayside Loop A"),
+                    Collections.emptySet(), start, start.plusDays(30));
+
+            final HttpURLConnection connection = get(server, AvailabilityServer.HISTORY_PATH + "?zone=UTC");
+            assertEquals(200, connection.getResponseCode());
+            final JsonObject body;
+            try (Reader reader = new InputStreamReader(connection.getInputStream(), StandardCharsets.UTF_8)) {
+                body = new JsonParser().parse(reader).getAsJsonObject();
+            }
+            assertEquals("UTC", body.get("zone").getAsString());
+            final JsonObject loop = body.getAsJsonObject("loops").getAsJsonObject("Bayside Loop A");
+            long openings = 0;
+            for (int hour = 0; hour < 24; hour++) {
+                openings += loop.getAsJsonArray("openingsByHourOfDay").get(hour).getAsLong();
+            }
+            assertEquals(1, openings);
+            assertTrue(loop.get("medianMinutesToTaken").isJsonNull());
+
+            assertEquals(400, get(server, AvailabilityServer.HISTORY_PATH + "?zone=Nowhere/Special").getResponseCode());
+            assertEquals(400, get(server, AvailabilityServer.HISTORY_PATH + "?loop=x").getResponseCode());
+        }
+    }
+
+    @Test
+    public void historyIsNotServedWithoutIt() throws IOException {
+        final Configuration conf = TestConfigurations.load(folder.getRoot().toPath(),
+                "server.enabled=true", "server.port=0");
+        try (AvailabilityServer server = new AvailabilityServer(conf, null)) {
+            assertEquals(404, get(server, AvailabilityServer.HISTORY_PATH).getResponseCode());
+            assertEquals(200, get(server, AvailabilityServer.PATH).getResponseCode());
+        }
+    }
+
+    private static Site site(String loopName, String siteName, LocalDate... dates) {
+        final Site site = new Site(siteName, loopName);
+        site.addAvailableDates(DateBitSet.of(Arrays.asList(dates)));
+        return site;
+    }
+
+    private static JsonObject getJson(AvailabilityServer server, String path) throws IOException {
+        final HttpURLConnection connection = get(server, path);
+        assertEquals(200, connection.getResponseCode());
+        try (Reader reader = new InputStreamReader(connection.getInputStream(), StandardCharsets.UTF_8)) {
+            return new JsonParser().parse(reader).getAsJsonObject();
+        }
+    }
+
+    private static HttpURLConnection get(AvailabilityServer server, String path) throws IOException {
+        return get(server, path, null);
+    }
+
+    private static HttpURLConnection get(AvailabilityServer server, String path, String ifNoneMatch)
+            throws IOException {
+        final HttpURLConnection connection = (HttpURLConnection)
+                new URL("http://127.0.0.1:" + server.getPort() + path).openConnection();
+        if (ifNoneMatch != null) {
+            connection.setRequestProperty("If-None-Match", ifNoneMatch);
+        }
+        connection.getResponseCode();
+        final InputStream error = connection.getErrorStream();
+        if (error != null) {
+            error.close();
+        }
+        return connection;
+    }
+}
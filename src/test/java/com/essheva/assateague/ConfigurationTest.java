@@ -0,0 +1,194 @@
+package com.essheva.assateague;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ConfigurationTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void reloadRejectsInvalidConfigurationAndKeepsCurrent() throws IOException {
+        final Path dir = folder.newFolder().toPath();
+        TestConfigurations.write(dir, "poll.interval.minutes=30");
+        final Configuration current = Configuration.reload(dir);
+        assertSame(current, Configuration.getInstance());
+
+        TestConfigurations.write(dir, "poll.mode=sometimes");
+        try {
+            Configuration.reload(dir);
+            fail("Invalid 'poll.mode' accepted");
+        } catch (IllegalArgumentException expected) {
+        }
+        assertSame(current, Configuration.getInstance());
+        assertEquals(30, Configuration.getInstance().getPollIntervalMinutes());
+
+        Files.delete(dir.resolve(Configuration.APP_PROPERTIES));
+        try {
+            Configuration.reload(dir);
+            fail("Missing configuration file accepted");
+        } catch (IOException expected) {
+        }
+        assertSame(current, Configuration.getInstance());
+    }
+
+    @Test
+    public void reloadKeepsRestartRequiredValues() throws IOException {
+        final Path dir = folder.newFolder().toPath();
+        TestConfigurations.write(dir, "poll.interval.minutes=30");
+        final int poolSize = Configuration.reload(dir).getBrowserPoolSize();
+
+        TestConfigurations.write(dir, "poll.interval.minutes=45", "browser.pool.size=" + (poolSize + 1));
+        final Configuration reloaded = Configuration.reload(dir);
+        assertEquals(45, reloaded.getPollIntervalMinutes());
+        assertEquals(poolSize, reloaded.getBrowserPoolSize());
+        assertEquals(poolSize, Configuration.getInstance().getBrowserPoolSize());
+        assertTrue(reloaded.getRestartRequiredChanges(Configuration.load(dir)).contains("browser.*"));
+    }
+
+    @Test
+    public void loadDoesNotChangeCurrentConfiguration() throws IOException {
+        final Path dir = folder.newFolder().toPath();
+        TestConfigurations.write(dir, "poll.interval.minutes=30");
+        final Configuration current = Configuration.reload(dir);
+
+        TestConfigurations.write(dir, "poll.interval.minutes=60", "browser.pool.size=7");
+        final Configuration loaded = Configuration.load(dir);
+        assertEquals(60, loaded.getPollIntervalMinutes());
+        assertEquals(7, loaded.getBrowserPoolSize());
+        assertSame(current, Configuration.getInstance());
+    }
+
+    @Test
+    public void readersSeeWholeSnapshotsWhileReloading() throws Exception {
+        final Path first = folder.newFolder().toPath();
+        final Path second = folder.newFolder().toPath();
+        TestConfigurations.write(first, "poll.interval.minutes=20", "poll.near.days=20");
+        TestConfigurations.write(second, "poll.interval.minutes=40", "poll.near.days=40");
+        Configuration.reload(first);
+
+        final AtomicBoolean reloading = new AtomicBoolean(true);
+        final ExecutorService readers = Executors.newFixedThreadPool(4);
+        final List<Future<Integer>> results = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            results.add(readers.submit(() -> {
+                int reads = 0;
+                while (reloading.get()) {
+                    final Configuration conf = Configuration.getInstance();
+                    assertEquals(conf.getPollIntervalMinutes(), conf.getPollNearDays());
+                    reads++;
+                }
+                return reads;
+            }));
+        }
+        try {
+            for (int i = 0; i < 200; i++) {
+                final Configuration reloaded = Configuration.reload(i % 2 == 0 ? second : first);
+                assertEquals(i % 2 == 0 ? 40 : 20, reloaded.getPollIntervalMinutes());
+            }
+        } finally {
+            reloading.set(false);
+            readers.shutdown();
+        }
+        for (Future<Integer> result : results) {
+            assertTrue(result.get() > 0);
+        }
+        assertTrue(readers.awaitTermination(10, TimeUnit.SECONDS));
+        assertEquals(20, Configuration.getInstance().getPollIntervalMinutes());
+    }
+
+    @Test
+    public void sameLoopNameInTwoCampgroundsIsQualified() throws IOException {
+        final Path dir = folder.newFolder().toPath();
+        TestConfigurations.write(dir, "campgroup.names=north/Loop A; Loop B",
+                "campgrounds=north; south",
+                "campground.north.url=https://example.com/north",
+                "campground.north.loops=Loop A; Loop B",
+                "campground.south.url=https://example.com/south",
+                "campground.south.loops=Loop A");
+        final Configuration conf = Configuration.load(dir);
+
+        assertEquals(new HashSet<>(Arrays.asList("north/Loop A", "north/Loop B")), conf.getCampGroups());
+        final Campground north = conf.getCampground("north/Loop A");
+        assertEquals("north", north.getName());
+        assertEquals("Loop A", north.getPageLoopName("north/Loop A"));
+        assertEquals("south/Loop A", conf.getCampgrounds().get(1).qualify("Loop A"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void ambiguousLoopNameIsRejected() throws IOException {
+        final Path dir = folder.newFolder().toPath();
+        TestConfigurations.write(dir, "campgroup.names=Loop A",
+                "campgrounds=north; south",
+                "campground.north.url=https://example.com/north",
+                "campground.north.loops=Loop A",
+                "campground.south.url=https://example.com/south",
+                "campground.south.loops=Loop A");
+        Configuration.load(dir);
+    }
+
+    @Test
+    public void campGroupsTakeTurnsBetweenCampgrounds() throws IOException {
+        final Path dir = folder.newFolder().toPath();
+        TestConfigurations.write(dir, "campgroup.names=north/Loop A; Loop B; Loop C; south/Loop A",
+                "campgrounds=north; south",
+                "campground.north.url=https://example.com/north",
+                "campground.north.loops=Loop A; Loop B; Loop C",
+                "campground.south.url=https://example.com/south",
+                "campground.south.loops=Loop A");
+        final Configuration conf = Configuration.load(dir);
+
+        assertEquals(Arrays.asList("north/Loop A", "south/Loop A", "north/Loop B", "north/Loop C"),
+                new ArrayList<>(conf.getCampGroups()));
+        assertEquals("south", conf.getCampground("south/Loop A").getName());
+        assertEquals("https://example.com/south", conf.getCampground("south/Loop A").getCalendarUrl());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void httpSourceNeedsApiIdOfEveryCampground() throws IOException {
+        final Path dir = folder.newFolder().toPath();
+        TestConfigurations.write(dir, "availability.source=http",
+                "campgrounds=north",
+                "campground.north.url=https://example.com/north",
+                "campground.north.loops=Bayside Loop A");
+        Configuration.load(dir);
+    }
+
+    @Test
+    public void jsHeapLimitIsSplitBetweenPooledBrowsers() throws IOException {
+        final Path dir = folder.newFolder().toPath();
+        TestConfigurations.write(dir, "browser.pool.size=4", "browser.js.heap.limit.mb=2048");
+        assertEquals(512, Configuration.load(dir).getBrowserHeapLimitMb());
+    }
+
+    @Test
+    public void loopNamesStayPlainWithoutCatalog() throws IOException {
+        final Path dir = folder.newFolder().toPath();
+        TestConfigurations.write(dir);
+        final Configuration conf = Configuration.load(dir);
+
+        assertEquals(Collections.singleton("Bayside Loop A"), conf.getCampGroups());
+        assertEquals("Bayside Loop A", conf.getCampground("Bayside Loop A").getPageLoopName("Bayside Loop A"));
+    }
+}
@@ -0,0 +1,164 @@
+package com.essheva.assateague;
+
+import org.junit.Test;
+
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.stream.Collector;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks the bit operations against the date by date TreeSet logic they replaced.
+ */
+public class DateBitSetTest {
+
+    private static final LocalDate DEC_29 = LocalDate.of(2029, 12, 29);
+
+    @Test
+    public void runsCrossMonthAndYearEnds() {
+        final DateBitSet dates = DateBitSet.of(Arrays.asList(
+                LocalDate.of(2029, 11, 29), LocalDate.of(2029, 11, 30), LocalDate.of(2029, 12, 1),
+                DEC_29, DEC_29.plusDays(1), DEC_29.plusDays(2), DEC_29.plusDays(3),
+                LocalDate.of(2030, 2, 27)));
+
+        assertEquals(Arrays.asList(DEC_29, DEC_29.plusDays(1), DEC_29.plusDays(2), DEC_29.plusDays(3)),
+                list(dates.runsOfAtLeast(4)));
+        assertEquals(7, dates.runsOfAtLeast(3).size());
+        final List<String> runs = new ArrayList<>();
+        dates.forEachRun((first, last) -> runs.add(first + ".." + last));
+        assertEquals(Arrays.asList("2029-11-29..2029-12-01", "2029-12-29..2030-01-01", "2030-02-27..2030-02-27"),
+                runs);
+    }
+
+    @Test
+    public void operationsMatchTreeSetSemantics() {
+        final Random random = new Random(42);
+        for (int round = 0; round < 200; round++) {
+            final Set<LocalDate> a = randomDates(random);
+            final Set<LocalDate> b = randomDates(random);
+            final DateBitSet bitsA = DateBitSet.of(a);
+            final DateBitSet bitsB = DateBitSet.of(b);
+
+            final int minLength = 1 + random.nextInt(4);
+            assertEquals(runsOfAtLeast(a, minLength), bitsA.runsOfAtLeast(minLength).toSortedSet());
+
+            final Set<DayOfWeek> days = EnumSet.noneOf(DayOfWeek.class);
+            for (DayOfWeek day : DayOfWeek.values()) {
+                if (random.nextBoolean()) {
+                    days.add(day);
+                }
+            }
+            assertEquals(a.stream().filter(date -> days.contains(date.getDayOfWeek())).collect(toTreeSet()),
+                    bitsA.maskDaysOfWeek(days).toSortedSet());
+
+            final LocalDate from = DEC_29.plusDays(random.nextInt(200) - 100);
+            final LocalDate to = from.plusDays(random.nextInt(120) - 10);
+            assertEquals(a.stream().filter(date -> !date.isBefore(from) && !date.isAfter(to)).collect(toTreeSet()),
+                    bitsA.clip(from, to).toSortedSet());
+
+            final Set<LocalDate> aNotB = new TreeSet<>(a);
+            aNotB.removeAll(b);
+            assertEquals(aNotB, bitsA.andNot(bitsB).toSortedSet());
+
+            final Set<LocalDate> union = new TreeSet<>(a);
+            union.addAll(b);
+            final DateBitSet bitsUnion = DateBitSet.of(a);
+            bitsUnion.addAll(bitsB);
+            assertEquals(union, bitsUnion.toSortedSet());
+
+            assertEquals(a.equals(b), bitsA.equals(bitsB));
+            assertEquals(bitsA, DateBitSet.of(new ArrayList<>(a)));
+        }
+    }
+
+    @Test
+    public void setsWithDifferentOriginsCompareByDates() {
+        final DateBitSet early = DateBitSet.of(Arrays.asList(DEC_29.minusDays(300), DEC_29, DEC_29.plusDays(70)));
+        final DateBitSet late = DateBitSet.of(Arrays.asList(DEC_29, DEC_29.plusDays(70)));
+        assertEquals(Collections.singleton(DEC_29.minusDays(300)), early.andNot(late).toSortedSet());
+        assertTrue(late.andNot(early).isEmpty());
+
+        early.remove(DEC_29.minusDays(300));
+        assertEquals(late, early);
+        assertEquals(early, late);
+        assertEquals(late.hashCode(), early.hashCode());
+
+        late.add(DEC_29.minusDays(1000)); // moves the origin of 'late' before the one of 'early'
+        assertNotEquals(late, early);
+        late.remove(DEC_29.minusDays(1000));
+        assertEquals(late, early);
+    }
+
+    @Test
+    public void emptySets() {
+        final DateBitSet empty = new DateBitSet();
+        final DateBitSet dates = DateBitSet.of(Collections.singleton(DEC_29));
+
+        assertTrue(empty.runsOfAtLeast(1).isEmpty());
+        assertTrue(empty.maskDaysOfWeek(EnumSet.allOf(DayOfWeek.class)).isEmpty());
+        assertTrue(empty.clip(DEC_29, DEC_29.plusDays(10)).isEmpty());
+        assertTrue(empty.andNot(dates).isEmpty());
+        assertEquals(dates, dates.andNot(empty));
+        assertEquals(new DateBitSet(), empty);
+        assertNotEquals(empty, dates);
+        assertTrue(dates.clip(DEC_29.plusDays(1), DEC_29.plusDays(5)).isEmpty());
+        assertTrue(dates.clip(DEC_29.minusDays(5), DEC_29.minusDays(1)).isEmpty());
+
+        empty.addAll(dates);
+        assertEquals(dates, empty);
+    }
+
+    private static Set<LocalDate> randomDates(Random random) {
+        final Set<LocalDate> dates = new TreeSet<>();
+        final LocalDate start = DEC_29.plusDays(random.nextInt(150) - 75);
+        final int count = random.nextInt(60);
+        for (int i = 0; i < count; i++) {
+            dates.add(start.plusDays(random.nextInt(90)));
+        }
+        return dates;
+    }
+
+    /**
+     * Former AvailabilityFilter.getConsequentDatesRange.
+     */
+    private static Set<LocalDate> runsOfAtLeast(Set<LocalDate> input, int minLength) {
+        final Set<LocalDate> result = new TreeSet<>();
+        final Set<LocalDate> run = new TreeSet<>();
+        LocalDate prev = null;
+        for (LocalDate cur : input) {
+            if (prev != null && !prev.plus(1, ChronoUnit.DAYS).equals(cur)) {
+                if (run.size() >= minLength) {
+                    result.addAll(run);
+                }
+                run.clear();
+            }
+            run.add(cur);
+            prev = cur;
+        }
+        if (run.size() >= minLength) {
+            result.addAll(run);
+        }
+        return result;
+    }
+
+    private static List<LocalDate> list(DateBitSet dates) {
+        return dates.stream().collect(Collectors.toList());
+    }
+
+    private static Collector<LocalDate, ?, TreeSet<LocalDate>> toTreeSet() {
+        return Collectors.toCollection(TreeSet::new);
+    }
+}
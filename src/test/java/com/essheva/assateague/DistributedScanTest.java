@@ -0,0 +1,238 @@
+package com.essheva.assateague;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class DistributedScanTest {
+
+    private static final long TIMEOUT_MILLIS = TimeUnit.SECONDS.toMillis(30);
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Path queueDir;
+    private Configuration conf;
+    private final List<DistributedScanWorker> workers = new ArrayList<>();
+    private final List<Thread> workerThreads = new ArrayList<>();
+
+    @Before
+    public void setUp() throws IOException {
+        queueDir = folder.newFolder("queue").toPath();
+        final Path confDir = folder.newFolder("conf").toPath();
+        conf = TestConfigurations.load(confDir, "campgroup.names=Loop A; Loop B; Loop C; Loop D",
+                "distributed.dir=" + queueDir, "distributed.lease.seconds=3", "distributed.max.attempts=2",
+                "scan.concurrency=1", "scan.retries=0");
+        Configuration.reload(confDir); // workers scan under the current configuration
+    }
+
+    @After
+    public void tearDown() throws InterruptedException {
+        workers.forEach(DistributedScanWorker::close);
+        for (Thread thread : workerThreads) {
+            thread.join(TIMEOUT_MILLIS);
+        }
+    }
+
+    @Test
+    public void twoWorkersScanAllUnits() throws Exception {
+        final FakeSource source = new FakeSource();
+        startWorker(conf, source);
+        startWorker(conf, source);
+
+        final Set<Site> sites = ConcurrentHashMap.newKeySet();
+        final Set<String> failedLoops =
+                new DistributedScanCoordinator(conf).scan(ScanUnit.plan(conf), TIMEOUT_MILLIS, sites::addAll);
+
+        assertEquals(Collections.emptySet(), failedLoops);
+        assertEquals(new HashSet<>(Arrays.asList("Loop A", "Loop B", "Loop C", "Loop D")), loopsOf(sites));
+        assertEquals(4, source.scans.get());
+    }
+
+    @Test
+    public void workerClaimsNextUnitWhileAnotherIsStillScanning() throws Exception {
+        final Configuration twoSlots = TestConfigurations.load(folder.newFolder().toPath(),
+                "campgroup.names=Loop A; Loop B; Loop C; Loop D", "distributed.dir=" + queueDir,
+                "distributed.lease.seconds=3", "scan.concurrency=2", "scan.retries=0");
+        final CountDownLatch loopAReleased = new CountDownLatch(1);
+        final FakeSource source = new FakeSource() {
+            @Override
+            public Set<Site> getAvailableSites(Configuration conf, String loopName, LocalDate from, LocalDate to)
+                    throws IOException, InterruptedException {
+                if (loopName.equals("Loop A")) {
+                    loopAReleased.await();
+                }
+                return super.getAvailableSites(conf, loopName, from, to);
+            }
+        };
+        startWorker(twoSlots, source);
+
+        final Set<String> delivered = ConcurrentHashMap.newKeySet();
+        final ExecutorService coordinatorThread = Executors.newSingleThreadExecutor();
+        try {
+            final Future<Set<String>> failedLoops = coordinatorThread.submit(() ->
+                    new DistributedScanCoordinator(conf).scan(ScanUnit.plan(conf), TIMEOUT_MILLIS,
+                            sites -> delivered.addAll(loopsOf(sites))));
+            final long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+            while (delivered.size() < 3 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(50);
+            }
+            assertEquals(new HashSet<>(Arrays.asList("Loop B", "Loop C", "Loop D")), delivered);
+
+            loopAReleased.countDown();
+            assertEquals(Collections.emptySet(), failedLoops.get(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+            assertTrue(delivered.contains("Loop A"));
+        } finally {
+            loopAReleased.countDown();
+            coordinatorThread.shutdownNow();
+        }
+    }
+
+    @Test
+    public void unitOfDeadWorkerIsHandedOutAgainAfterLeaseExpired() throws Exception {
+        final Configuration oneLoop = TestConfigurations.load(folder.newFolder().toPath(),
+                "campgroup.names=Loop A", "distributed.dir=" + queueDir, "distributed.lease.seconds=3",
+                "scan.concurrency=1", "scan.retries=0");
+        final CountDownLatch claimed = new CountDownLatch(1);
+        final AtomicBoolean released = new AtomicBoolean();
+        final FakeSource hanging = new FakeSource() {
+            @Override
+            public Set<Site> getAvailableSites(Configuration conf, String loopName, LocalDate from, LocalDate to) {
+                claimed.countDown();
+                while (!released.get()) { // hung for good, deaf to cancellation
+                    try {
+                        Thread.sleep(50);
+                    } catch (InterruptedException ignored) {
+                    }
+                }
+                throw new IllegalStateException("released");
+            }
+        };
+        final DistributedScanWorker dying = startWorker(oneLoop, hanging);
+
+        final ExecutorService coordinatorThread = Executors.newSingleThreadExecutor();
+        try {
+            final Set<Site> sites = ConcurrentHashMap.newKeySet();
+            final Future<Set<String>> failedLoops = coordinatorThread.submit(() ->
+                    new DistributedScanCoordinator(oneLoop).scan(ScanUnit.plan(oneLoop), TIMEOUT_MILLIS,
+                            sites::addAll));
+            assertTrue(claimed.await(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+            dying.close(); // stops renewing its lease without reporting anything, like a killed process
+            final long diedMillis = System.currentTimeMillis();
+
+            final FakeSource healthy = new FakeSource();
+            startWorker(oneLoop, healthy);
+            assertEquals(Collections.emptySet(), failedLoops.get(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+            assertEquals(Collections.singleton("Loop A"), loopsOf(sites));
+            assertEquals(1, healthy.scans.get());
+            assertTrue(System.currentTimeMillis() - diedMillis >= TimeUnit.SECONDS.toMillis(3));
+        } finally {
+            released.set(true);
+            coordinatorThread.shutdownNow();
+        }
+    }
+
+    @Test
+    public void unitIsGivenUpAfterMaxAttempts() throws Exception {
+        final FakeSource failing = new FakeSource() {
+            @Override
+            public Set<Site> getAvailableSites(Configuration conf, String loopName, LocalDate from, LocalDate to)
+                    throws IOException {
+                scans.incrementAndGet();
+                throw new IOException("site is down");
+            }
+        };
+        startWorker(conf, failing);
+
+        final List<ScanUnit> units = Collections.singletonList(new ScanUnit("Loop B", conf.getSearchStart(),
+                conf.getSearchStop()));
+        final Set<String> failedLoops = new DistributedScanCoordinator(conf).scan(units, TIMEOUT_MILLIS, sites -> {
+            throw new AssertionError("No result expected");
+        });
+
+        assertEquals(Collections.singleton("Loop B"), failedLoops);
+        assertEquals(conf.getDistributedMaxAttempts(), failing.scans.get());
+    }
+
+    @Test
+    public void unitsNotScannedWithinTimeoutAreGivenUp() throws Exception {
+        final long startMillis = System.currentTimeMillis();
+        final Set<String> failedLoops = new DistributedScanCoordinator(conf).scan(ScanUnit.plan(conf), 1500, sites -> {
+            throw new AssertionError("No result expected");
+        });
+
+        assertEquals(new HashSet<>(Arrays.asList("Loop A", "Loop B", "Loop C", "Loop D")), failedLoops);
+        assertTrue(System.currentTimeMillis() - startMillis < TIMEOUT_MILLIS);
+        final File[] todo = queueDir.resolve("todo").toFile().listFiles();
+        assertTrue(todo != null && todo.length == 0);
+        assertFalse(Files.list(queueDir.resolve("leased")).findAny().isPresent());
+    }
+
+    private DistributedScanWorker startWorker(Configuration workerConf, AvailabilitySource source) throws IOException {
+        final DistributedScanWorker worker = new DistributedScanWorker(workerConf, source);
+        final Thread thread = new Thread(() -> {
+            try {
+                worker.run();
+            } catch (InterruptedException ignored) {
+            }
+        }, "test-worker-" + workers.size());
+        thread.setDaemon(true);
+        thread.start();
+        workers.add(worker);
+        workerThreads.add(thread);
+        return worker;
+    }
+
+    private static Set<String> loopsOf(Set<Site> sites) {
+        final Set<String> loops = new TreeSet<>();
+        sites.forEach(site -> loops.add(site.getLoopName()));
+        return loops;
+    }
+
+    /**
+     * Finds site '1' of the loop available on the first day of the unit.
+     */
+    private static class FakeSource implements AvailabilitySource {
+        final AtomicInteger scans = new AtomicInteger();
+
+        @Override
+        public Set<Site> getAvailableSites(Configuration conf, String loopName, LocalDate from, LocalDate to)
+                throws IOException, InterruptedException {
+            scans.incrementAndGet();
+            final Site site = new Site("1", loopName);
+            site.addAvailableDates(DateBitSet.of(Collections.singleton(from)));
+            return new TreeSet<>(Collections.singleton(site));
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
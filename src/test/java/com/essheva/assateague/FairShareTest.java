@@ -0,0 +1,62 @@
+package com.essheva.assateague;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class FairShareTest {
+
+    @Test
+    public void freedPermitGoesToGroupHoldingFewest() throws Exception {
+        final FairShare share = new FairShare(2);
+        assertTrue(share.tryAcquire("north", 0, TimeUnit.SECONDS));
+        assertTrue(share.tryAcquire("north", 0, TimeUnit.SECONDS));
+
+        final AtomicBoolean northAcquired = new AtomicBoolean();
+        final Thread north = acquireInBackground(share, "north", northAcquired);
+        assertWaiting(north);
+        final AtomicBoolean southAcquired = new AtomicBoolean();
+        final Thread south = acquireInBackground(share, "south", southAcquired);
+        assertWaiting(south);
+
+        share.release("north"); // north still holds one, south none: south goes first though it came later
+        south.join(1000);
+        assertTrue(southAcquired.get());
+        assertWaiting(north);
+
+        share.release("north");
+        north.join(1000);
+        assertTrue(northAcquired.get());
+    }
+
+    @Test
+    public void waitGivesUpAfterTimeout() throws Exception {
+        final FairShare share = new FairShare(1);
+        assertTrue(share.tryAcquire("north", 0, TimeUnit.SECONDS));
+        assertFalse(share.tryAcquire("south", 50, TimeUnit.MILLISECONDS));
+
+        share.release("north");
+        assertTrue(share.tryAcquire("south", 0, TimeUnit.SECONDS));
+    }
+
+    private static Thread acquireInBackground(FairShare share, String group, AtomicBoolean acquired) {
+        final Thread thread = new Thread(() -> {
+            try {
+                acquired.set(share.tryAcquire(group, 30, TimeUnit.SECONDS));
+            } catch (InterruptedException ignored) {
+            }
+        });
+        thread.setDaemon(true);
+        thread.start();
+        return thread;
+    }
+
+    private static void assertWaiting(Thread thread) throws InterruptedException {
+        thread.join(100);
+        assertTrue(thread.isAlive());
+    }
+}
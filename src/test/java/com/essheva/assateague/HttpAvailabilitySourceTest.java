@@ -0,0 +1,210 @@
+package com.essheva.assateague;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class HttpAvailabilitySourceTest {
+
+    private static final String JUNE = "{\"campsites\": {" +
+            "\"101\": {\"site\": \"001\", \"loop\": \"Loop A\", \"availabilities\": {" +
+            "\"2030-06-07T00:00:00Z\": \"Available\", \"2030-06-08T00:00:00Z\": \"Reserved\", " +
+            "\"2030-06-14T00:00:00Z\": \"Walk-up\", \"2030-06-15T00:00:00Z\": \"Not Available\"}}, " +
+            "\"102\": {\"site\": \"002\", \"loop\": \"Loop A\", \"availabilities\": {" +
+            "\"2030-06-21T00:00:00Z\": \"Reserved\"}}, " +
+            "\"201\": {\"site\": \"001\", \"loop\": \"Loop B\", \"availabilities\": {" +
+            "\"2030-06-07T00:00:00Z\": \"Available\"}}}}";
+    private static final String JULY = "{\"campsites\": {" +
+            "\"101\": {\"site\": \"001\", \"loop\": \"Loop A\", \"availabilities\": {" +
+            "\"2030-07-05T00:00:00Z\": \"Available\"}}}}";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private HttpServer server;
+    private final Map<String, String> bodyByMonth = new ConcurrentHashMap<>();
+    private final List<String> requestedMonths = new CopyOnWriteArrayList<>();
+    private final List<Integer> clientPorts = new CopyOnWriteArrayList<>();
+    private final List<String> acceptedEncodings = new CopyOnWriteArrayList<>();
+    private volatile boolean gzip;
+    private volatile int failures;
+
+    @Before
+    public void setUp() throws IOException {
+        bodyByMonth.put("2030-06", JUNE);
+        bodyByMonth.put("2030-07", JULY);
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/api/camps/availability/campground/", this::serveMonth);
+        server.start();
+    }
+
+    @After
+    public void tearDown() {
+        server.stop(0);
+    }
+
+    @Test
+    public void availableAndWalkUpDatesOfLoopAreFound() throws Exception {
+        final Configuration conf = load("http.cache.seconds=60");
+        try (HttpAvailabilitySource source = new HttpAvailabilitySource(conf)) {
+            final Set<Site> sites = source.getAvailableSites(conf, "Loop A",
+                    LocalDate.of(2030, 6, 1), LocalDate.of(2030, 6, 30));
+
+            assertEquals(1, sites.size());
+            final Site site = sites.iterator().next();
+            assertEquals("001", site.getSiteName());
+            assertEquals("Loop A", site.getLoopName());
+            assertEquals(baseUrl() + "/camping/campsites/101", site.getSiteLink());
+            assertEquals(new HashSet<>(Arrays.asList(LocalDate.of(2030, 6, 7), LocalDate.of(2030, 6, 14))),
+                    site.getAvailableDates());
+        }
+    }
+
+    @Test
+    public void gzipResponseIsDecoded() throws Exception {
+        gzip = true;
+        final Configuration conf = load("http.cache.seconds=60");
+        try (HttpAvailabilitySource source = new HttpAvailabilitySource(conf)) {
+            final Set<Site> sites = source.getAvailableSites(conf, "Loop B",
+                    LocalDate.of(2030, 6, 1), LocalDate.of(2030, 6, 30));
+
+            assertEquals(Collections.singleton(LocalDate.of(2030, 6, 7)), datesOf(sites, "001"));
+            assertEquals(Collections.singletonList("gzip"), acceptedEncodings);
+        }
+    }
+
+    @Test
+    public void monthsOfPeriodAreCombinedAndClipped() throws Exception {
+        final Configuration conf = load("http.cache.seconds=60");
+        try (HttpAvailabilitySource source = new HttpAvailabilitySource(conf)) {
+            final Set<Site> sites = source.getAvailableSites(conf, "Loop A",
+                    LocalDate.of(2030, 6, 10), LocalDate.of(2030, 7, 31));
+
+            assertEquals(new HashSet<>(Arrays.asList(LocalDate.of(2030, 6, 14), LocalDate.of(2030, 7, 5))),
+                    datesOf(sites, "001"));
+            assertEquals(Arrays.asList("2030-06", "2030-07"), requestedMonths);
+        }
+    }
+
+    @Test
+    public void monthIsFetchedOnceForAllLoopsWithinCacheTtl() throws Exception {
+        final Configuration conf = load("http.cache.seconds=60");
+        final AtomicLong clock = new AtomicLong(System.currentTimeMillis());
+        try (HttpAvailabilitySource source = new HttpAvailabilitySource(conf, clock::get)) {
+            source.getAvailableSites(conf, "Loop A", LocalDate.of(2030, 6, 1), LocalDate.of(2030, 6, 30));
+            clock.addAndGet(59_999);
+            source.getAvailableSites(conf, "Loop B", LocalDate.of(2030, 6, 1), LocalDate.of(2030, 6, 30));
+            assertEquals(1, requestedMonths.size());
+
+            clock.addAndGet(1);
+            source.getAvailableSites(conf, "Loop A", LocalDate.of(2030, 6, 1), LocalDate.of(2030, 6, 30));
+            assertEquals(2, requestedMonths.size());
+        }
+    }
+
+    @Test
+    public void errorResponseFailsScanAndKeepsConnectionReusable() throws Exception {
+        final Configuration conf = load("http.cache.seconds=0");
+        try (HttpAvailabilitySource source = new HttpAvailabilitySource(conf)) {
+            failures = 1;
+            try {
+                source.getAvailableSites(conf, "Loop A", LocalDate.of(2030, 6, 1), LocalDate.of(2030, 6, 30));
+                fail("HTTP 503 accepted");
+            } catch (IOException expected) {
+                assertTrue(expected.getMessage().contains("HTTP 503"));
+            }
+
+            final Set<Site> sites = source.getAvailableSites(conf, "Loop A",
+                    LocalDate.of(2030, 6, 1), LocalDate.of(2030, 6, 30));
+            assertEquals(1, sites.size());
+            assertEquals(2, clientPorts.size());
+            assertEquals(clientPorts.get(0), clientPorts.get(1)); // error body drained, connection kept alive
+        }
+    }
+
+    private Configuration load(String... properties) throws IOException {
+        final List<String> lines = new ArrayList<>(Arrays.asList("campgroup.names=Loop A; Loop B",
+                "http.base.url=" + baseUrl()));
+        Collections.addAll(lines, properties);
+        return TestConfigurations.load(folder.getRoot().toPath(), lines.toArray(new String[0]));
+    }
+
+    private String baseUrl() {
+        return "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    private static Set<LocalDate> datesOf(Set<Site> sites, String siteName) {
+        for (Site site : sites) {
+            if (site.getSiteName().equals(siteName)) {
+                return site.getAvailableDates();
+            }
+        }
+        throw new AssertionError("No site " + siteName + " in " + sites);
+    }
+
+    private void serveMonth(HttpExchange exchange) throws IOException {
+        clientPorts.add(exchange.getRemoteAddress().getPort());
+        acceptedEncodings.add(exchange.getRequestHeaders().getFirst("Accept-Encoding"));
+        final String query = exchange.getRequestURI().getQuery();
+        final String month = query.substring("start_date=".length(), "start_date=".length() + 7);
+        requestedMonths.add(month);
+        final String json = bodyByMonth.get(month);
+
+        if (failures > 0) {
+            failures--;
+            send(exchange, 503, "{\"error\": \"Service Unavailable\"}".getBytes(StandardCharsets.UTF_8));
+            return;
+        }
+        byte[] body = (json != null ? json : "{}").getBytes(StandardCharsets.UTF_8);
+        if (gzip) {
+            final ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+            try (OutputStream out = new GZIPOutputStream(compressed)) {
+                out.write(body);
+            }
+            body = compressed.toByteArray();
+            exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+        }
+        send(exchange, 200, body);
+    }
+
+    private static void send(HttpExchange exchange, int code, byte[] body) throws IOException {
+        try (InputStream in = exchange.getRequestBody()) {
+            while (in.read() != -1) {
+                // consume request
+            }
+        }
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(code, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+}
@@ -0,0 +1,326 @@
+package com.essheva.assateague;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import javax.mail.internet.AddressException;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.LongSupplier;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class MailDispatcherTest {
+
+    private static final long TIMEOUT_MILLIS = TimeUnit.SECONDS.toMillis(30);
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private SmtpStub smtp;
+    private Path confDir;
+
+    @Before
+    public void setUp() throws IOException {
+        smtp = new SmtpStub();
+        confDir = folder.newFolder().toPath();
+        Files.write(confDir.resolve(Configuration.USER_SECRET), Arrays.asList(
+                "mail.transport.protocol=smtp",
+                "mail.smtp.host=127.0.0.1",
+                "mail.smtp.port=" + smtp.getPort(),
+                "mail.imap.host=127.0.0.1",
+                "mail.pop3.host=127.0.0.1",
+                "mail.from.user=watcher@example.com",
+                "mail.from.password=secret"), StandardCharsets.UTF_8);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        smtp.close();
+    }
+
+    @Test
+    public void transientFailureIsRetriedWithGrowingDelay() throws Exception {
+        smtp.rcptReplies.add("451 4.3.0 Try again later");
+        smtp.rcptReplies.add("451 4.3.0 Try again later");
+        final long latencies = Metrics.DETECTION_LATENCY.getCount();
+        final long startMillis = System.currentTimeMillis();
+        final Configuration conf = load("mail.retry.delay.seconds=1", "mail.max.attempts=3");
+        try (MailDispatcher dispatcher = new MailDispatcher(conf)) {
+            dispatcher.submit("default", mail("a@example.com", "Loop A"), System.nanoTime());
+            smtp.awaitMessages(1);
+        }
+
+        assertTrue(System.currentTimeMillis() - startMillis >= TimeUnit.SECONDS.toMillis(1 + 2));
+        assertEquals(3, smtp.rcptCommands.get());
+        assertEquals(1, smtp.messages.size());
+        assertEquals(latencies + 1, Metrics.DETECTION_LATENCY.getCount());
+    }
+
+    @Test
+    public void transientFailureOfSenderIsRetried() throws Exception {
+        smtp.mailReplies.add("451 4.3.0 Mailbox busy");
+        try (MailDispatcher dispatcher = new MailDispatcher(load("mail.max.attempts=2"))) {
+            dispatcher.submit("default", mail("a@example.com", "Loop A"), System.nanoTime());
+            smtp.awaitMessages(1);
+        }
+
+        assertEquals(1, smtp.messages.size());
+    }
+
+    @Test
+    public void permanentFailureIsNotRetried() throws Exception {
+        smtp.rcptReplies.add("550 5.1.1 No such user");
+        final long latencies = Metrics.DETECTION_LATENCY.getCount();
+        final long failures = Metrics.MAIL_SEND_FAILURES.get();
+        final Configuration conf = load("mail.retry.delay.seconds=1", "mail.max.attempts=3");
+        try (MailDispatcher dispatcher = new MailDispatcher(conf)) {
+            dispatcher.submit("default", mail("nobody@example.com", "Loop A"), System.nanoTime());
+            awaitCount(Metrics.MAIL_SEND_FAILURES::get, failures + 1);
+        }
+
+        assertEquals(1, smtp.rcptCommands.get());
+        assertTrue(smtp.messages.isEmpty());
+        assertEquals(latencies, Metrics.DETECTION_LATENCY.getCount());
+    }
+
+    @Test
+    public void connectionIsKeptOpenBetweenMails() throws Exception {
+        try (MailDispatcher dispatcher = new MailDispatcher(load())) {
+            dispatcher.submit("default", mail("a@example.com", "Loop A"), System.nanoTime());
+            smtp.awaitMessages(1);
+            dispatcher.submit("default", mail("a@example.com", "Loop B"), System.nanoTime());
+            smtp.awaitMessages(2);
+        }
+
+        assertEquals(1, smtp.connections.get());
+        assertEquals(2, smtp.messages.size());
+    }
+
+    @Test
+    public void profilesWithSameRecipientsGetOneDigest() throws Exception {
+        try (MailDispatcher dispatcher = new MailDispatcher(load("mail.coalesce.seconds=1"))) {
+            dispatcher.submit("family", mail("a@example.com", "Loop A"), System.nanoTime());
+            dispatcher.submit("friends", mail("a@example.com", "Loop B"), System.nanoTime());
+            smtp.awaitMessages(1);
+        }
+
+        assertEquals(1, smtp.messages.size());
+        assertTrue(smtp.messages.get(0).contains("Loop A"));
+        assertTrue(smtp.messages.get(0).contains("Loop B"));
+    }
+
+    @Test
+    public void digestsWithEqualContentAreSentOnceToAllRecipients() throws Exception {
+        try (MailDispatcher dispatcher = new MailDispatcher(load("mail.coalesce.seconds=1"))) {
+            dispatcher.submit("family", mail("a@example.com", "Loop A"), System.nanoTime());
+            dispatcher.submit("friends", mail("b@example.com", "Loop A"), System.nanoTime());
+            smtp.awaitMessages(1);
+        }
+
+        assertEquals(1, smtp.messages.size());
+        assertEquals(Arrays.asList("<a@example.com>", "<b@example.com>"), smtp.recipients.get(0));
+    }
+
+    @Test
+    public void digestsWithSameSitesButOtherDatesAreSentSeparately() throws Exception {
+        final Site moreDates = site("Loop A");
+        moreDates.addAvailableDates(DateBitSet.of(Collections.singleton(LocalDate.of(2030, 6, 8))));
+        try (MailDispatcher dispatcher = new MailDispatcher(load("mail.coalesce.seconds=1"))) {
+            dispatcher.submit("family", mail("a@example.com", "Loop A"), System.nanoTime());
+            dispatcher.submit("friends", new SiteAvailabilityMailer(loadMailProps(), "b@example.com",
+                    Collections.singletonList(moreDates), Collections.emptyList()), System.nanoTime());
+            smtp.awaitMessages(2);
+        }
+
+        assertEquals(2, smtp.messages.size());
+        assertEquals(Collections.singletonList("<a@example.com>"), smtp.recipients.get(0));
+        assertEquals(Collections.singletonList("<b@example.com>"), smtp.recipients.get(1));
+    }
+
+    @Test
+    public void changesOfProfileAreMergedWithinCoalescingWindow() throws Exception {
+        final Site taken = site("Loop A");
+        final Configuration conf = load("mail.coalesce.seconds=1", "mail.notify.on=changes");
+        try (MailDispatcher dispatcher = new MailDispatcher(conf)) {
+            dispatcher.submit("default", mail("a@example.com", "Loop A"), System.nanoTime());
+            dispatcher.submit("default", new SiteAvailabilityMailer(loadMailProps(), "a@example.com",
+                    Collections.singletonList(site("Loop B")), Collections.singletonList(taken)), System.nanoTime());
+            smtp.awaitMessages(1);
+        }
+
+        assertEquals(1, smtp.messages.size());
+        assertFalse(smtp.messages.get(0).contains("Loop A")); // opened and taken again in between
+        assertTrue(smtp.messages.get(0).contains("Loop B"));
+    }
+
+    @Test
+    public void closeSendsQueuedMailsWithoutWaitingForCoalescing() throws Exception {
+        final long startMillis = System.currentTimeMillis();
+        final MailDispatcher dispatcher = new MailDispatcher(load("mail.coalesce.seconds=600"));
+        dispatcher.submit("default", mail("a@example.com", "Loop A"), System.nanoTime());
+        dispatcher.submit("other", mail("b@example.com", "Loop B"), System.nanoTime());
+        dispatcher.close();
+
+        assertEquals(2, smtp.messages.size());
+        assertTrue(System.currentTimeMillis() - startMillis < TIMEOUT_MILLIS);
+        smtp.awaitQuit();
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void closedDispatcherRejectsMails() throws Exception {
+        final MailDispatcher dispatcher = new MailDispatcher(load());
+        dispatcher.close();
+        dispatcher.submit("default", mail("a@example.com", "Loop A"), System.nanoTime());
+    }
+
+    private Configuration load(String... properties) throws IOException {
+        final List<String> lines = new ArrayList<>(Arrays.asList("mail.send=true", "mail.coalesce.seconds=0",
+                "mail.retry.delay.seconds=0"));
+        Collections.addAll(lines, properties);
+        return TestConfigurations.load(confDir, lines.toArray(new String[0]));
+    }
+
+    private Properties loadMailProps() throws IOException {
+        return Configuration.load(confDir).getMailProps();
+    }
+
+    private SiteAvailabilityMailer mail(String recipients, String loopName) throws IOException, AddressException {
+        return new SiteAvailabilityMailer(loadMailProps(), recipients,
+                Collections.singletonList(site(loopName)), Collections.emptyList());
+    }
+
+    private static Site site(String loopName) {
+        final Site site = new Site("7", loopName);
+        site.addAvailableDates(DateBitSet.of(Collections.singleton(LocalDate.of(2030, 6, 7))));
+        return site;
+    }
+
+    private static void awaitCount(LongSupplier count, long expected) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        while (count.getAsLong() < expected && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+        }
+        assertEquals(expected, count.getAsLong());
+    }
+
+    /**
+     * Accepts SMTP connections one at a time and records the messages delivered. MAIL FROM and RCPT TO are
+     * answered with the queued replies first, then accepted.
+     */
+    private static class SmtpStub implements AutoCloseable {
+        final Deque<String> mailReplies = new ConcurrentLinkedDeque<>();
+        final Deque<String> rcptReplies = new ConcurrentLinkedDeque<>();
+        final AtomicInteger connections = new AtomicInteger();
+        final AtomicInteger rcptCommands = new AtomicInteger();
+        final List<String> messages = new CopyOnWriteArrayList<>();
+        final List<List<String>> recipients = new CopyOnWriteArrayList<>();
+        private final AtomicInteger quits = new AtomicInteger();
+        private final ServerSocket serverSocket;
+        private final Thread thread;
+
+        SmtpStub() throws IOException {
+            serverSocket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+            thread = new Thread(this::serve, "smtp-stub");
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        int getPort() {
+            return serverSocket.getLocalPort();
+        }
+
+        void awaitMessages(int count) throws InterruptedException {
+            awaitCount(messages::size, count);
+        }
+
+        void awaitQuit() throws InterruptedException {
+            awaitCount(quits::get, connections.get());
+        }
+
+        private void serve() {
+            while (!serverSocket.isClosed()) {
+                try (Socket socket = serverSocket.accept()) {
+                    connections.incrementAndGet();
+                    converse(new BufferedReader(new InputStreamReader(socket.getInputStream(),
+                                    StandardCharsets.US_ASCII)),
+                            new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.US_ASCII));
+                } catch (IOException ignored) { // closed, or the client dropped the connection
+                }
+            }
+        }
+
+        private void converse(BufferedReader in, Writer out) throws IOException {
+            reply(out, "220 stub ESMTP");
+            List<String> accepted = new ArrayList<>();
+            String line;
+            while ((line = in.readLine()) != null) {
+                final String command = line.toUpperCase();
+                if (command.startsWith("EHLO") || command.startsWith("HELO")) {
+                    reply(out, "250 stub");
+                } else if (command.startsWith("MAIL FROM")) {
+                    accepted = new ArrayList<>();
+                    final String queued = mailReplies.poll();
+                    reply(out, queued != null ? queued : "250 OK");
+                } else if (command.startsWith("RCPT TO")) {
+                    rcptCommands.incrementAndGet();
+                    final String queued = rcptReplies.poll();
+                    if (queued == null) {
+                        accepted.add(line.substring(line.indexOf(':') + 1).trim());
+                    }
+                    reply(out, queued != null ? queued : "250 OK");
+                } else if (command.startsWith("DATA")) {
+                    reply(out, "354 End data with <CR><LF>.<CR><LF>");
+                    final StringBuilder data = new StringBuilder();
+                    while ((line = in.readLine()) != null && !line.equals(".")) {
+                        data.append(line).append('\n');
+                    }
+                    recipients.add(accepted);
+                    messages.add(data.toString());
+                    reply(out, "250 OK queued");
+                } else if (command.startsWith("QUIT")) {
+                    quits.incrementAndGet();
+                    reply(out, "221 Bye");
+                    return;
+                } else {
+                    reply(out, "250 OK"); // RSET, NOOP
+                }
+            }
+        }
+
+        private static void reply(Writer out, String reply) throws IOException {
+            out.write(reply + "\r\n");
+            out.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            serverSocket.close();
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package com.essheva.assateague;
+
+import org.junit.Test;
+
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class MailRendererTest {
+
+    private final MailRenderer renderer = new MailRenderer(2);
+
+    @Test
+    public void datesStepAcrossMonthAndYearEnds() {
+        final Site site = site("42", "Loop A", LocalDate.of(2031, 12, 30), LocalDate.of(2031, 12, 31),
+                LocalDate.of(2032, 1, 1), LocalDate.of(2032, 1, 2));
+        site.addAvailableDates(DateBitSet.of(Arrays.asList(LocalDate.of(2032, 2, 28), LocalDate.of(2032, 2, 29),
+                LocalDate.of(2032, 3, 1))));
+
+        assertEquals("Subject\r\n\r\n" +
+                "Site #42 (Loop A): TUE  12/30, WED  12/31, THU  1/1, FRI  1/2 | " +
+                "SAT  2/28, SUN  2/29, MON  3/1\r\n" +
+                "    https://www.recreation.gov/camping/campsites/42\r\n",
+                renderer.renderText("Subject", Collections.singletonList(site), Collections.emptyList()));
+        assertTrue(renderer.renderHtml("Subject", Collections.singletonList(site), Collections.emptyList()).
+                contains("TUE  12/30; WED  12/31; THU  1/1; FRI  1/2; </span>"));
+    }
+
+    @Test
+    public void siteWithoutDatesKeepsItsLine() {
+        final Site site = new Site("042", "Loop A");
+        assertEquals("Subject\r\n\r\nSite #042 (Loop A):\r\n",
+                renderer.renderText("Subject", Collections.singletonList(site), Collections.emptyList()));
+    }
+
+    @Test
+    public void csvValuesAreQuotedWhenNeeded() {
+        final Site site = site("7, \"corner\"", "Loop\nA", LocalDate.of(2030, 6, 30), LocalDate.of(2030, 7, 1));
+        site.setSiteLink(null);
+        final Site taken = site("8", "Loop B", LocalDate.of(2030, 6, 7));
+
+        assertEquals("status,loop,site,date,day,link\r\n" +
+                "available,\"Loop\nA\",\"7, \"\"corner\"\"\",2030-06-30,SUN,\r\n" +
+                "available,\"Loop\nA\",\"7, \"\"corner\"\"\",2030-07-01,MON,\r\n" +
+                "taken,Loop B,8,2030-06-07,FRI,https://www.recreation.gov/camping/campsites/8\r\n",
+                renderer.renderCsv(Collections.singletonList(site), Collections.singletonList(taken)));
+    }
+
+    @Test
+    public void sitesBeyondInlineLimitGoToAttachment() {
+        final List<Site> sites = Arrays.asList(site("1", "Loop A", LocalDate.of(2030, 6, 7)),
+                site("2", "Loop A", LocalDate.of(2030, 6, 7)), site("3", "Loop A", LocalDate.of(2030, 6, 7)));
+
+        assertFalse(renderer.needsAttachment(sites.subList(0, 2), Collections.emptyList()));
+        assertTrue(renderer.needsAttachment(sites, Collections.emptyList()));
+        final String text = renderer.renderText("Subject", sites, Collections.emptyList());
+        assertTrue(text.contains("Site #2 "));
+        assertFalse(text.contains("Site #3 "));
+        assertTrue(text.contains("see attached CSV"));
+    }
+
+    private static Site site(String name, String loopName, LocalDate... dates) {
+        final Site site = new Site(name, loopName);
+        site.setSiteLink("https://www.recreation.gov/camping/campsites/" + name);
+        site.addAvailableDates(DateBitSet.of(Arrays.asList(dates)));
+        return site;
+    }
+}
@@ -0,0 +1,91 @@
+package com.essheva.assateague;
+
+import org.junit.Test;
+
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class ProfileMatcherTest {
+
+    private static final LocalDate FRIDAY = LocalDate.of(2030, 6, 7);
+
+    private final SearchProfile weekends = profile("weekends", Arrays.asList("Loop A", "Loop B"),
+            EnumSet.of(DayOfWeek.FRIDAY, DayOfWeek.SATURDAY), 2);
+    private final SearchProfile family = profile("family", Collections.singletonList("Loop A"),
+            EnumSet.of(DayOfWeek.FRIDAY, DayOfWeek.SATURDAY), 2);
+    private final SearchProfile week = profile("week", Collections.singletonList("Loop B"),
+            EnumSet.allOf(DayOfWeek.class), 5);
+
+    @Test
+    public void sitesAreMatchedByLoopAndCriteriaOfEveryProfile() {
+        final ProfileMatcher matcher = new ProfileMatcher(Arrays.asList(weekends, family, week));
+        final Site loopA = site("001", "Loop A", 0, 1, 2, 7); // Fri-Sun, next Fri
+        final Site loopB = site("001", "Loop B", 0, 1, 2, 3, 4, 5, 6);
+        final Site loopC = site("001", "Loop C", 0, 1);
+
+        final Map<SearchProfile, List<Site>> matches = matcher.match(Arrays.asList(loopA, loopB, loopC));
+        assertEquals(Arrays.asList(weekends, family, week), Arrays.asList(matches.keySet().toArray()));
+
+        assertEquals(Arrays.asList(days(0, 1), days(0, 1)), datesOf(matches.get(weekends)));
+        assertEquals(Collections.singletonList(days(0, 1)), datesOf(matches.get(family)));
+        assertEquals(Collections.singletonList(days(0, 1, 2, 3, 4, 5, 6)), datesOf(matches.get(week)));
+        // profiles with the same criteria share the matched site
+        assertSame(matches.get(weekends).get(0), matches.get(family).get(0));
+        assertEquals("https://example.com/Loop A/001", matches.get(family).get(0).getSiteLink());
+    }
+
+    @Test
+    public void profilesWithoutMatchesArePresent() {
+        final ProfileMatcher matcher = new ProfileMatcher(Arrays.asList(weekends, week));
+        final Map<SearchProfile, List<Site>> matches = matcher.match(
+                Collections.singletonList(site("001", "Loop A", 0))); // a single night is too short
+
+        assertEquals(2, matches.size());
+        assertTrue(matches.get(weekends).isEmpty());
+        assertTrue(matches.get(week).isEmpty());
+    }
+
+    @Test
+    public void wantedDatesJoinPeriodAndDaysOfProfilesWatchingLoop() {
+        final ProfileMatcher matcher = new ProfileMatcher(Arrays.asList(weekends, week));
+
+        assertEquals(new TreeSet<>(days(0, 1, 7, 8)),
+                matcher.getWantedDates("Loop A", FRIDAY, FRIDAY.plusDays(9)).toSortedSet());
+        assertEquals(10, matcher.getWantedDates("Loop B", FRIDAY, FRIDAY.plusDays(9)).size());
+        assertTrue(matcher.getWantedDates("Loop C", FRIDAY, FRIDAY.plusDays(9)).isEmpty());
+        assertEquals(new TreeSet<>(days(22)),
+                matcher.getWantedDates("Loop A", FRIDAY.plusDays(22), FRIDAY.plusDays(40)).toSortedSet());
+    }
+
+    private static SearchProfile profile(String name, List<String> loops, EnumSet<DayOfWeek> days, int minLength) {
+        return new SearchProfile(name, new TreeSet<>(loops), days, LocalDate.of(2030, 6, 1),
+                LocalDate.of(2030, 6, 30), minLength, null);
+    }
+
+    private static Site site(String name, String loopName, int... dayOffsets) {
+        final Site site = new Site(name, loopName);
+        site.setSiteLink("https://example.com/" + loopName + "/" + name);
+        site.addAvailableDates(DateBitSet.of(days(dayOffsets)));
+        return site;
+    }
+
+    private static List<LocalDate> days(int... dayOffsets) {
+        return Arrays.stream(dayOffsets).mapToObj(FRIDAY::plusDays).collect(Collectors.toList());
+    }
+
+    private static List<List<LocalDate>> datesOf(List<Site> sites) {
+        return sites.stream().map(site -> site.getAvailability().stream().collect(Collectors.toList())).
+                collect(Collectors.toList());
+    }
+}
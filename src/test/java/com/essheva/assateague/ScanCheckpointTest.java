@@ -0,0 +1,146 @@
+package com.essheva.assateague;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.NavigableSet;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ScanCheckpointTest {
+
+    private static final long MAX_AGE_MILLIS = TimeUnit.MINUTES.toMillis(90);
+    private static final LocalDate FROM = LocalDate.of(2030, 6, 1);
+    private static final LocalDate TO = LocalDate.of(2030, 9, 30);
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void restartResumesAfterLastSavedWindow() throws IOException {
+        final Path dir = folder.getRoot().toPath();
+        final ScanCheckpoint first = new ScanCheckpoint(dir, MAX_AGE_MILLIS);
+        final ScanCheckpoint.Progress progress = first.resume("north/Loop A", FROM, TO);
+        first.completeWindow(progress, LocalDate.of(2030, 6, 30), Collections.singletonList(site("001", 7)));
+        first.completeWindow(progress, LocalDate.of(2030, 7, 31), Collections.singletonList(site("001", 40)));
+
+        final ScanCheckpoint restarted = new ScanCheckpoint(dir, MAX_AGE_MILLIS);
+        final ScanCheckpoint.Progress resumed = restarted.resume("north/Loop A", FROM, TO);
+        assertEquals(LocalDate.of(2030, 7, 31), resumed.getScannedThrough());
+        final NavigableSet<Site> sites = restarted.finish(resumed);
+        assertEquals(1, sites.size());
+        assertEquals(Arrays.asList(FROM.plusDays(7), FROM.plusDays(40)),
+                sites.first().getAvailableDates().stream().collect(Collectors.toList()));
+        assertEquals(0, files(dir).size());
+    }
+
+    @Test
+    public void windowsAreAppendedToFileOfTheirScan() throws IOException {
+        final Path dir = folder.getRoot().toPath();
+        final ScanCheckpoint checkpoint = new ScanCheckpoint(dir, MAX_AGE_MILLIS);
+        final ScanCheckpoint.Progress loopA = checkpoint.resume("Loop A", FROM, TO);
+        final ScanCheckpoint.Progress loopB = checkpoint.resume("Loop B", FROM, TO);
+        checkpoint.completeWindow(loopA, LocalDate.of(2030, 6, 30), Collections.singletonList(site("001", 7)));
+        checkpoint.completeWindow(loopB, LocalDate.of(2030, 6, 30), Collections.emptyList());
+        assertEquals(2, files(dir).size());
+
+        final Path fileA = files(dir).get(0);
+        final List<String> linesBefore = Files.readAllLines(fileA, StandardCharsets.UTF_8);
+        checkpoint.completeWindow(loopA, LocalDate.of(2030, 7, 31), Collections.singletonList(site("002", 35)));
+        final List<String> linesAfter = Files.readAllLines(fileA, StandardCharsets.UTF_8);
+        assertEquals(linesBefore, linesAfter.subList(0, linesBefore.size()));
+        assertEquals(linesBefore.size() + 2, linesAfter.size());
+    }
+
+    @Test
+    public void linesTornByCrashAreIgnored() throws IOException {
+        final Path dir = folder.getRoot().toPath();
+        final ScanCheckpoint first = new ScanCheckpoint(dir, MAX_AGE_MILLIS);
+        final ScanCheckpoint.Progress progress = first.resume("Loop A", FROM, TO);
+        first.completeWindow(progress, LocalDate.of(2030, 6, 30), Collections.singletonList(site("001", 7)));
+        final Path file = files(dir).get(0);
+        Files.write(file, "site\t002\t\t2030-07-0".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+
+        final ScanCheckpoint restarted = new ScanCheckpoint(dir, MAX_AGE_MILLIS);
+        final ScanCheckpoint.Progress resumed = restarted.resume("Loop A", FROM, TO);
+        assertEquals(LocalDate.of(2030, 6, 30), resumed.getScannedThrough());
+        restarted.completeWindow(resumed, LocalDate.of(2030, 7, 31), Collections.singletonList(site("003", 40)));
+
+        final ScanCheckpoint again = new ScanCheckpoint(dir, MAX_AGE_MILLIS);
+        final ScanCheckpoint.Progress latest = again.resume("Loop A", FROM, TO);
+        assertEquals(LocalDate.of(2030, 7, 31), latest.getScannedThrough());
+        assertEquals(Arrays.asList("001", "003"), again.finish(latest).stream().
+                map(Site::getSiteName).collect(Collectors.toList()));
+    }
+
+    @Test
+    public void progressOlderThanMaxAgeStartsOver() throws Exception {
+        final ScanCheckpoint checkpoint = new ScanCheckpoint(folder.getRoot().toPath(), 200);
+        final ScanCheckpoint.Progress progress = checkpoint.resume("Loop A", FROM, TO);
+        checkpoint.completeWindow(progress, LocalDate.of(2030, 6, 30), Collections.singletonList(site("001", 7)));
+        Thread.sleep(300);
+
+        final ScanCheckpoint.Progress fresh = checkpoint.resume("Loop A", FROM, TO);
+        assertNull(fresh.getScannedThrough());
+        assertTrue(checkpoint.finish(fresh).isEmpty());
+    }
+
+    @Test
+    public void expiredFilesAreDeletedOnStart() throws IOException {
+        final Path dir = folder.getRoot().toPath();
+        final ScanCheckpoint first = new ScanCheckpoint(dir, MAX_AGE_MILLIS);
+        first.completeWindow(first.resume("Loop A", FROM, TO), LocalDate.of(2030, 6, 30), Collections.emptyList());
+        Files.setLastModifiedTime(files(dir).get(0),
+                FileTime.fromMillis(System.currentTimeMillis() - 2 * MAX_AGE_MILLIS));
+
+        new ScanCheckpoint(dir, MAX_AGE_MILLIS);
+        assertTrue(files(dir).isEmpty());
+    }
+
+    @Test
+    public void retryResumesFromMemoryWithoutDirectory() {
+        final ScanCheckpoint checkpoint = new ScanCheckpoint(null, MAX_AGE_MILLIS);
+        final ScanCheckpoint.Progress progress = checkpoint.resume("Loop A", FROM, TO);
+        checkpoint.completeWindow(progress, LocalDate.of(2030, 6, 30), Collections.singletonList(site("001", 7)));
+
+        final ScanCheckpoint.Progress retry = checkpoint.resume("Loop A", FROM, TO);
+        assertEquals(LocalDate.of(2030, 6, 30), retry.getScannedThrough());
+        assertFalse(checkpoint.finish(retry).isEmpty());
+        assertNull(checkpoint.resume("Loop A", FROM, TO).getScannedThrough());
+    }
+
+    @Test
+    public void maxAgeDefaultsToHalfOfPollInterval() throws IOException {
+        final Path dir = folder.getRoot().toPath();
+        assertEquals(90, TestConfigurations.load(dir, "poll.interval.minutes=180").getCheckpointMaxAgeMinutes());
+        assertEquals(20, TestConfigurations.load(dir, "poll.interval.minutes=180",
+                "checkpoint.max.age.minutes=20").getCheckpointMaxAgeMinutes());
+    }
+
+    private static Site site(String name, int dayOffset) {
+        final Site site = new Site(name, "Loop A");
+        site.addAvailableDates(DateBitSet.of(Collections.singleton(FROM.plusDays(dayOffset))));
+        return site;
+    }
+
+    private static List<Path> files(Path dir) throws IOException {
+        return Files.list(dir).filter(file -> file.toString().endsWith(".checkpoint")).sorted().
+                collect(Collectors.toList());
+    }
+}
@@ -0,0 +1,79 @@
+package com.essheva.assateague;
+
+import org.junit.Test;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class SiteAccumulatorTest {
+
+    private static final LocalDate START = LocalDate.of(2030, 6, 1);
+
+    @Test
+    public void datesOfSameSiteAreMergedAndFirstLinkKept() {
+        final SiteAccumulator accumulator = new SiteAccumulator();
+        accumulator.add("Loop A", "001", null, dates(0));
+        accumulator.add("Loop A", "001", "https://example.com/1", dates(1));
+        accumulator.add("Loop A", "001", "https://example.com/other", dates(2));
+        accumulator.add("Loop B", "001", null, dates(0));
+
+        assertEquals(2, accumulator.size());
+        final Site site = accumulator.toSortedSet().first();
+        assertEquals("Loop A", site.getLoopName());
+        assertEquals("https://example.com/1", site.getSiteLink());
+        assertEquals(3, site.getAvailability().size());
+    }
+
+    @Test
+    public void addedSitesAreCopied() {
+        final Site site = new Site("001", "Loop A");
+        site.addAvailableDates(dates(0));
+        final SiteAccumulator accumulator = new SiteAccumulator();
+        accumulator.addAll(Collections.singletonList(site));
+        accumulator.add("Loop A", "001", null, dates(1));
+
+        assertEquals(1, site.getAvailability().size());
+        assertEquals(2, accumulator.toSortedSet().first().getAvailability().size());
+    }
+
+    @Test
+    public void concurrentMergesLoseNoDates() throws Exception {
+        final SiteAccumulator accumulator = new SiteAccumulator();
+        final ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            final List<Future<?>> futures = new ArrayList<>();
+            for (int page = 0; page < 64; page++) {
+                final int offset = page;
+                futures.add(executor.submit(() -> {
+                    for (int site = 0; site < 50; site++) {
+                        accumulator.add("Loop A", String.format("%03d", site), null, dates(offset));
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+            assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+        }
+
+        assertEquals(50, accumulator.size());
+        for (Site site : accumulator.toSortedSet()) {
+            assertEquals(64, site.getAvailability().size());
+        }
+    }
+
+    private static DateBitSet dates(int dayOffset) {
+        return DateBitSet.of(Collections.singleton(START.plusDays(dayOffset)));
+    }
+}
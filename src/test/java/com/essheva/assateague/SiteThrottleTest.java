@@ -0,0 +1,130 @@
+package com.essheva.assateague;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SiteThrottleTest {
+
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final AtomicLong clock = new AtomicLong(1000 * SECOND);
+
+    @Test
+    public void burstPassesAtOnceAndRefillsAtRate() throws Exception {
+        final SiteThrottle throttle = throttle("throttle.rate.per.second=2", "throttle.burst=3");
+        for (int i = 0; i < 3; i++) {
+            throttle.release(throttle.acquire(), true);
+        }
+
+        final Thread fourth = acquireInBackground(throttle);
+        assertBlocked(fourth);
+        advance(throttle, SECOND / 2);
+        fourth.join(1000);
+        assertFalse(fourth.isAlive());
+
+        advance(throttle, 10 * SECOND); // refill stops at the burst
+        for (int i = 0; i < 3; i++) {
+            throttle.release(throttle.acquire(), true);
+        }
+        assertBlocked(acquireInBackground(throttle));
+    }
+
+    @Test
+    public void slowOrFailedRoundHalvesLimitOnce() throws Exception {
+        final SiteThrottle throttle = throttle("browser.pool.size=8", "throttle.latency.target.millis=1000");
+        final long[] round = new long[4];
+        for (int i = 0; i < round.length; i++) {
+            round[i] = throttle.acquire();
+        }
+        advance(throttle, 2 * SECOND);
+        throttle.release(round[0], true); // slow
+        throttle.release(round[1], false);
+        throttle.release(round[2], false);
+        assertEquals(4, throttle.getConcurrencyLimit());
+
+        throttle.release(throttle.acquire(), false); // started after the decrease
+        assertEquals(2, throttle.getConcurrencyLimit());
+
+        throttle.release(round[3], true); // slow, but started before the last decrease
+        assertEquals(2, throttle.getConcurrencyLimit());
+        for (int i = 0; i < 3; i++) { // each success adds 1/limit, about one per round
+            throttle.release(throttle.acquire(), true);
+        }
+        assertEquals(3, throttle.getConcurrencyLimit());
+    }
+
+    @Test
+    public void breakerOpensPausesProbesAndCloses() throws Exception {
+        final SiteThrottle throttle = throttle("browser.pool.size=4", "throttle.breaker.window=4",
+                "throttle.breaker.failure.percent=50", "throttle.breaker.pause.seconds=60");
+        throttle.release(throttle.acquire(), true);
+        throttle.release(throttle.acquire(), true);
+        throttle.release(throttle.acquire(), false);
+        throttle.release(throttle.acquire(), false);
+
+        final Thread probe = acquireInBackground(throttle);
+        assertBlocked(probe);
+        advance(throttle, 61 * SECOND);
+        probe.join(1000);
+        assertFalse(probe.isAlive());
+        assertEquals(1, throttle.getConcurrencyLimit());
+
+        // a failed probe opens the breaker again
+        throttle.release(clock.get(), false);
+        final Thread secondProbe = acquireInBackground(throttle);
+        assertBlocked(secondProbe);
+        advance(throttle, 61 * SECOND);
+        secondProbe.join(1000);
+        assertFalse(secondProbe.isAlive());
+
+        final Thread waiting = acquireInBackground(throttle);
+        assertBlocked(waiting); // only the probe is let through
+        throttle.release(clock.get(), true);
+        waiting.join(1000);
+        assertFalse(waiting.isAlive());
+        assertEquals(2, throttle.getConcurrencyLimit());
+    }
+
+    private SiteThrottle throttle(String... properties) throws IOException {
+        final String[] lines = new String[properties.length + 1];
+        lines[0] = "throttle.rate.per.second=0";
+        System.arraycopy(properties, 0, lines, 1, properties.length);
+        return new SiteThrottle(TestConfigurations.load(folder.getRoot().toPath(), lines), clock::get);
+    }
+
+    private void advance(SiteThrottle throttle, long nanos) {
+        clock.addAndGet(nanos);
+        synchronized (throttle) {
+            throttle.notifyAll();
+        }
+    }
+
+    private static Thread acquireInBackground(SiteThrottle throttle) {
+        final Thread thread = new Thread(() -> {
+            try {
+                throttle.acquire();
+            } catch (InterruptedException ignored) {
+            }
+        });
+        thread.setDaemon(true);
+        thread.start();
+        return thread;
+    }
+
+    private static void assertBlocked(Thread thread) throws InterruptedException {
+        thread.join(100);
+        assertTrue(thread.isAlive());
+    }
+}
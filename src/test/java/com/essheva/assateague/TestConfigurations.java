@@ -0,0 +1,37 @@
+package com.essheva.assateague;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Writes 'app.properties' of a minimal valid configuration, searching 'Bayside Loop A' in June 2030
+ * without mail, plus the given properties, which override the defaults.
+ */
+class TestConfigurations {
+
+    private TestConfigurations() {
+    }
+
+    static void write(Path dir, String... properties) throws IOException {
+        final List<String> lines = new ArrayList<>();
+        lines.add("campgroup.names=Bayside Loop A");
+        lines.add("days.of.week=FRIDAY; SATURDAY");
+        lines.add("min.length.of.stay=2");
+        lines.add("start.date=06/01/2030");
+        lines.add("stop.date=06/30/2030");
+        lines.add("mail.send=false");
+        lines.add("metrics.jmx=false");
+        Collections.addAll(lines, properties);
+        Files.write(dir.resolve(Configuration.APP_PROPERTIES), lines, StandardCharsets.UTF_8);
+    }
+
+    static Configuration load(Path dir, String... properties) throws IOException {
+        write(dir, properties);
+        return Configuration.load(dir);
+    }
+}